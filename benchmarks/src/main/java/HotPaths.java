@@ -0,0 +1,158 @@
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entry points of the server code measured by the benchmarks in bench.*. The server classes live in
+ * the default package, which JMH does not accept for benchmarks and which cannot be imported from
+ * any other, so the benchmarks reach them through this class and the method handles of
+ * bench.HotPathHandles. The signatures only use JDK types for that reason.
+ */
+public class HotPaths {
+
+  private HotPaths() {}
+
+  public static Map<String, String> parseQuery(String rawQuery) {
+    return DBInterfaceHelpers.parseQuery(rawQuery);
+  }
+
+  /**
+   * DBInterfaceHelpers.parseQuery before QueryStringParser, kept as the reference of
+   * ParseQueryBenchmark. It decoded the whole query, already decoded once by getQuery(), then
+   * split it
+   *
+   * @param query -- query of the request URI as given by getQuery()
+   * @return Map<Key, Value>
+   */
+  public static Map<String, String> previousParseQuery(String query)
+      throws UnsupportedEncodingException {
+    Map<String, String> queryPairs = new HashMap<>();
+    query = URLDecoder.decode(query, "UTF-8");
+    if (query != null) {
+      String[] pairs = query.split("&");
+      for (String pair : pairs) {
+        int idx = pair.indexOf("=");
+        queryPairs.put(pair.substring(0, idx), pair.substring(idx + 1));
+      }
+    }
+    return queryPairs;
+  }
+
+  /**
+   * Method for serializing rows held in memory as the handlers of /select do. A new
+   * InMemoryResultSet is made for every call, as a result can only be read once
+   *
+   * @param columnNames -- names of the columns
+   * @param columnTypes -- java.sql.Types of the columns
+   * @param columnTypeNames -- database type names of the columns
+   * @param rows -- values of each row, in column order
+   * @param typed -- whether to use the typed format rather than the text one
+   * @return String -- JSON array of the rows
+   */
+  public static String toJson(
+      String[] columnNames,
+      int[] columnTypes,
+      String[] columnTypeNames,
+      List<Object[]> rows,
+      boolean typed)
+      throws SQLException {
+    ResultSet rs = InMemoryResultSet.of(columnNames, columnTypes, columnTypeNames, rows);
+    return DBInterfaceHelpers.getJSONfromResultSet(rs, typed);
+  }
+
+  /**
+   * Method for getting a PooledConnection whose statements do nothing. Its statement cache works
+   * as in the server, so the SQL of each shape is prepared once and looked up afterwards
+   *
+   * @return Object -- the PooledConnection
+   */
+  public static Object connection() {
+    PreparedStatement statement = stub(PreparedStatement.class);
+    Connection connection =
+        (Connection)
+            Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) ->
+                    method.getName().equals("prepareStatement")
+                        ? statement
+                        : defaultValue(method.getReturnType()));
+    return new PooledConnection(connection);
+  }
+
+  /** Method for building and binding a Select query as handleSelect does for ?where=..&is=.. */
+  public static Object select(
+      Object connection, String columns, Map<String, String> params, String column)
+      throws SQLException, KeyNotFoundException {
+    SelectQueryBuilder builder =
+        new SelectQueryBuilder((PooledConnection) connection, columns)
+            .from(DBInterfaceHelpers.safeMapLookup(params, "from"));
+    return DBInterfaceHelpers.getWhereClause(builder, params, column).getSQLStatement();
+  }
+
+  /** Method for building and binding an Update statement as handleUpdate does */
+  public static Object update(
+      Object connection, String table, Map<String, String> params, String column)
+      throws SQLException, KeyNotFoundException {
+    UpdateStatementBuilder builder =
+        DBInterfaceHelpers.getUpdateAssignments(
+            new UpdateStatementBuilder((PooledConnection) connection, table), params);
+    return DBInterfaceHelpers.getWhereClause(builder, params, column).getSQLStatement();
+  }
+
+  /** Method for building and binding an Update statement of one column through getUpdateSetTo */
+  public static Object updateSetTo(
+      Object connection, String table, Map<String, String> params, String column)
+      throws SQLException, KeyNotFoundException {
+    UpdateStatementBuilder builder =
+        DBInterfaceHelpers.getUpdateSetTo(
+            new UpdateStatementBuilder((PooledConnection) connection, table),
+            params,
+            DBInterfaceHelpers.safeMapLookup(params, "set"));
+    return DBInterfaceHelpers.getWhereClause(builder, params, column).getSQLStatement();
+  }
+
+  /** Method for building and binding a Delete statement as handleDelete does */
+  public static Object delete(
+      Object connection, String table, Map<String, String> params, String column)
+      throws SQLException, KeyNotFoundException {
+    DeleteStatementBuilder builder =
+        new DeleteStatementBuilder((PooledConnection) connection).from(table);
+    return DBInterfaceHelpers.getWhereClause(builder, params, column).getSQLStatement();
+  }
+
+  /** Statement whose every method does nothing and returns a zero value */
+  private static <T> T stub(Class<T> type) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> defaultValue(method.getReturnType())));
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    } else if (type == double.class) {
+      return 0d;
+    } else if (type == float.class) {
+      return 0f;
+    } else if (type == short.class) {
+      return (short) 0;
+    } else if (type == byte.class) {
+      return (byte) 0;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Method handles of the static methods of HotPaths, in the default package. Being static final,
+ * they are constants to the JIT, which inlines their targets as it would a direct call.
+ */
+final class HotPathHandles {
+
+  static final MethodHandle PARSE_QUERY =
+      find("parseQuery", MethodType.methodType(Map.class, String.class));
+
+  static final MethodHandle PREVIOUS_PARSE_QUERY =
+      find("previousParseQuery", MethodType.methodType(Map.class, String.class));
+
+  static final MethodHandle TO_JSON =
+      find(
+          "toJson",
+          MethodType.methodType(
+              String.class,
+              String[].class,
+              int[].class,
+              String[].class,
+              List.class,
+              boolean.class));
+
+  static final MethodHandle CONNECTION = find("connection", MethodType.methodType(Object.class));
+
+  private static final MethodType STATEMENT =
+      MethodType.methodType(Object.class, Object.class, String.class, Map.class, String.class);
+
+  static final MethodHandle SELECT = find("select", STATEMENT);
+  static final MethodHandle UPDATE = find("update", STATEMENT);
+  static final MethodHandle UPDATE_SET_TO = find("updateSetTo", STATEMENT);
+  static final MethodHandle DELETE = find("delete", STATEMENT);
+
+  private HotPathHandles() {}
+
+  private static MethodHandle find(String name, MethodType type) {
+    try {
+      return MethodHandles.publicLookup().findStatic(Class.forName("HotPaths"), name, type);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+}
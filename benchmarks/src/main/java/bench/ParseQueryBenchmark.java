@@ -0,0 +1,98 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DBInterfaceHelpers.parseQuery on the query strings of the main kinds of request. parseQuery
+ * measures the parser alone. fromRequestUri and previousFromRequestUri compare it with the
+ * implementation it replaced, starting from the request URI as the handlers do: the previous one
+ * took the query decoded by URI.getQuery(), whose decoding was part of its cost, the current one
+ * takes getRawQuery(). Both parse the URI, which costs the same to either.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseQueryBenchmark {
+
+  /** Query strings as sent by the clients, i.e. as given by getRawQuery() */
+  static final String SELECT = "from=player&where=email&is=jane.doe%40example.com";
+
+  static final String INSERT =
+      "timestamp=2024-05-01%2012%3A30%3A00&player=7"
+          + "&url=https%3A%2F%2Fstorage.example.com%2Fimages%2F7%2F1714566600.jpg";
+
+  static final String GEO_RADIUS = "lat=51.49880&lon=-0.17490&rad=500";
+
+  static final String GEO_POLYGON =
+      "poly=%5B%7B%22lat%22%3A52.43042541356032%2C%22lng%22%3A-4.966549702756713%7D%2C"
+          + "%7B%22lat%22%3A46.741212852594806%2C%22lng%22%3A-9.119381734006712%7D%2C"
+          + "%7B%22lat%22%3A44.73252738390248%2C%22lng%22%3A16.588626078493288%7D%2C"
+          + "%7B%22lat%22%3A56.77788943094397%2C%22lng%22%3A7.118411234743287%7D%2C"
+          + "%7B%22lat%22%3A57.37500227162194%2C%22lng%22%3A-21.709713765256712%7D%5D";
+
+  @Param({"select", "insert", "geoRadius", "geoPolygon"})
+  public String request;
+
+  private String query;
+  private String uri;
+
+  @Setup
+  public void setUp() {
+    String path;
+    switch (request) {
+      case "select":
+        path = "/select/*";
+        query = SELECT;
+        break;
+      case "insert":
+        path = "/insert/gallery";
+        query = INSERT;
+        break;
+      case "geoRadius":
+        path = "/geoSelect/landmark";
+        query = GEO_RADIUS;
+        break;
+      case "geoPolygon":
+        path = "/geoSelect/location";
+        query = GEO_POLYGON;
+        break;
+      default:
+        throw new IllegalArgumentException(request);
+    }
+    uri = "http://localhost:8500" + path + "?" + query;
+  }
+
+  @Benchmark
+  public Map<String, String> parseQuery() throws Throwable {
+    return (Map<String, String>) HotPathHandles.PARSE_QUERY.invokeExact(query);
+  }
+
+  @Benchmark
+  public Map<String, String> fromRequestUri() throws Throwable {
+    String rawQuery = URI.create(uri).getRawQuery();
+    return (Map<String, String>) HotPathHandles.PARSE_QUERY.invokeExact(rawQuery);
+  }
+
+  @Benchmark
+  public Map<String, String> previousFromRequestUri() throws Throwable {
+    String decodedQuery = URI.create(uri).getQuery();
+    return (Map<String, String>) HotPathHandles.PREVIOUS_PARSE_QUERY.invokeExact(decodedQuery);
+  }
+}
@@ -0,0 +1,93 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DBInterfaceHelpers.getJSONfromResultSet over synthetic results of varying width and length, in
+ * the text and typed formats. The columns cycle through int4, varchar, timestamp and float8, the
+ * types of the tables of the game. Rows are read through InMemoryResultSet, a dynamic proxy, whose
+ * cost per getter is included but is the same for both formats.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultSetJsonBenchmark {
+
+  private static final int[] TYPES = {Types.INTEGER, Types.VARCHAR, Types.TIMESTAMP, Types.DOUBLE};
+  private static final String[] TYPE_NAMES = {"int4", "varchar", "timestamp", "float8"};
+
+  @Param({"4", "16"})
+  public int columns;
+
+  @Param({"1", "100", "1000"})
+  public int rows;
+
+  @Param({"text", "typed"})
+  public String format;
+
+  private String[] columnNames;
+  private int[] columnTypes;
+  private String[] columnTypeNames;
+  private List<Object[]> values;
+  private boolean typed;
+
+  @Setup
+  public void setUp() {
+    columnNames = new String[columns];
+    columnTypes = new int[columns];
+    columnTypeNames = new String[columns];
+    for (int c = 0; c < columns; c++) {
+      columnNames[c] = "column_" + c;
+      columnTypes[c] = TYPES[c % TYPES.length];
+      columnTypeNames[c] = TYPE_NAMES[c % TYPE_NAMES.length];
+    }
+    values = new ArrayList<>(rows);
+    for (int r = 0; r < rows; r++) {
+      Object[] row = new Object[columns];
+      for (int c = 0; c < columns; c++) {
+        row[c] = value(columnTypes[c], r, c);
+      }
+      values.add(row);
+    }
+    typed = "typed".equals(format);
+  }
+
+  private static Object value(int type, int row, int column) {
+    switch (type) {
+      case Types.INTEGER:
+        return row * 31 + column;
+      case Types.TIMESTAMP:
+        return new Timestamp(1714566600000L + row * 60_000L);
+      case Types.DOUBLE:
+        return 51.4988 + row * 0.0001;
+      default:
+        return "player" + row + "@example.com";
+    }
+  }
+
+  @Benchmark
+  public String getJSONfromResultSet() throws Throwable {
+    return (String)
+        HotPathHandles.TO_JSON.invokeExact(
+            columnNames, columnTypes, columnTypeNames, values, typed);
+  }
+}
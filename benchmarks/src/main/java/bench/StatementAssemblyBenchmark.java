@@ -0,0 +1,87 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQL of the Select, Update and Delete builders assembled and bound from the parameters of a
+ * request, through getWhereClause, getUpdateSetTo and getUpdateAssignments. Statements are
+ * prepared through the statement cache of a PooledConnection whose driver does nothing, so this is
+ * the work done by the server before the query is sent.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatementAssemblyBenchmark {
+
+  private Object connection;
+  private Map<String, String> selectParams;
+  private Map<String, String> setToParams;
+  private Map<String, String> assignmentParams;
+  private Map<String, String> deleteParams;
+
+  @Setup
+  public void setUp() throws Throwable {
+    connection = (Object) HotPathHandles.CONNECTION.invokeExact();
+
+    selectParams = new HashMap<>();
+    selectParams.put("from", "player");
+    selectParams.put("where", "email");
+    selectParams.put("is", "jane.doe@example.com");
+
+    setToParams = new HashMap<>();
+    setToParams.put("set", "description");
+    setToParams.put("to", "Statue at the end of the pier");
+    setToParams.put("where", "id");
+    setToParams.put("is", "42");
+
+    assignmentParams = new HashMap<>();
+    assignmentParams.put("add", "xp,cash");
+    assignmentParams.put("by.xp", "50");
+    assignmentParams.put("by.cash", "-10");
+    assignmentParams.put("where", "player_id");
+    assignmentParams.put("is", "7");
+
+    deleteParams = new HashMap<>();
+    deleteParams.put("where", "id");
+    deleteParams.put("is", "42");
+  }
+
+  @Benchmark
+  public Object selectWhere() throws Throwable {
+    return (Object) HotPathHandles.SELECT.invokeExact(connection, "*", selectParams, "email");
+  }
+
+  @Benchmark
+  public Object updateSetTo() throws Throwable {
+    return (Object)
+        HotPathHandles.UPDATE_SET_TO.invokeExact(connection, "landmark", setToParams, "id");
+  }
+
+  @Benchmark
+  public Object updateAssignments() throws Throwable {
+    return (Object)
+        HotPathHandles.UPDATE.invokeExact(
+            connection, "player_stats", assignmentParams, "player_id");
+  }
+
+  @Benchmark
+  public Object deleteWhere() throws Throwable {
+    return (Object) HotPathHandles.DELETE.invokeExact(connection, "landmark", deleteParams, "id");
+  }
+}
@@ -0,0 +1,117 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Set of strings that can answer "definitely not present" without storing them, at the cost of
+ * answering "maybe present" for a small fraction of the strings that are not. Bits are set with
+ * atomic operations, so strings can be added while others are being looked up.
+ *
+ * <p>The k bit positions of a string are derived from two 64-bit hashes by double hashing, which
+ * does as well as k independent hash functions for the sizes used here.
+ */
+public class BloomFilter {
+
+  private final AtomicLongArray bits;
+  private final long bitCount;
+  private final int hashCount;
+  private final long capacity;
+  private final LongAdder insertions = new LongAdder();
+
+  /**
+   * @param capacity -- strings the filter is sized for
+   * @param falsePositiveRate -- fraction of absent strings reported as maybe present at capacity
+   */
+  public BloomFilter(long capacity, double falsePositiveRate) {
+    if (capacity < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException(
+          "Invalid Bloom filter: capacity=" + capacity + " falsePositiveRate=" + falsePositiveRate);
+    }
+    long optimalBits =
+        (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    int words = (int) Math.min(Integer.MAX_VALUE, (optimalBits + 63) / 64);
+    this.bits = new AtomicLongArray(words);
+    this.bitCount = (long) words * 64;
+    this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+    this.capacity = capacity;
+  }
+
+  /** Method for adding a string to the filter */
+  public void add(String value) {
+    long h1 = hash(value);
+    long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Math.floorMod(h1 + i * h2, bitCount);
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      if ((bits.get(word) & mask) == 0) {
+        bits.getAndAccumulate(word, mask, (current, set) -> current | set);
+      }
+    }
+    insertions.increment();
+  }
+
+  /**
+   * Method for looking a string up
+   *
+   * @param value -- string to be looked up
+   * @return boolean -- false if the string was definitely never added
+   */
+  public boolean mightContain(String value) {
+    long h1 = hash(value);
+    long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Math.floorMod(h1 + i * h2, bitCount);
+      if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** FNV-1a over the characters of the string, then mixed so every bit depends on every input */
+  private static long hash(String value) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      h ^= value.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return mix(h);
+  }
+
+  /** Finalizer of MurmurHash3 */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Method for estimating the false-positive rate from the strings added so far. Grows past the
+   * rate the filter was sized for once it holds more than its capacity
+   *
+   * @return double -- probability that an absent string is reported as maybe present
+   */
+  public double getExpectedFalsePositiveRate() {
+    return Math.pow(1 - Math.exp(-hashCount * (double) insertions.sum() / bitCount), hashCount);
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /** Counter -- strings added, including duplicates */
+  public long getInsertions() {
+    return insertions.sum();
+  }
+
+  public long getBitCount() {
+    return bitCount;
+  }
+
+  public int getHashCount() {
+    return hashCount;
+  }
+}
@@ -0,0 +1,71 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct ByteBuffers of one size, so that reading requests and writing responses does not
+ * allocate a buffer per request. Buffers of any other size or kind handed to release() are
+ * ignored, which lets callers release every buffer they are done with without tracking where it
+ * came from.
+ */
+public class BufferPool {
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+  private final LongAdder allocated = new LongAdder();
+
+  /**
+   * @param bufferSize -- capacity of each buffer in bytes
+   * @param maxPooled -- number of free buffers kept, those released beyond it are left to the GC
+   */
+  public BufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  /** Method for taking a cleared buffer from the pool, allocating one if the pool is empty */
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = free.poll();
+    if (buffer == null) {
+      allocated.increment();
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+    pooled.decrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Method for handing a buffer back to the pool. The buffer must not be used afterwards
+   *
+   * @param buffer -- buffer obtained from acquire()
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+      return;
+    }
+    if (pooled.incrementAndGet() > maxPooled) {
+      pooled.decrementAndGet();
+      return;
+    }
+    buffer.clear();
+    free.offer(buffer);
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /** Gauge -- free buffers in the pool */
+  public int getPooledBuffers() {
+    return pooled.get();
+  }
+
+  /** Counter -- buffers allocated because the pool was empty */
+  public long getAllocatedBuffers() {
+    return allocated.sum();
+  }
+}
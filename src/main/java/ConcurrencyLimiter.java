@@ -0,0 +1,227 @@
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit on the queries in flight against the DB Server, wrapped around every JDBC call
+ * that executes a statement.
+ *
+ * <p>The limit follows the latency of the queries, in the additive-increase/multiplicative-decrease
+ * style: a short-term average of the latency is compared with a long-term one, and while it stays
+ * within the tolerance the limit grows by one for every limit queries completed, as long as the
+ * queries in flight actually come close to it. Once the short-term average rises above the
+ * tolerance, or a query fails with a transient error such as a timeout, the limit is cut by the
+ * backoff ratio. Queries that started before the last cut do not cut it again, so one slow spell
+ * costs a single backoff. Comparing two averages rather than the latency of single queries keeps a
+ * slow geolocation query among cheap inserts from being taken for overload.
+ */
+public class ConcurrencyLimiter {
+
+  /** Call into JDBC made under the limit */
+  public interface Query<T> {
+    T run() throws SQLException;
+  }
+
+  /** Weight of a sample in the short-term and the long-term average latency */
+  private static final double SHORT_TERM_WEIGHT = 0.1;
+
+  private static final double LONG_TERM_WEIGHT = 0.001;
+
+  /** Limiter running every query straight away */
+  public static final ConcurrencyLimiter UNLIMITED =
+      new ConcurrencyLimiter(false, Integer.MAX_VALUE, 1, Integer.MAX_VALUE, 1, 1, 0);
+
+  private final boolean enabled;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private final double backoffRatio;
+  private final long timeoutNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition slotFreed = lock.newCondition();
+  /* Guarded by lock */
+  private double limit;
+  private int inFlight = 0;
+  private double shortTermNanos = 0;
+  private double longTermNanos = 0;
+  private long lastBackoffAt;
+
+  /* Metrics */
+  private volatile int currentLimit;
+  private final LongAdder executed = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder backoffs = new LongAdder();
+
+  /**
+   * @param enabled -- whether queries are limited at all
+   * @param initialLimit -- queries allowed in flight at first
+   * @param minLimit -- lowest the limit can be cut to
+   * @param maxLimit -- highest the limit can grow to
+   * @param tolerance -- ratio of the short-term to the long-term average latency seen as overload
+   * @param backoffRatio -- factor the limit is multiplied by on overload
+   * @param timeoutMillis -- time a query waits to get under the limit before failing
+   */
+  public ConcurrencyLimiter(
+      boolean enabled,
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      double tolerance,
+      double backoffRatio,
+      long timeoutMillis) {
+    if (minLimit < 1 || minLimit > maxLimit) {
+      throw new IllegalArgumentException(
+          "Invalid concurrency limits: min=" + minLimit + " max=" + maxLimit);
+    }
+    this.enabled = enabled;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.tolerance = tolerance;
+    this.backoffRatio = backoffRatio;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    this.currentLimit = (int) limit;
+    this.lastBackoffAt = System.nanoTime();
+  }
+
+  /**
+   * Method for building the limiter described by the db.concurrency* keys of the config. The
+   * limit starts at, and cannot grow past, the maximum size of the connection pool
+   *
+   * @param config -- server configuration
+   * @return ConcurrencyLimiter
+   */
+  public static ConcurrencyLimiter fromConfig(ServerConfig config) {
+    int poolSize = config.getInt("pool.maxSize", 10);
+    int maxLimit = config.getInt("db.concurrency.maxLimit", poolSize);
+    return new ConcurrencyLimiter(
+        config.getBoolean("db.concurrency.adaptive", true),
+        config.getInt("db.concurrency.initialLimit", maxLimit),
+        config.getInt("db.concurrency.minLimit", 1),
+        maxLimit,
+        Double.parseDouble(config.getString("db.concurrency.tolerance", "2.0")),
+        Double.parseDouble(config.getString("db.concurrency.backoffRatio", "0.9")),
+        config.getLong("db.concurrency.timeoutMs", config.getLong("pool.borrowTimeoutMs", 5000L)));
+  }
+
+  /**
+   * Method for running a call into JDBC once there is room under the limit
+   *
+   * @param query -- call executing a statement
+   * @return T -- result of the call
+   * @throws SQLTransientException -- if there was no room within the timeout
+   * @throws SQLException -- thrown by the call
+   */
+  public <T> T execute(Query<T> query) throws SQLException {
+    if (!enabled) {
+      return query.run();
+    }
+    acquire();
+    long startedAt = System.nanoTime();
+    boolean overloaded = false;
+    try {
+      return query.run();
+    } catch (SQLTransientException e) {
+      overloaded = true;
+      throw e;
+    } finally {
+      release(startedAt, System.nanoTime(), overloaded);
+    }
+  }
+
+  private void acquire() throws SQLException {
+    lock.lock();
+    try {
+      long remaining = timeoutNanos;
+      while (inFlight >= (int) limit) {
+        if (remaining <= 0) {
+          timeouts.increment();
+          throw new SQLTransientException(
+              "No room under the limit of " + (int) limit + " queries in flight");
+        }
+        remaining = slotFreed.awaitNanos(remaining);
+      }
+      inFlight++;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for room under the concurrency limit");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void release(long startedAt, long completedAt, boolean overloaded) {
+    lock.lock();
+    try {
+      int wasInFlight = inFlight--;
+      sample(completedAt - startedAt);
+      int previousLimit = (int) limit;
+      if (overloaded || shortTermNanos > tolerance * longTermNanos) {
+        if (startedAt - lastBackoffAt > 0) {
+          limit = Math.max(minLimit, limit * backoffRatio);
+          lastBackoffAt = completedAt;
+          backoffs.increment();
+        }
+      } else if (wasInFlight * 2 >= limit) {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+      currentLimit = (int) limit;
+      if (currentLimit > previousLimit) {
+        slotFreed.signalAll();
+      } else {
+        slotFreed.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+    executed.increment();
+  }
+
+  private void sample(long latencyNanos) {
+    if (longTermNanos == 0) {
+      shortTermNanos = latencyNanos;
+      longTermNanos = latencyNanos;
+    } else {
+      shortTermNanos += (latencyNanos - shortTermNanos) * SHORT_TERM_WEIGHT;
+      longTermNanos += (latencyNanos - longTermNanos) * LONG_TERM_WEIGHT;
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Gauge -- queries currently allowed in flight */
+  public int getLimit() {
+    return currentLimit;
+  }
+
+  /** Gauge -- queries currently in flight */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Counter -- queries run under the limit */
+  public long getExecuted() {
+    return executed.sum();
+  }
+
+  /** Counter -- queries that failed waiting for room under the limit */
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+
+  /** Counter -- times the limit was cut */
+  public long getBackoffs() {
+    return backoffs.sum();
+  }
+}
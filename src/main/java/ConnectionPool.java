@@ -0,0 +1,318 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of connections to the DB Server. Idle connections are handed out most recently
+ * used first, so the ones at the tail of the deque are those that have been idle the longest and
+ * are evicted first once the pool is above its minimum size.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+  /** Factory for new physical connections */
+  public interface ConnectionFactory {
+    Connection create() throws SQLException;
+  }
+
+  private final ConnectionFactory factory;
+  private final int minSize;
+  private final int maxSize;
+  private final long idleTimeoutNanos;
+  private final long borrowTimeoutNanos;
+  private final boolean validateOnBorrow;
+  private final int validationTimeoutSeconds;
+  private final int statementCacheSize;
+  private final ConcurrencyLimiter limiter;
+
+  private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+  private final Semaphore permits;
+  private final AtomicInteger totalConnections = new AtomicInteger();
+  private final ScheduledExecutorService evictor;
+  private volatile boolean closed = false;
+
+  /* Metrics */
+  private final LongAdder borrows = new LongAdder();
+  private final LongAdder borrowTimeouts = new LongAdder();
+  private final LongAdder validationFailures = new LongAdder();
+  private final LongAdder created = new LongAdder();
+  private final LongAdder evicted = new LongAdder();
+  private final LongAdder totalBorrowWaitNanos = new LongAdder();
+  private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+  private final StatementCache.Counters statementCacheCounters = new StatementCache.Counters();
+
+  public ConnectionPool(
+      ConnectionFactory factory,
+      int minSize,
+      int maxSize,
+      long idleTimeoutMillis,
+      long borrowTimeoutMillis,
+      boolean validateOnBorrow,
+      int validationTimeoutSeconds,
+      int statementCacheSize) {
+    this(
+        factory,
+        minSize,
+        maxSize,
+        idleTimeoutMillis,
+        borrowTimeoutMillis,
+        validateOnBorrow,
+        validationTimeoutSeconds,
+        statementCacheSize,
+        ConcurrencyLimiter.UNLIMITED);
+  }
+
+  /** Pool whose connections all execute their statements under the same limiter */
+  public ConnectionPool(
+      ConnectionFactory factory,
+      int minSize,
+      int maxSize,
+      long idleTimeoutMillis,
+      long borrowTimeoutMillis,
+      boolean validateOnBorrow,
+      int validationTimeoutSeconds,
+      int statementCacheSize,
+      ConcurrencyLimiter limiter) {
+    if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+      throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+    }
+    this.factory = factory;
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    this.borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+    this.validateOnBorrow = validateOnBorrow;
+    this.validationTimeoutSeconds = validationTimeoutSeconds;
+    this.statementCacheSize = statementCacheSize;
+    this.limiter = limiter;
+    this.permits = new Semaphore(maxSize, true);
+
+    this.evictor =
+        Executors.newSingleThreadScheduledExecutor(
+            WorkerExecutor.namedDaemonThreads("pool-evictor-"));
+    long period = Math.max(1000L, idleTimeoutMillis / 2);
+    evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Method for building the pool described by the pool.* keys of the config
+   *
+   * @param config -- server configuration
+   * @param factory -- factory for new physical connections
+   * @param limiter -- limit on the queries in flight, shared by every connection of the pool
+   * @return ConnectionPool
+   */
+  public static ConnectionPool fromConfig(
+      ServerConfig config, ConnectionFactory factory, ConcurrencyLimiter limiter) {
+    return new ConnectionPool(
+        factory,
+        config.getInt("pool.minSize", 2),
+        config.getInt("pool.maxSize", 10),
+        config.getLong("pool.idleTimeoutMs", 300000L),
+        config.getLong("pool.borrowTimeoutMs", 5000L),
+        config.getBoolean("pool.validateOnBorrow", true),
+        config.getInt("pool.validationTimeoutSeconds", 2),
+        config.getInt("pool.statementCacheSize", PooledConnection.DEFAULT_STATEMENT_CACHE_SIZE),
+        limiter);
+  }
+
+  /** Method for opening the minimum number of connections upfront */
+  public void fill() throws SQLException {
+    while (totalConnections.get() < minSize) {
+      idle.offerLast(create());
+    }
+  }
+
+  /**
+   * Method for borrowing a connection from the pool, waiting at most the borrow timeout for one to
+   * become available
+   *
+   * @return PooledConnection -- to be handed back with release()
+   * @throws SQLException -- if the pool is exhausted or a new connection cannot be opened
+   */
+  public PooledConnection borrow() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool is closed");
+    }
+    long start = System.nanoTime();
+    try {
+      if (!permits.tryAcquire(borrowTimeoutNanos, TimeUnit.NANOSECONDS)) {
+        borrowTimeouts.increment();
+        throw new SQLTransientConnectionException(
+            "Timed out waiting for a connection (max " + maxSize + ")");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLTransientConnectionException("Interrupted waiting for a connection");
+    }
+
+    try {
+      PooledConnection pooled;
+      while ((pooled = idle.pollFirst()) != null) {
+        if (!validateOnBorrow || isValid(pooled)) {
+          break;
+        }
+        validationFailures.increment();
+        discard(pooled);
+      }
+      if (pooled == null) {
+        pooled = create();
+      }
+      recordBorrow(System.nanoTime() - start);
+      return pooled;
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Method for handing a borrowed connection back to the pool. Connections left inside a
+   * transaction are rolled back, closed connections are discarded
+   *
+   * @param pooled -- connection obtained from borrow()
+   */
+  public void release(PooledConnection pooled) {
+    try {
+      Connection connection = pooled.getConnection();
+      if (closed || connection.isClosed()) {
+        discard(pooled);
+        return;
+      }
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+      pooled.markReleased();
+      idle.offerFirst(pooled);
+    } catch (SQLException e) {
+      discard(pooled);
+    } finally {
+      permits.release();
+    }
+  }
+
+  /** Method for closing every idle connection and refusing further borrows */
+  @Override
+  public void close() {
+    closed = true;
+    evictor.shutdownNow();
+    PooledConnection pooled;
+    while ((pooled = idle.pollFirst()) != null) {
+      discard(pooled);
+    }
+  }
+
+  private PooledConnection create() throws SQLException {
+    PooledConnection pooled =
+        new PooledConnection(
+            factory.create(), statementCacheSize, limiter, statementCacheCounters);
+    totalConnections.incrementAndGet();
+    created.increment();
+    return pooled;
+  }
+
+  private void discard(PooledConnection pooled) {
+    totalConnections.decrementAndGet();
+    pooled.closeQuietly();
+  }
+
+  private boolean isValid(PooledConnection pooled) {
+    try {
+      return pooled.getConnection().isValid(validationTimeoutSeconds);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void recordBorrow(long waitNanos) {
+    borrows.increment();
+    totalBorrowWaitNanos.add(waitNanos);
+    long max;
+    while (waitNanos > (max = maxBorrowWaitNanos.get())) {
+      if (maxBorrowWaitNanos.compareAndSet(max, waitNanos)) {
+        break;
+      }
+    }
+  }
+
+  private void evictIdle() {
+    long now = System.nanoTime();
+    Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+    while (oldestFirst.hasNext() && totalConnections.get() > minSize) {
+      PooledConnection pooled = oldestFirst.next();
+      if (now - pooled.getLastReleasedAt() < idleTimeoutNanos) {
+        break;
+      }
+      if (idle.removeLastOccurrence(pooled)) {
+        evicted.increment();
+        discard(pooled);
+      }
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** Gauge -- connections currently open, borrowed or idle */
+  public int getTotalConnections() {
+    return totalConnections.get();
+  }
+
+  /** Gauge -- connections sitting idle in the pool */
+  public int getIdleConnections() {
+    return idle.size();
+  }
+
+  /** Gauge -- connections currently borrowed */
+  public int getActiveConnections() {
+    return maxSize - permits.availablePermits();
+  }
+
+  /** Gauge -- threads waiting to borrow a connection */
+  public int getPendingBorrows() {
+    return permits.getQueueLength();
+  }
+
+  public long getBorrowCount() {
+    return borrows.sum();
+  }
+
+  public long getBorrowTimeouts() {
+    return borrowTimeouts.sum();
+  }
+
+  public long getValidationFailures() {
+    return validationFailures.sum();
+  }
+
+  public long getCreatedConnections() {
+    return created.sum();
+  }
+
+  public long getEvictedConnections() {
+    return evicted.sum();
+  }
+
+  public long getTotalBorrowWaitNanos() {
+    return totalBorrowWaitNanos.sum();
+  }
+
+  public long getMaxBorrowWaitNanos() {
+    return maxBorrowWaitNanos.get();
+  }
+
+  /** Counters of the statement caches of every connection the pool has opened */
+  public StatementCache.Counters getStatementCacheCounters() {
+    return statementCacheCounters;
+  }
+}
@@ -3,9 +3,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.postgis.PGgeometry;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
 
@@ -18,32 +18,20 @@ public class DBInterfaceHelpers {
   public static final String LOGIN_SUCCESSFUL = "200";
   public static final String WRONG_CREDENTIALS = "401";
   public static final String DB_ERROR = "500";
+  public static final String SERVICE_UNAVAILABLE = "service unavailable";
+  public static final String TOO_MANY_REQUESTS = "too many requests";
+  public static final String UNAUTHORIZED = "unauthorized";
+  public static final String TYPED_FORMAT = "typed";
+  public static final String TEXT_FORMAT = "text";
   public static final Integer DEFAULT_XP = 0;
   public static final Integer DEFAULT_CASH = 0;
+  private static final String PASSWORD_COLUMN_REFUSED =
+      "The password column is only read and written through /register and /auth";
+  private static final double METRES_PER_DEGREE_OF_LATITUDE_MIN = 110574.0;
+  private static final double METRES_PER_DEGREE_OF_LONGITUDE_AT_EQUATOR = 111320.0;
 
   /**
-   * Helper method for executing an SQL Prepared Statement
-   *
-   * @param stmt -- prepared statement to be executed
-   * @throws SQLException
-   */
-  public static void executeSQLStatement(PreparedStatement stmt) throws SQLException {
-    stmt.executeUpdate();
-  }
-
-  /**
-   * Helper method for retrieving the result of an SQL query *
-   *
-   * @param stmt - statement to retrieve the result for
-   * @return
-   * @throws SQLException
-   */
-  public static ResultSet getResultSet(PreparedStatement stmt) throws SQLException {
-    return stmt.executeQuery();
-  }
-
-  /**
-   * Helper method for getting the columns to be queried into the SELECT statement *
+   * Helper method for getting the columns to be queried into the SELECT statement
    *
    * @param arguments - list of column names to be selected
    * @return
@@ -64,23 +52,44 @@ public class DBInterfaceHelpers {
   }
 
   /**
-   * Method for parsing the URL of a query sent via an HTTP Request
+   * Method for widening a coordinate sent by a client as a float. Goes through its decimal
+   * representation so that e.g. 84.7f is bound as 84.7 rather than 84.69999694824219, the value it
+   * had back when coordinates were concatenated into the SQL text
    *
-   * @param url -- URL of query to be parsed
-   * @return -- Map<Key, Value> e.g. ("from", "player")
-   * @throws UnsupportedEncodingException
+   * @param value -- coordinate to be widened
+   * @return double
    */
-  public static Map<String, String> parseQuery(String url) throws UnsupportedEncodingException {
-    Map<String, String> queryPairs = new HashMap<>();
-    url = URLDecoder.decode(url, "UTF-8");
-    if (url != null) {
-      String[] pairs = url.split("&");
-      for (String pair : pairs) {
-        int idx = pair.indexOf("=");
-        queryPairs.put(pair.substring(0, idx), pair.substring(idx + 1));
-      }
-    }
-    return queryPairs;
+  public static double toDouble(Float value) {
+    return Double.parseDouble(value.toString());
+  }
+
+  /**
+   * Method for converting a distance into the number of degrees it spans at least, in latitude as
+   * well as in longitude, around the given latitude. Used to build bounding boxes that contain
+   * every point within that distance
+   *
+   * @param metres -- distance in metres
+   * @param latitude -- latitude the distance is measured at
+   * @return double -- number of degrees, capped at 360
+   */
+  public static double metresToDegrees(double metres, double latitude) {
+    double latitudeDegrees = metres / METRES_PER_DEGREE_OF_LATITUDE_MIN;
+    double cosine = Math.cos(Math.toRadians(Math.min(Math.abs(latitude), 90.0)));
+    double longitudeDegrees =
+        cosine < 1e-9 ? 360.0 : metres / (METRES_PER_DEGREE_OF_LONGITUDE_AT_EQUATOR * cosine);
+    // small margin for the difference between the sphere and the spheroid
+    return Math.min(360.0, Math.max(latitudeDegrees, longitudeDegrees) * 1.01);
+  }
+
+  /**
+   * Method for parsing the query of the URL of an HTTP Request. Keys and values are decoded each
+   * on its own after splitting, see QueryStringParser
+   *
+   * @param query -- raw query of the URL, as given by getRawQuery(), may be null
+   * @return -- Map<Key, Value> e.g. ("from", "player"), of this call alone
+   */
+  public static Map<String, String> parseQuery(String query) {
+    return QueryStringParser.parse(query);
   }
 
   /**
@@ -114,7 +123,40 @@ public class DBInterfaceHelpers {
   }
 
   /**
-   * Method for sending response of a SQL Query back to the Client
+   * Method for formatting the ResultSet of a Select query into JSON format
+   *
+   * @param rs -- ResultSet of the query invoked
+   * @param typed -- whether values are formatted according to their column type (see
+   *     JSONResultWriter) rather than all as strings
+   * @return -- String - representing a list of JSON objects
+   * @throws SQLException
+   * @throws JSONException
+   */
+  public static String getJSONfromResultSet(ResultSet rs, boolean typed)
+      throws SQLException, JSONException {
+    RequestTimer timer = RequestTimer.current();
+    long begunAt = timer != null ? timer.begin() : 0;
+    try {
+      if (!typed) {
+        return getJSONfromResultSet(rs);
+      }
+      StringWriter writer = new StringWriter();
+      try {
+        new JSONResultWriter(rs, true).writeArray(writer);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return writer.toString();
+    } finally {
+      if (timer != null) {
+        timer.end(RequestTimer.Phase.SERIALIZE, begunAt);
+      }
+    }
+  }
+
+  /**
+   * Method for sending response of a SQL Query back to the Client. Compressed when the client
+   * accepts it, see ResponseCompressor
    *
    * @param exchange -- the HttpExchange to be processed
    * @param response -- the response sent back to the client
@@ -122,10 +164,65 @@ public class DBInterfaceHelpers {
    */
   public static void sendResponseBackToClient(HttpExchange exchange, String response)
       throws IOException {
-    exchange.sendResponseHeaders(200, response.getBytes().length);
-    OutputStream os = exchange.getResponseBody();
-    os.write(response.getBytes());
-    os.close();
+    sendResponseBackToClient(exchange, 200, response);
+  }
+
+  /**
+   * Method for sending a response with the given HTTP status back to the Client
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @param status -- HTTP status code e.g. 503
+   * @param response -- the response sent back to the client
+   * @throws IOException
+   */
+  public static void sendResponseBackToClient(HttpExchange exchange, int status, String response)
+      throws IOException {
+    byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+    RequestTimer timer = RequestTimer.forExchange(exchange);
+    if (timer == null) {
+      ResponseCompressor.forExchange(exchange).send(exchange, status, bytes);
+      return;
+    }
+    timer.setStatus(status);
+    long begunAt = timer.begin();
+    try {
+      ResponseCompressor.forExchange(exchange).send(exchange, status, bytes);
+    } finally {
+      timer.end(RequestTimer.Phase.WRITE, begunAt);
+    }
+  }
+
+  /**
+   * Method for formatting the result of a Select query into a response as its rows are read. Rows
+   * go through JSONResultWriter straight into the response, without a JSONObject per row, so that
+   * with a fetch size set on the query only that many rows are held by the driver at a time. The
+   * response is the same as status + "\n" + getJSONfromResultSet(rs, typed)
+   *
+   * @param status -- first line of the response e.g. SUCCESS
+   * @param rs -- ResultSet of the query invoked
+   * @param typed -- whether values are formatted according to their column type
+   * @return -- String - the status followed by a list of JSON objects
+   * @throws SQLException
+   */
+  public static String getResponseFromResultSet(String status, ResultSet rs, boolean typed)
+      throws SQLException {
+    RequestTimer timer = RequestTimer.current();
+    long begunAt = timer != null ? timer.begin() : 0;
+    try {
+      StringWriter writer = new StringWriter();
+      writer.write(status);
+      writer.write('\n');
+      try {
+        new JSONResultWriter(rs, typed).writeArray(writer);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return writer.toString();
+    } finally {
+      if (timer != null) {
+        timer.end(RequestTimer.Phase.SERIALIZE, begunAt);
+      }
+    }
   }
 
   /**
@@ -155,6 +252,85 @@ public class DBInterfaceHelpers {
   public static UpdateStatementBuilder getUpdateSetTo(
       UpdateStatementBuilder builder, Map<String, String> params, String column)
       throws KeyNotFoundException, SQLException {
+    return getUpdateSetTo(builder, column, safeMapLookup(params, "to"));
+  }
+
+  /**
+   * Method for setting up the assignments of an Update statement from the parameters of the query.
+   * "set" and "add" each take a comma-separated list of columns. set=email,name assigns the values
+   * of the parameters to.email and to.name, add=xp,cash adds the amounts of by.xp and by.cash.
+   * With a single column the value may be given by plain "to" or "by"
+   *
+   * @param builder -- Update Statement Builder to be processed
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @return
+   * @throws KeyNotFoundException -- if neither "set" nor "add" is given, or a value is missing
+   * @throws IllegalArgumentException -- if a value cannot be parsed, added to its column, or the
+   *     column is password
+   * @throws SQLException
+   */
+  public static UpdateStatementBuilder getUpdateAssignments(
+      UpdateStatementBuilder builder, Map<String, String> params)
+      throws KeyNotFoundException, SQLException {
+    String setColumns = params.get("set");
+    String addColumns = params.get("add");
+    if (setColumns == null && addColumns == null) {
+      throw new KeyNotFoundException();
+    }
+    if (setColumns != null) {
+      String[] columns = setColumns.split(",");
+      for (String column : columns) {
+        String value = assignedValue(params, "to", column.trim(), columns.length);
+        builder = getUpdateSetTo(builder, column.trim(), value);
+      }
+    }
+    if (addColumns != null) {
+      String[] columns = addColumns.split(",");
+      for (String column : columns) {
+        String amount = assignedValue(params, "by", column.trim(), columns.length);
+        builder = getUpdateAddBy(builder, column.trim(), amount);
+      }
+    }
+    return builder;
+  }
+
+  /**
+   * Method for getting the value the "set" parameter of an Update assigns to a column
+   *
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @param column -- name of the column e.g. "email"
+   * @return -- the value assigned to the column, null if it is not set
+   */
+  public static String getUpdateSetValue(Map<String, String> params, String column) {
+    String setColumns = params.get("set");
+    if (setColumns == null) {
+      return null;
+    }
+    String[] columns = setColumns.split(",");
+    for (String setColumn : columns) {
+      if (setColumn.trim().equals(column)) {
+        String value = params.get("to." + column);
+        return value == null && columns.length == 1 ? params.get("to") : value;
+      }
+    }
+    return null;
+  }
+
+  private static String assignedValue(
+      Map<String, String> params, String key, String column, int columns)
+      throws KeyNotFoundException {
+    String value = params.get(key + "." + column);
+    if (value == null && columns == 1) {
+      value = params.get(key);
+    }
+    if (value == null) {
+      throw new KeyNotFoundException();
+    }
+    return value;
+  }
+
+  private static UpdateStatementBuilder getUpdateSetTo(
+      UpdateStatementBuilder builder, String column, String value) throws SQLException {
     switch (column) {
       case "player_id":
       case "id":
@@ -162,34 +338,57 @@ public class DBInterfaceHelpers {
       case "xp":
       case "cash":
         {
-          builder = builder.set(column).to(Integer.parseInt(safeMapLookup(params, "to")));
+          builder = builder.set(column).to(Integer.parseInt(value));
           break;
         }
       case "ts":
         {
-          builder = builder.set(column).to(Timestamp.valueOf(safeMapLookup(params, "to")));
+          builder = builder.set(column).to(Timestamp.valueOf(value));
           break;
         }
       case "email":
-      case "password":
       case "url":
       case "description":
       case "name":
         {
-          builder = builder.set(column).to(safeMapLookup(params, "to"));
+          builder = builder.set(column).to(value);
           break;
         }
+      case "password":
+        throw new IllegalArgumentException(PASSWORD_COLUMN_REFUSED);
       case "location":
         {
-          builder = builder.set(column).to(new PGgeometry(safeMapLookup(params, "to")));
+          builder = builder.set(column).to(new PGgeometry(value));
           break;
         }
       default:
-        System.out.println("DEFAULT CASE HAS BEEN REACHED");
+        Log.debug("DEFAULT CASE HAS BEEN REACHED");
     }
     return builder;
   }
 
+  /**
+   * Method for setting up an assignment adding to a numeric column. Only xp and cash are counters,
+   * the other integer columns being ids
+   *
+   * @param builder -- Update Statement Builder to be processed
+   * @param column -- name of column to be added to
+   * @param amount -- amount to be added, possibly negative; a leading '+' decoded into a space by
+   *     parseQuery is allowed
+   * @return
+   * @throws IllegalArgumentException -- if the column is not a counter or the amount not a number
+   */
+  public static UpdateStatementBuilder getUpdateAddBy(
+      UpdateStatementBuilder builder, String column, String amount) {
+    switch (column) {
+      case "xp":
+      case "cash":
+        return builder.add(column).by(Integer.parseInt(amount.trim()));
+      default:
+        throw new IllegalArgumentException("Cannot add to column " + column);
+    }
+  }
+
   /**
    * Method for setting up the basic parameters WHERE and IS of a SQL statement with a WHERE clause
    *
@@ -198,6 +397,7 @@ public class DBInterfaceHelpers {
    * @param column -- name of column to be set
    * @return
    * @throws KeyNotFoundException
+   * @throws IllegalArgumentException -- if "is" cannot be parsed, or the column is password
    * @throws SQLException
    */
   public static WhereClauseBuilder getWhereClause(
@@ -219,7 +419,6 @@ public class DBInterfaceHelpers {
           break;
         }
       case "email":
-      case "password":
       case "url":
       case "description":
       case "name":
@@ -227,13 +426,15 @@ public class DBInterfaceHelpers {
           builder = builder.where(column).is(safeMapLookup(params, "is"));
           break;
         }
+      case "password":
+        throw new IllegalArgumentException(PASSWORD_COLUMN_REFUSED);
       case "location":
         {
           builder = builder.where(column).is(new PGgeometry(safeMapLookup(params, "is")));
           break;
         }
       default:
-        System.out.println("DEFAULT CASE HAS BEEN REACHED");
+        Log.debug("DEFAULT CASE HAS BEEN REACHED");
     }
     return builder;
   }
@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stage the work touching the DB Server runs in, separate from the threads serving HTTP. Its
+ * workers are as many as the connections of the pool and drain a bounded queue, so the number of
+ * requests waiting on the database is bounded too. Work that cannot be queued within the deadline
+ * is rejected straight away, for the caller to shed the request rather than let it time out.
+ */
+public class DatabaseStage {
+
+  /** Work run in the stage */
+  public interface Task {
+    void run() throws IOException;
+  }
+
+  /** Work run in the stage, returning a result to the caller */
+  public interface Call<T> {
+    T call() throws IOException, SQLException;
+  }
+
+  /** Queue wait, execution time and rejections of the work submitted for one endpoint */
+  public static class EndpointStats {
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalQueueNanos = new LongAdder();
+    private final LongAdder totalExecutionNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+    private final AtomicLong maxExecutionNanos = new AtomicLong();
+
+    private void recordQueueWait(long nanos) {
+      totalQueueNanos.add(nanos);
+      updateMax(maxQueueNanos, nanos);
+    }
+
+    private void recordExecution(long nanos) {
+      executed.increment();
+      totalExecutionNanos.add(nanos);
+      updateMax(maxExecutionNanos, nanos);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+      long current;
+      while (value > (current = max.get())) {
+        if (max.compareAndSet(current, value)) {
+          break;
+        }
+      }
+    }
+
+    public long getExecuted() {
+      return executed.sum();
+    }
+
+    public long getRejected() {
+      return rejected.sum();
+    }
+
+    public long getTotalQueueNanos() {
+      return totalQueueNanos.sum();
+    }
+
+    public long getMaxQueueNanos() {
+      return maxQueueNanos.get();
+    }
+
+    public long getTotalExecutionNanos() {
+      return totalExecutionNanos.sum();
+    }
+
+    public long getMaxExecutionNanos() {
+      return maxExecutionNanos.get();
+    }
+  }
+
+  private final ThreadPoolExecutor workers;
+  private final long queueTimeoutNanos;
+  private final Map<String, EndpointStats> endpointStats = new ConcurrentHashMap<>();
+
+  /**
+   * @param threads -- workers, normally the maximum size of the connection pool
+   * @param queueCapacity -- work waiting for a worker
+   * @param queueTimeoutMillis -- time to wait for room in a full queue before rejecting
+   */
+  public DatabaseStage(int threads, int queueCapacity, long queueTimeoutMillis) {
+    this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+    this.workers =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            WorkerExecutor.namedDaemonThreads("db-stage-"),
+            (task, executor) -> {
+              if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Database stage shut down");
+              }
+              try {
+                if (!executor.getQueue().offer(task, queueTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                  throw new RejectedExecutionException(
+                      "Database stage queue full (" + queueCapacity + ")");
+                }
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted waiting for the queue");
+              }
+            });
+  }
+
+  /**
+   * Method for building the stage described by the db.* keys of the config. The workers default
+   * to the maximum size of the connection pool
+   *
+   * @param config -- server configuration
+   * @return DatabaseStage
+   */
+  public static DatabaseStage fromConfig(ServerConfig config) {
+    return new DatabaseStage(
+        config.getInt("db.threads", config.getInt("pool.maxSize", 10)),
+        config.getInt("db.queueCapacity", 256),
+        config.getLong("db.queueTimeoutMs", 100L));
+  }
+
+  /**
+   * Method for running work in the stage and waiting for it to complete
+   *
+   * @param endpoint -- endpoint the work is accounted to e.g. "/select"
+   * @param task -- work to be run
+   * @throws RejectedExecutionException -- if the work could not be queued within the deadline
+   * @throws IOException -- thrown by the work
+   */
+  public void execute(String endpoint, Task task) throws IOException {
+    try {
+      submit(
+          endpoint,
+          () -> {
+            task.run();
+            return null;
+          });
+    } catch (SQLException e) {
+      // A Task cannot throw it
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Method for running work in the stage and waiting for its result
+   *
+   * @param endpoint -- endpoint the work is accounted to e.g. "/auth"
+   * @param call -- work to be run
+   * @return T -- result of the work
+   * @throws RejectedExecutionException -- if the work could not be queued within the deadline
+   * @throws IOException -- thrown by the work
+   * @throws SQLException -- thrown by the work
+   */
+  public <T> T submit(String endpoint, Call<T> call) throws IOException, SQLException {
+    EndpointStats stats = endpointStats.computeIfAbsent(endpoint, key -> new EndpointStats());
+    long submittedAt = System.nanoTime();
+    FutureTask<T> future =
+        new FutureTask<>(
+            () -> {
+              long startedAt = System.nanoTime();
+              stats.recordQueueWait(startedAt - submittedAt);
+              try {
+                return call.call();
+              } finally {
+                stats.recordExecution(System.nanoTime() - startedAt);
+              }
+            });
+    try {
+      workers.execute(future);
+    } catch (RejectedExecutionException e) {
+      stats.rejected.increment();
+      throw e;
+    }
+
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for the database stage");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /** Method for stopping the workers once the queued work has run */
+  public void shutdown() {
+    workers.shutdown();
+  }
+
+  /** Method for getting the statistics of every endpoint that submitted work, by endpoint */
+  public Map<String, EndpointStats> getEndpointStats() {
+    return endpointStats;
+  }
+
+  /** Gauge -- work waiting for a worker */
+  public int getQueueDepth() {
+    return workers.getQueue().size();
+  }
+
+  /** Gauge -- workers running work */
+  public int getActiveWorkers() {
+    return workers.getActiveCount();
+  }
+
+  public int getThreads() {
+    return workers.getMaximumPoolSize();
+  }
+}
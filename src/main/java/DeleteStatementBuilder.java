@@ -6,9 +6,9 @@ public class DeleteStatementBuilder implements WhereClauseBuilder {
 
   private StringBuilder sqlDeleteStatement = new StringBuilder();
   private PreparedStatement stmt = null;
-  private Connection connection;
+  private PooledConnection connection;
 
-  public DeleteStatementBuilder(Connection connection) {
+  public DeleteStatementBuilder(PooledConnection connection) {
     this.connection = connection;
     sqlDeleteStatement.append("DELETE ");
   }
@@ -54,7 +54,7 @@ public class DeleteStatementBuilder implements WhereClauseBuilder {
     if (!sqlDeleteStatement.toString().contains("WHERE")) {
       stmt = connection.prepareStatement(sqlDeleteStatement.toString());
     }
-    DBInterfaceHelpers.executeSQLStatement(stmt);
+    connection.executeUpdate(stmt);
   }
 
   @Override
@@ -0,0 +1,185 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter of the emails of the Player table, letting /auth turn away unknown emails without a
+ * query. It is sized from the number of players when loaded, with room for as many again, and is
+ * rebuilt in the background once registrations have filled that room.
+ *
+ * <p>Emails are added before they are written to Player, so the filter never misses one as long as
+ * every registration, insert and change of email goes through this server. Until the first load has
+ * completed every email is reported as maybe present. Added emails are also journaled for a while,
+ * and those added shortly before or during a reload are added again to the filter it builds, in
+ * case their write committed after the reload read the table.
+ */
+public class EmailFilter {
+
+  private static final long MIN_CAPACITY = 1024;
+  private static final long JOURNAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final QueryProcessor queryProcessor;
+  private final double falsePositiveRate;
+  private final ScheduledExecutorService loader;
+  private final AtomicBoolean reloadScheduled = new AtomicBoolean(false);
+  private volatile BloomFilter active = null;
+  private final Queue<Map.Entry<Long, String>> journal = new ConcurrentLinkedQueue<>();
+
+  /* Metrics */
+  private final LongAdder lookups = new LongAdder();
+  private final LongAdder definiteMisses = new LongAdder();
+  private final LongAdder falsePositives = new LongAdder();
+
+  /**
+   * @param queryProcessor -- processor the emails are loaded through
+   * @param falsePositiveRate -- fraction of unknown emails to be let through to the database
+   * @param loader -- executor reloads run on
+   */
+  public EmailFilter(
+      QueryProcessor queryProcessor, double falsePositiveRate, ScheduledExecutorService loader) {
+    this.queryProcessor = queryProcessor;
+    this.falsePositiveRate = falsePositiveRate;
+    this.loader = loader;
+  }
+
+  /**
+   * Method for adding an email about to be written to the Player table
+   *
+   * @param email -- email of the player
+   */
+  public void add(String email) {
+    long now = System.nanoTime();
+    journal.add(new AbstractMap.SimpleImmutableEntry<>(now, email));
+    Map.Entry<Long, String> oldest;
+    while ((oldest = journal.peek()) != null && now - oldest.getKey() > JOURNAL_NANOS) {
+      journal.poll();
+    }
+    BloomFilter current = active;
+    if (current != null) {
+      current.add(email);
+      if (current.getInsertions() > current.getCapacity()) {
+        scheduleReload(0);
+      }
+    }
+  }
+
+  /**
+   * Method for looking an email up before querying the Player table
+   *
+   * @param email -- email sent by the client
+   * @return boolean -- false if no player has that email
+   */
+  public boolean mightContain(String email) {
+    lookups.increment();
+    BloomFilter current = active;
+    if (current == null || current.mightContain(email)) {
+      return true;
+    }
+    definiteMisses.increment();
+    return false;
+  }
+
+  /** Method for recording that an email reported as maybe present was not in the Player table */
+  public void recordFalsePositive() {
+    falsePositives.increment();
+  }
+
+  /**
+   * Method for rebuilding the filter in the background. Reloads requested while one is already
+   * pending are merged into it
+   *
+   * @param delayMillis -- time to wait before reloading
+   */
+  public void scheduleReload(long delayMillis) {
+    if (reloadScheduled.compareAndSet(false, true)) {
+      try {
+        loader.schedule(this::reload, delayMillis, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // server shutting down
+        reloadScheduled.set(false);
+      }
+    }
+  }
+
+  private void reload() {
+    reloadScheduled.set(false);
+    try {
+      queryProcessor.borrowConnection();
+      load();
+    } catch (SQLException e) {
+      Log.warn("Could not load email filter: " + e.getMessage());
+      scheduleReload(TimeUnit.SECONDS.toMillis(5));
+    } finally {
+      queryProcessor.releaseConnection();
+    }
+  }
+
+  /**
+   * Method for building the filter from the Player table, using the connection of the current
+   * thread
+   *
+   * @throws SQLException
+   */
+  public void load() throws SQLException {
+    long startedAt = System.nanoTime();
+    ResultSet count = queryProcessor.select("count(*)").from("Player").executeSelect();
+    count.next();
+    long players = count.getLong(1);
+    BloomFilter filter = new BloomFilter(Math.max(MIN_CAPACITY, players * 2), falsePositiveRate);
+    ResultSet rs = queryProcessor.select("email").from("Player").executeSelect();
+    while (rs.next()) {
+      filter.add(rs.getString("email"));
+    }
+    active = filter;
+    // Registrations journaled before active was swapped may be missing from the table as read
+    for (Map.Entry<Long, String> registration : journal) {
+      if (startedAt - registration.getKey() < JOURNAL_NANOS) {
+        filter.add(registration.getValue());
+      }
+    }
+    Log.info(
+        "Email filter loaded: "
+            + players
+            + " players, "
+            + filter.getBitCount() / 8
+            + " bytes, "
+            + filter.getHashCount()
+            + " hashes");
+  }
+
+  /** Method for checking whether lookups are answered from the filter yet */
+  public boolean isLoaded() {
+    return active != null;
+  }
+
+  /**
+   * Gauge -- false-positive rate expected from the emails in the filter, 1 until it is loaded
+   */
+  public double getExpectedFalsePositiveRate() {
+    BloomFilter current = active;
+    return current == null ? 1 : current.getExpectedFalsePositiveRate();
+  }
+
+  /** Counter -- emails looked up */
+  public long getLookups() {
+    return lookups.sum();
+  }
+
+  /** Counter -- emails turned away without a query */
+  public long getDefiniteMisses() {
+    return definiteMisses.sum();
+  }
+
+  /** Counter -- emails let through that were not in the Player table */
+  public long getFalsePositives() {
+    return falsePositives.sum();
+  }
+}
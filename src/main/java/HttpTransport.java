@@ -0,0 +1,63 @@
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * Carries HTTP requests from the network to the handlers of the Server and their responses back.
+ * Handlers only ever see a com.sun.net.httpserver.HttpExchange, so they run unchanged on any
+ * transport
+ */
+public interface HttpTransport {
+
+  String JDK = "jdk";
+  String NIO = "nio";
+
+  /**
+   * Method for registering a handler for the requests whose path starts with a prefix. The
+   * longest matching prefix wins
+   *
+   * @param path -- root path of the context e.g. "/insert"
+   * @param handler -- handler for the requests under that path
+   */
+  void createContext(String path, HttpHandler handler);
+
+  /** Method for accepting requests, handled on the executor given to the transport */
+  void start();
+
+  /**
+   * Method for closing every connection once the requests in progress have completed
+   *
+   * @param delaySeconds -- maximum time to wait for them
+   */
+  void stop(int delaySeconds);
+
+  /** Method for getting the address the transport listens on */
+  InetSocketAddress getAddress();
+
+  /** Method for getting the name of the transport, as given to server.transport */
+  String getName();
+
+  /**
+   * Method for building the transport selected by the server.transport key of the config
+   *
+   * @param port -- port to listen on
+   * @param executor -- executor the handlers run on
+   * @param config -- server configuration
+   * @return HttpTransport
+   * @throws IOException -- if the port cannot be bound
+   */
+  static HttpTransport fromConfig(int port, Executor executor, ServerConfig config)
+      throws IOException {
+    String transport = config.getString("server.transport", JDK);
+    switch (transport) {
+      case NIO:
+        return NioHttpTransport.fromConfig(new InetSocketAddress(port), executor, config);
+      case JDK:
+        return new JdkHttpTransport(new InetSocketAddress(port), executor);
+      default:
+        throw new IllegalArgumentException("Unknown server.transport: " + transport);
+    }
+  }
+}
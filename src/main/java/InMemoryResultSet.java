@@ -0,0 +1,201 @@
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only, forward-only ResultSet over rows held in memory. Lets rows that did not come from the
+ * DB Server (cached rows, synthetic data for benchmarks and load tests) go through the same
+ * serialization code as a real query result. Only the getters used by this project are supported.
+ */
+public class InMemoryResultSet {
+
+  private final String[] columnNames;
+  private final int[] columnTypes;
+  private final String[] columnTypeNames;
+  private final List<Object[]> rows;
+
+  private int cursor = -1;
+  private boolean lastWasNull = false;
+
+  private InMemoryResultSet(
+      String[] columnNames, int[] columnTypes, String[] columnTypeNames, List<Object[]> rows) {
+    this.columnNames = columnNames;
+    this.columnTypes = columnTypes;
+    this.columnTypeNames = columnTypeNames;
+    this.rows = rows;
+  }
+
+  /**
+   * Method for creating a ResultSet whose columns are all of type varchar
+   *
+   * @param columnNames -- names of the columns
+   * @param rows -- values of each row, in column order
+   * @return ResultSet
+   */
+  public static ResultSet of(String[] columnNames, List<Object[]> rows) {
+    int[] types = new int[columnNames.length];
+    String[] typeNames = new String[columnNames.length];
+    Arrays.fill(types, Types.VARCHAR);
+    Arrays.fill(typeNames, "varchar");
+    return of(columnNames, types, typeNames, rows);
+  }
+
+  /**
+   * Method for creating a ResultSet with the given column types
+   *
+   * @param columnNames -- names of the columns
+   * @param columnTypes -- java.sql.Types of the columns
+   * @param columnTypeNames -- database type names of the columns e.g. "int4", "geometry"
+   * @param rows -- values of each row, in column order
+   * @return ResultSet
+   */
+  public static ResultSet of(
+      String[] columnNames, int[] columnTypes, String[] columnTypeNames, List<Object[]> rows) {
+    InMemoryResultSet target =
+        new InMemoryResultSet(columnNames, columnTypes, columnTypeNames, rows);
+    return (ResultSet)
+        Proxy.newProxyInstance(
+            ResultSet.class.getClassLoader(),
+            new Class<?>[] {ResultSet.class},
+            (proxy, method, args) -> target.invoke(method.getName(), args));
+  }
+
+  private Object invoke(String method, Object[] args) throws SQLException {
+    switch (method) {
+      case "next":
+        return ++cursor < rows.size();
+      case "close":
+        cursor = rows.size();
+        return null;
+      case "isClosed":
+        return false;
+      case "wasNull":
+        return lastWasNull;
+      case "getMetaData":
+        return metaData();
+      case "findColumn":
+        return findColumn((String) args[0]);
+      case "setFetchSize":
+        return null;
+      case "getObject":
+        return value(args[0]);
+      case "getString":
+        {
+          Object value = value(args[0]);
+          return value == null ? null : value.toString();
+        }
+      case "getInt":
+        {
+          Number value = number(value(args[0]));
+          return value == null ? 0 : value.intValue();
+        }
+      case "getLong":
+        {
+          Number value = number(value(args[0]));
+          return value == null ? 0L : value.longValue();
+        }
+      case "getFloat":
+        {
+          Number value = number(value(args[0]));
+          return value == null ? 0f : value.floatValue();
+        }
+      case "getDouble":
+        {
+          Number value = number(value(args[0]));
+          return value == null ? 0d : value.doubleValue();
+        }
+      case "getBigDecimal":
+        {
+          Object value = value(args[0]);
+          return value == null ? null : new BigDecimal(value.toString());
+        }
+      case "getBoolean":
+        {
+          Object value = value(args[0]);
+          if (value instanceof Boolean) {
+            return value;
+          }
+          return value != null && ("t".equals(value) || "true".equals(value));
+        }
+      case "getTimestamp":
+        {
+          Object value = value(args[0]);
+          if (value == null || value instanceof Timestamp) {
+            return value;
+          }
+          return Timestamp.valueOf(value.toString());
+        }
+      case "hashCode":
+        return System.identityHashCode(this);
+      case "equals":
+        return args[0] == this;
+      case "toString":
+        return "InMemoryResultSet" + Arrays.toString(columnNames);
+      default:
+        throw new SQLFeatureNotSupportedException("InMemoryResultSet does not support " + method);
+    }
+  }
+
+  /** Values may be held either as objects or as the text the driver would have returned */
+  private static Number number(Object value) {
+    if (value == null || value instanceof Number) {
+      return (Number) value;
+    }
+    return new BigDecimal(value.toString());
+  }
+
+  private Object value(Object column) throws SQLException {
+    if (cursor < 0 || cursor >= rows.size()) {
+      throw new SQLException("ResultSet not positioned on a row");
+    }
+    int index = column instanceof String ? findColumn((String) column) : (Integer) column;
+    Object value = rows.get(cursor)[index - 1];
+    lastWasNull = value == null;
+    return value;
+  }
+
+  private int findColumn(String name) throws SQLException {
+    for (int i = 0; i < columnNames.length; i++) {
+      if (columnNames[i].equalsIgnoreCase(name)) {
+        return i + 1;
+      }
+    }
+    throw new SQLException("Column not found: " + name);
+  }
+
+  private ResultSetMetaData metaData() {
+    return (ResultSetMetaData)
+        Proxy.newProxyInstance(
+            ResultSetMetaData.class.getClassLoader(),
+            new Class<?>[] {ResultSetMetaData.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "getColumnCount":
+                  return columnNames.length;
+                case "getColumnName":
+                case "getColumnLabel":
+                  return columnNames[(Integer) args[0] - 1];
+                case "getColumnType":
+                  return columnTypes[(Integer) args[0] - 1];
+                case "getColumnTypeName":
+                  return columnTypeNames[(Integer) args[0] - 1];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "equals":
+                  return args[0] == proxy;
+                case "toString":
+                  return "InMemoryResultSetMetaData";
+                default:
+                  throw new SQLFeatureNotSupportedException(
+                      "InMemoryResultSet metadata does not support " + method.getName());
+              }
+            });
+  }
+}
@@ -0,0 +1,399 @@
+import org.json.JSONObject;
+import org.postgis.ComposedGeom;
+import org.postgis.Geometry;
+import org.postgis.GeometryCollection;
+import org.postgis.PGgeometry;
+import org.postgis.Point;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes the rows of a ResultSet as a JSON array straight to a Writer, one row at a time.
+ *
+ * <p>In text mode the output is byte for byte the one of DBInterfaceHelpers.getJSONfromResultSet:
+ * a JSONObject per row with every value as a string (null columns left out, the last of several
+ * equally named columns winning) joined with ", ". The key order of a JSONObject depends on the
+ * set of keys it holds, so the order is worked out once per distinct pattern of null columns by
+ * replaying the puts on an empty JSONObject, and reused for every following row with that pattern.
+ *
+ * <p>In typed mode the way each column is written is picked once from the ResultSetMetaData:
+ * integers and floats as JSON numbers, booleans as true/false, timestamps and dates as ISO-8601
+ * strings, PostGIS geometries as GeoJSON and everything else as a string. Keys follow the column
+ * order and null columns are written as null. Numbers go through a reused buffer, so no boxed
+ * values or per-row objects are created.
+ */
+public class JSONResultWriter {
+
+  private enum ColumnKind {
+    TEXT,
+    INTEGER,
+    FLOAT,
+    DECIMAL,
+    BOOLEAN,
+    TIMESTAMP,
+    TIMESTAMP_WITH_TIMEZONE,
+    DATE,
+    TIME,
+    GEOMETRY
+  }
+
+  private final ResultSet rs;
+  private final boolean typed;
+  private final int columnCount;
+  private final String[] columnNames;
+  private final String[] values;
+  private final Map<String, Integer> lastIndexOfColumn = new HashMap<>();
+  private final Map<Long, int[]> keyOrders = new HashMap<>();
+
+  private long lastPattern = -1;
+  private int[] lastKeyOrder = null;
+
+  /* Typed mode */
+  private final ColumnKind[] columnKinds;
+  private final int[] typedColumns;
+  private final StringBuilder numberBuffer = new StringBuilder(32);
+  private char[] numberChars = new char[32];
+
+  /**
+   * @param rs -- ResultSet of the query invoked, positioned before its first row
+   * @throws SQLException -- if the metadata of the ResultSet cannot be read
+   */
+  public JSONResultWriter(ResultSet rs) throws SQLException {
+    this(rs, false);
+  }
+
+  /**
+   * @param rs -- ResultSet of the query invoked, positioned before its first row
+   * @param typed -- whether values are written according to their column type
+   * @throws SQLException -- if the metadata of the ResultSet cannot be read
+   */
+  public JSONResultWriter(ResultSet rs, boolean typed) throws SQLException {
+    this.rs = rs;
+    this.typed = typed;
+    ResultSetMetaData rsMetaData = rs.getMetaData();
+    this.columnCount = rsMetaData.getColumnCount();
+    this.columnNames = new String[columnCount];
+    this.values = new String[columnCount];
+    this.columnKinds = new ColumnKind[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      columnNames[i] = rsMetaData.getColumnName(i + 1);
+      lastIndexOfColumn.put(columnNames[i], i);
+      if (typed) {
+        columnKinds[i] =
+            kindOf(rsMetaData.getColumnType(i + 1), rsMetaData.getColumnTypeName(i + 1));
+      }
+    }
+    this.typedColumns = new int[lastIndexOfColumn.size()];
+    for (int i = 0, k = 0; i < columnCount; i++) {
+      if (lastIndexOfColumn.get(columnNames[i]) == i) {
+        typedColumns[k++] = i;
+      }
+    }
+  }
+
+  private static ColumnKind kindOf(int sqlType, String typeName) {
+    if ("geometry".equalsIgnoreCase(typeName) || "geography".equalsIgnoreCase(typeName)) {
+      return ColumnKind.GEOMETRY;
+    }
+    switch (sqlType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return ColumnKind.INTEGER;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return ColumnKind.FLOAT;
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        return ColumnKind.DECIMAL;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return ColumnKind.BOOLEAN;
+      case Types.TIMESTAMP:
+        return "timestamptz".equalsIgnoreCase(typeName)
+            ? ColumnKind.TIMESTAMP_WITH_TIMEZONE
+            : ColumnKind.TIMESTAMP;
+      case Types.TIMESTAMP_WITH_TIMEZONE:
+        return ColumnKind.TIMESTAMP_WITH_TIMEZONE;
+      case Types.DATE:
+        return ColumnKind.DATE;
+      case Types.TIME:
+        return ColumnKind.TIME;
+      default:
+        return ColumnKind.TEXT;
+    }
+  }
+
+  /**
+   * Method for writing every remaining row of the ResultSet as a JSON array
+   *
+   * @param out -- Writer the array is written to
+   * @return int -- number of rows written
+   * @throws SQLException
+   * @throws IOException
+   */
+  public int writeArray(Writer out) throws SQLException, IOException {
+    int rows = 0;
+    out.write('[');
+    while (rs.next()) {
+      if (rows > 0) {
+        out.write(", ");
+      }
+      if (typed) {
+        writeTypedRow(out);
+      } else {
+        writeRow(out);
+      }
+      rows++;
+    }
+    out.write(']');
+    return rows;
+  }
+
+  private void writeRow(Writer out) throws SQLException, IOException {
+    long pattern = 0;
+    for (int i = 0; i < columnCount; i++) {
+      values[i] = rs.getString(i + 1);
+      if (values[i] != null && i < 64) {
+        pattern |= 1L << i;
+      }
+    }
+    int[] keyOrder = keyOrderFor(pattern);
+
+    out.write('{');
+    for (int k = 0; k < keyOrder.length; k++) {
+      if (k > 0) {
+        out.write(',');
+      }
+      int column = keyOrder[k];
+      JSONObject.quote(columnNames[column], out);
+      out.write(':');
+      JSONObject.quote(values[column], out);
+    }
+    out.write('}');
+  }
+
+  private int[] keyOrderFor(long pattern) {
+    if (columnCount > 64) {
+      return computeKeyOrder();
+    }
+    if (pattern != lastPattern) {
+      int[] keyOrder = keyOrders.get(pattern);
+      if (keyOrder == null) {
+        keyOrder = computeKeyOrder();
+        keyOrders.put(pattern, keyOrder);
+      }
+      lastPattern = pattern;
+      lastKeyOrder = keyOrder;
+    }
+    return lastKeyOrder;
+  }
+
+  /** Replays the puts of getJSONfromResultSet for the current row and reads back the key order */
+  private int[] computeKeyOrder() {
+    JSONObject replay = new JSONObject();
+    for (int i = 0; i < columnCount; i++) {
+      replay.put(columnNames[i], values[i] != null ? "" : null);
+    }
+    int[] keyOrder = new int[replay.length()];
+    Iterator<?> keys = replay.keys();
+    for (int k = 0; k < keyOrder.length; k++) {
+      keyOrder[k] = lastIndexOfColumn.get(keys.next().toString());
+    }
+    return keyOrder;
+  }
+
+  private void writeTypedRow(Writer out) throws SQLException, IOException {
+    out.write('{');
+    for (int k = 0; k < typedColumns.length; k++) {
+      if (k > 0) {
+        out.write(',');
+      }
+      int column = typedColumns[k];
+      JSONObject.quote(columnNames[column], out);
+      out.write(':');
+      writeTypedValue(out, column + 1, columnKinds[column]);
+    }
+    out.write('}');
+  }
+
+  private void writeTypedValue(Writer out, int column, ColumnKind kind)
+      throws SQLException, IOException {
+    switch (kind) {
+      case INTEGER:
+        {
+          long value = rs.getLong(column);
+          if (rs.wasNull()) {
+            out.write("null");
+          } else {
+            numberBuffer.setLength(0);
+            writeNumber(out, numberBuffer.append(value));
+          }
+          return;
+        }
+      case FLOAT:
+        {
+          double value = rs.getDouble(column);
+          if (rs.wasNull() || Double.isNaN(value) || Double.isInfinite(value)) {
+            out.write("null");
+          } else {
+            numberBuffer.setLength(0);
+            writeNumber(out, numberBuffer.append(value));
+          }
+          return;
+        }
+      case BOOLEAN:
+        {
+          boolean value = rs.getBoolean(column);
+          out.write(rs.wasNull() ? "null" : value ? "true" : "false");
+          return;
+        }
+      case DECIMAL:
+        {
+          String value = rs.getString(column);
+          if (value == null || "NaN".equals(value)) {
+            out.write("null");
+          } else {
+            out.write(value);
+          }
+          return;
+        }
+      case TIMESTAMP:
+        {
+          Timestamp value = rs.getTimestamp(column);
+          writeString(out, value == null ? null : value.toLocalDateTime().toString());
+          return;
+        }
+      case TIMESTAMP_WITH_TIMEZONE:
+        {
+          Timestamp value = rs.getTimestamp(column);
+          writeString(out, value == null ? null : value.toInstant().toString());
+          return;
+        }
+      case DATE:
+        {
+          Date value = rs.getDate(column);
+          writeString(out, value == null ? null : value.toLocalDate().toString());
+          return;
+        }
+      case TIME:
+        {
+          Time value = rs.getTime(column);
+          writeString(out, value == null ? null : value.toLocalTime().toString());
+          return;
+        }
+      case GEOMETRY:
+        {
+          String value = rs.getString(column);
+          if (value == null) {
+            out.write("null");
+          } else {
+            writeGeoJSON(out, PGgeometry.geomFromString(value));
+          }
+          return;
+        }
+      default:
+        writeString(out, rs.getString(column));
+    }
+  }
+
+  private static void writeString(Writer out, String value) throws IOException {
+    if (value == null) {
+      out.write("null");
+    } else {
+      JSONObject.quote(value, out);
+    }
+  }
+
+  private void writeNumber(Writer out, StringBuilder number) throws IOException {
+    int len = number.length();
+    if (len > numberChars.length) {
+      numberChars = new char[len];
+    }
+    number.getChars(0, len, numberChars, 0);
+    out.write(numberChars, 0, len);
+  }
+
+  /**
+   * Method for writing a PostGIS geometry as a GeoJSON geometry object
+   *
+   * @param out -- Writer the geometry is written to
+   * @param geometry -- geometry to be written
+   * @throws IOException
+   */
+  void writeGeoJSON(Writer out, Geometry geometry) throws IOException {
+    if (geometry instanceof GeometryCollection) {
+      GeometryCollection collection = (GeometryCollection) geometry;
+      out.write("{\"type\":\"GeometryCollection\",\"geometries\":[");
+      for (int i = 0; i < collection.numGeoms(); i++) {
+        if (i > 0) {
+          out.write(',');
+        }
+        writeGeoJSON(out, collection.getSubGeometry(i));
+      }
+      out.write("]}");
+      return;
+    }
+    out.write("{\"type\":\"");
+    out.write(geoJSONType(geometry));
+    out.write("\",\"coordinates\":");
+    writeCoordinates(out, geometry);
+    out.write('}');
+  }
+
+  private static String geoJSONType(Geometry geometry) {
+    switch (geometry.getType()) {
+      case Geometry.POINT:
+        return "Point";
+      case Geometry.LINESTRING:
+        return "LineString";
+      case Geometry.POLYGON:
+        return "Polygon";
+      case Geometry.MULTIPOINT:
+        return "MultiPoint";
+      case Geometry.MULTILINESTRING:
+        return "MultiLineString";
+      case Geometry.MULTIPOLYGON:
+        return "MultiPolygon";
+      default:
+        throw new IllegalArgumentException("No GeoJSON type for " + geometry.getTypeString());
+    }
+  }
+
+  private void writeCoordinates(Writer out, Geometry geometry) throws IOException {
+    if (geometry instanceof Point) {
+      Point point = (Point) geometry;
+      out.write('[');
+      numberBuffer.setLength(0);
+      numberBuffer.append(point.x).append(',').append(point.y);
+      if (point.dimension > 2) {
+        numberBuffer.append(',').append(point.z);
+      }
+      writeNumber(out, numberBuffer);
+      out.write(']');
+      return;
+    }
+    ComposedGeom composed = (ComposedGeom) geometry;
+    out.write('[');
+    for (int i = 0; i < composed.numGeoms(); i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      writeCoordinates(out, composed.getSubGeometry(i));
+    }
+    out.write(']');
+  }
+}
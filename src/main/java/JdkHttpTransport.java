@@ -0,0 +1,47 @@
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/** Transport backed by the HttpServer shipped with the JDK */
+public class JdkHttpTransport implements HttpTransport {
+
+  private final HttpServer httpServer;
+
+  /**
+   * @param address -- address to listen on
+   * @param executor -- executor the handlers run on
+   * @throws IOException -- if the address cannot be bound
+   */
+  public JdkHttpTransport(InetSocketAddress address, Executor executor) throws IOException {
+    this.httpServer = HttpServer.create(address, 0);
+    this.httpServer.setExecutor(executor);
+  }
+
+  @Override
+  public void createContext(String path, HttpHandler handler) {
+    httpServer.createContext(path, handler);
+  }
+
+  @Override
+  public void start() {
+    httpServer.start();
+  }
+
+  @Override
+  public void stop(int delaySeconds) {
+    httpServer.stop(delaySeconds);
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    return httpServer.getAddress();
+  }
+
+  @Override
+  public String getName() {
+    return JDK;
+  }
+}
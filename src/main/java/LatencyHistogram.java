@@ -0,0 +1,96 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with a bounded relative error, in the manner of
+ * HdrHistogram. Durations below 64ns have a bucket each; above, every power of two is split into
+ * 32 buckets, so a percentile is within about 3% of the true value. Recording is one atomic
+ * increment of a fixed array, without locks or allocation, and can run from any thread.
+ *
+ * <p>Durations of more than 2^40ns (about 18 minutes) are counted in the last bucket.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+  private static final int BUCKETS = 2 * SUB_BUCKETS + MAX_SHIFT * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+
+  /**
+   * Method for recording a duration
+   *
+   * @param nanos -- duration in nanoseconds, negative ones being taken as 0
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(bucketOf(nanos));
+    count.increment();
+    totalNanos.add(nanos);
+  }
+
+  private static int bucketOf(long nanos) {
+    if (nanos < 2 * SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+    if (shift > MAX_SHIFT) {
+      return BUCKETS - 1;
+    }
+    return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+  }
+
+  /** Largest duration counted in a bucket */
+  private static long highestValueOf(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+    long subBucket = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  /**
+   * Method for estimating a percentile of the durations recorded so far. Recordings made while
+   * the buckets are being read may or may not be included
+   *
+   * @param percentile -- e.g. 99.9
+   * @return long -- duration in nanoseconds at or below which that percentage of the durations
+   *     fall, 0 if none was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return highestValueOf(i);
+      }
+    }
+    return highestValueOf(BUCKETS - 1);
+  }
+
+  /** Counter -- durations recorded */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /** Counter -- sum of the durations recorded */
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+}
@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for the HTTP API, sending a mix of /insert, /select, /geoSelect and /auth
+ * requests at a fixed rate and reporting the throughput and latency percentiles of each kind.
+ *
+ * <p>The load follows an open model: the time of every request is set in advance from the rate,
+ * whether or not the server has answered the previous ones, and its latency is measured from that
+ * intended time rather than from when it was actually sent. A stall of the server, or of the
+ * senders, therefore shows up in the latency of every request held up behind it instead of
+ * lowering the rate at which they are sent (coordinated omission).
+ *
+ * <p>Settings are read from the config file, as for the server, and may be overridden by key=value
+ * arguments, e.g. {@code java -cp database.jar LoadGenerator load.rate=500 load.mix=select:1}.
+ * With load.embedded the server is started in this process, on a StubQueryProcessor if
+ * stub.enabled is set, so that the overheads of the server can be measured without a DB Server.
+ */
+public class LoadGenerator {
+
+  /** Kinds of requests sent */
+  public enum Kind {
+    INSERT,
+    SELECT,
+    GEO_SELECT,
+    AUTH
+  }
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+
+  private final String baseUrl;
+  private final double rate;
+  private final long warmupNanos;
+  private final long durationNanos;
+  private final long drainNanos;
+  private final int timeoutMs;
+  private final int players;
+  private final String email;
+  private final String password;
+  private final Kind[] mix;
+  private final ExecutorService senders;
+
+  private final Map<Kind, LatencyHistogram> latencies = new EnumMap<>(Kind.class);
+  private final LatencyHistogram allLatencies = new LatencyHistogram();
+  private final Map<Kind, Map<Integer, LongAdder>> statuses = new EnumMap<>(Kind.class);
+
+  /**
+   * @param baseUrl -- address of the server e.g. "http://localhost:8500"
+   * @param rate -- requests sent per second, all kinds together
+   * @param warmupSeconds -- time at the start whose requests are sent but not recorded
+   * @param durationSeconds -- time during which requests are recorded, after the warmup
+   * @param threads -- threads sending requests, i.e. the most requests in flight at once
+   * @param mix -- kinds of requests, each appearing as many times as its weight
+   * @param config -- configuration, for the other load.* keys
+   */
+  public LoadGenerator(
+      String baseUrl,
+      double rate,
+      int warmupSeconds,
+      int durationSeconds,
+      int threads,
+      Kind[] mix,
+      ServerConfig config) {
+    this.baseUrl = baseUrl;
+    this.rate = rate;
+    this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+    this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+    this.drainNanos = TimeUnit.SECONDS.toNanos(config.getInt("load.drainSeconds", 10));
+    this.timeoutMs = config.getInt("load.timeoutMs", 10000);
+    this.players = config.getInt("load.players", 1000);
+    this.email = config.getString("load.email", StubQueryProcessor.EMAIL);
+    this.password = config.getString("load.password", StubQueryProcessor.PASSWORD);
+    this.mix = mix;
+    // requests wait in the queue when every thread is busy, their latency still counting
+    this.senders =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            WorkerExecutor.namedDaemonThreads("load-sender-"));
+    for (Kind kind : Kind.values()) {
+      latencies.put(kind, new LatencyHistogram());
+      statuses.put(kind, new ConcurrentHashMap<>());
+    }
+  }
+
+  /**
+   * Method for building the generator described by the load.* keys of the config
+   *
+   * @param config -- configuration, including the overrides given as arguments
+   * @return LoadGenerator
+   */
+  public static LoadGenerator fromConfig(ServerConfig config) {
+    int port = config.getInt("server.port", QuerySession.PORT);
+    return new LoadGenerator(
+        config.getString("load.url", "http://localhost:" + port),
+        Double.parseDouble(config.getString("load.rate", "100")),
+        config.getInt("load.warmupSeconds", 5),
+        config.getInt("load.durationSeconds", 30),
+        config.getInt("load.threads", 64),
+        parseMix(config.getString("load.mix", "insert:1,select:4,geoSelect:4,auth:1")),
+        config);
+  }
+
+  /**
+   * Method for parsing the mix of requests
+   *
+   * @param mix -- comma-separated kind:weight pairs, the kinds being insert, select, geoSelect and
+   *     auth e.g. "select:4,auth:1"
+   * @return Kind[] -- every kind repeated as many times as its weight
+   * @throws IllegalArgumentException -- if a kind is unknown or no weight is positive
+   */
+  static Kind[] parseMix(String mix) {
+    Map<Kind, Integer> weights = new EnumMap<>(Kind.class);
+    int total = 0;
+    for (String entry : mix.split(",")) {
+      String[] pair = entry.trim().split(":");
+      Kind kind = kindOf(pair[0].trim());
+      int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+      if (weight < 0) {
+        throw new IllegalArgumentException("Negative weight in " + entry);
+      }
+      weights.merge(kind, weight, Integer::sum);
+      total += weight;
+    }
+    if (total == 0) {
+      throw new IllegalArgumentException("No request in the mix " + mix);
+    }
+    Kind[] kinds = new Kind[total];
+    int i = 0;
+    for (Map.Entry<Kind, Integer> weight : weights.entrySet()) {
+      for (int n = 0; n < weight.getValue(); n++) {
+        kinds[i++] = weight.getKey();
+      }
+    }
+    return kinds;
+  }
+
+  private static Kind kindOf(String name) {
+    switch (name) {
+      case "insert":
+        return Kind.INSERT;
+      case "select":
+        return Kind.SELECT;
+      case "geoSelect":
+        return Kind.GEO_SELECT;
+      case "auth":
+        return Kind.AUTH;
+      default:
+        throw new IllegalArgumentException("Unknown request kind " + name);
+    }
+  }
+
+  /**
+   * Method for sending the load for the warmup and the duration, then waiting for the requests in
+   * flight for up to load.drainSeconds
+   *
+   * @return long -- requests still queued when the generator gave up waiting
+   */
+  public long run() throws InterruptedException {
+    double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    Random random = new Random(42);
+    long start = System.nanoTime();
+    long recordFrom = start + warmupNanos;
+    long end = recordFrom + durationNanos;
+    for (long i = 0; ; i++) {
+      long intended = start + (long) (i * intervalNanos);
+      if (intended - end >= 0) {
+        break;
+      }
+      for (long wait = intended - System.nanoTime(); wait > 0; ) {
+        LockSupport.parkNanos(wait);
+        wait = intended - System.nanoTime();
+      }
+      Kind kind = mix[random.nextInt(mix.length)];
+      boolean recorded = intended - recordFrom >= 0;
+      senders.execute(() -> send(kind, intended, recorded));
+    }
+    senders.shutdown();
+    if (senders.awaitTermination(drainNanos, TimeUnit.NANOSECONDS)) {
+      return 0;
+    }
+    return senders.shutdownNow().size();
+  }
+
+  private void send(Kind kind, long intended, boolean recorded) {
+    int status;
+    try {
+      status = request(kind);
+    } catch (IOException e) {
+      status = -1;
+    }
+    if (recorded) {
+      long latency = System.nanoTime() - intended;
+      latencies.get(kind).record(latency);
+      allLatencies.record(latency);
+      statuses.get(kind).computeIfAbsent(status, s -> new LongAdder()).increment();
+    }
+  }
+
+  /** Sends a request of a kind, with random parameters, and reads the whole response */
+  private int request(Kind kind) throws IOException {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int player = 1 + random.nextInt(players);
+    String body = null;
+    String path;
+    switch (kind) {
+      case INSERT:
+        path =
+            "/insert/gallery?timestamp="
+                + encode(new Timestamp(System.currentTimeMillis()).toString())
+                + "&player="
+                + player
+                + "&url="
+                + encode("https://storage.example.com/images/" + random.nextInt() + ".jpg");
+        break;
+      case SELECT:
+        path = "/select/player_id&xp&cash?from=player_stats&where=player_id&is=" + player;
+        break;
+      case GEO_SELECT:
+        path =
+            String.format(
+                Locale.ROOT,
+                "/geoSelect/landmark?lat=%.5f&lon=%.5f&rad=%d",
+                51.5 + random.nextDouble(-0.1, 0.1),
+                -0.12 + random.nextDouble(-0.1, 0.1),
+                100 + random.nextInt(900));
+        break;
+      case AUTH:
+        path = "/auth";
+        body = "{\"email\":\"" + email + "\",\"password\":\"" + password + "\"}";
+        break;
+      default:
+        throw new IllegalStateException(kind.name());
+    }
+
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    connection.setConnectTimeout(timeoutMs);
+    connection.setReadTimeout(timeoutMs);
+    if (body != null) {
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    int status = connection.getResponseCode();
+    // read to the end so that the connection can be kept alive for the next request
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (in != null) {
+      try (InputStream response = in) {
+        byte[] buffer = new byte[8192];
+        while (response.read(buffer) >= 0) {
+          // discarded
+        }
+      }
+    }
+    return status;
+  }
+
+  private static String encode(String value) throws UnsupportedEncodingException {
+    return URLEncoder.encode(value, "UTF-8");
+  }
+
+  /**
+   * Method for writing the results of each kind and of all of them together
+   *
+   * @param unfinished -- requests left unanswered, as returned by run()
+   * @return String -- one line per kind, latencies in milliseconds
+   */
+  public String report(long unfinished) {
+    double seconds = durationNanos / 1e9;
+    StringBuilder out = new StringBuilder();
+    out.append(
+        String.format(
+            Locale.ROOT,
+            "%.0f req/s offered for %.0f s after %d s of warmup, against %s%n%n",
+            rate,
+            seconds,
+            TimeUnit.NANOSECONDS.toSeconds(warmupNanos),
+            baseUrl));
+    out.append(
+        String.format(
+            Locale.ROOT,
+            "%-10s %8s %9s %9s %9s %9s %9s %9s  %s%n",
+            "kind",
+            "count",
+            "req/s",
+            "p50 ms",
+            "p90 ms",
+            "p99 ms",
+            "p99.9 ms",
+            "max ms",
+            "statuses"));
+    Map<Integer, Long> allStatuses = new TreeMap<>();
+    for (Kind kind : Kind.values()) {
+      LatencyHistogram histogram = latencies.get(kind);
+      if (histogram.getCount() == 0) {
+        continue;
+      }
+      Map<Integer, Long> kindStatuses = new TreeMap<>();
+      for (Map.Entry<Integer, LongAdder> status : statuses.get(kind).entrySet()) {
+        kindStatuses.put(status.getKey(), status.getValue().sum());
+        allStatuses.merge(status.getKey(), status.getValue().sum(), Long::sum);
+      }
+      appendLine(out, kind.name().toLowerCase(Locale.ROOT), histogram, seconds, kindStatuses);
+    }
+    appendLine(out, "all", allLatencies, seconds, allStatuses);
+    if (unfinished > 0) {
+      out.append(unfinished).append(" requests were still queued when the generator gave up\n");
+    }
+    out.append("(status -1: no response, e.g. refused or timed out)\n");
+    return out.toString();
+  }
+
+  private static void appendLine(
+      StringBuilder out,
+      String name,
+      LatencyHistogram histogram,
+      double seconds,
+      Map<Integer, Long> statuses) {
+    long count = histogram.getCount();
+    out.append(String.format(Locale.ROOT, "%-10s %8d %9.1f", name, count, count / seconds));
+    for (double percentile : PERCENTILES) {
+      double millis = histogram.getValueAtPercentile(percentile) / 1e6;
+      out.append(String.format(Locale.ROOT, " %9.3f", millis));
+    }
+    out.append("  ").append(statuses).append('\n');
+  }
+
+  public static void main(String[] args) throws Exception {
+    Properties overrides = new Properties();
+    for (String arg : args) {
+      int idx = arg.indexOf('=');
+      if (idx < 0) {
+        System.err.println("Arguments are key=value settings, e.g. load.rate=200");
+        System.exit(2);
+      }
+      overrides.setProperty(arg.substring(0, idx), arg.substring(idx + 1));
+    }
+    ServerConfig config = ServerConfig.load(overrides);
+    Log.configure(config);
+
+    Server server = null;
+    if (config.getBoolean("load.embedded", false)) {
+      server = QuerySession.startServer(config);
+    }
+    // keep a connection per sender alive, instead of the 5 kept by default
+    System.setProperty("http.maxConnections", config.getString("load.threads", "64"));
+    LoadGenerator generator = fromConfig(config);
+    long unfinished = generator.run();
+    if (server != null) {
+      server.stop(0);
+    }
+    Log.flush();
+    System.out.print(generator.report(unfinished));
+  }
+}
@@ -0,0 +1,26 @@
+/**
+ * A point attached to a row of another table e.g. an image in Location, a quest in Quest_Location
+ */
+public class LocationObject {
+  private final int id;
+  private final float longitude;
+  private final float latitude;
+
+  public LocationObject(int id, float longitude, float latitude) {
+    this.id = id;
+    this.longitude = longitude;
+    this.latitude = latitude;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public float getLongitude() {
+    return longitude;
+  }
+
+  public float getLatitude() {
+    return latitude;
+  }
+}
@@ -0,0 +1,352 @@
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Levelled logging to standard output, written by a background thread so that the threads serving
+ * requests never wait on the console. Messages are put in a fixed ring buffer without taking a
+ * lock; when the writer falls so far behind that the buffer is full, further messages are dropped
+ * and counted rather than holding up the request.
+ *
+ * <p>Messages below the level are discarded before anything is built from them. Those that are
+ * costly to build, such as SQL text, are passed as a Supplier that only runs when the level is on.
+ * The writer parks when it finds the buffer empty and the next message logged wakes it up, so an
+ * idle server does not keep waking it; flush() waits for the messages logged so far, and runs when
+ * the JVM shuts down.
+ */
+public final class Log {
+
+  /** Levels of the messages, in increasing order of severity */
+  public enum Level {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF
+  }
+
+  private static final int DEFAULT_CAPACITY = 8192;
+
+  /** Longest the writer parks with nothing to write, should a wake-up ever be missed */
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /** Longest a reconfiguration waits for the previous writer to drain its ring */
+  private static final long DRAIN_TIMEOUT_MILLIS = 10_000;
+
+  /* Outcomes of Ring.offer */
+  private static final int OFFERED = 0;
+  private static final int FULL = 1;
+  private static final int CLOSED = 2;
+
+  /** Message waiting in the ring for the writer */
+  private static final class Entry {
+    private final long timestamp;
+    private final Level level;
+    private final String thread;
+    private final String message;
+    private final Throwable error;
+
+    private Entry(Level level, String message, Throwable error) {
+      this.timestamp = System.currentTimeMillis();
+      this.level = level;
+      this.thread = Thread.currentThread().getName();
+      this.message = String.valueOf(message);
+      this.error = error;
+    }
+  }
+
+  private static volatile Level level = Level.INFO;
+  private static volatile Ring ring = new Ring(DEFAULT_CAPACITY, console()).start();
+  private static final LongAdder dropped = new LongAdder();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+  }
+
+  private Log() {}
+
+  /**
+   * Method for setting up logging from the log.* keys of the config. Messages logged before are
+   * kept
+   *
+   * @param config -- server configuration
+   */
+  public static void configure(ServerConfig config) {
+    level = Level.valueOf(config.getString("log.level", "INFO").toUpperCase(Locale.ROOT));
+    int capacity = config.getInt("log.bufferSize", DEFAULT_CAPACITY);
+    if (capacity != ring.capacity()) {
+      replaceRing(capacity, console());
+    }
+  }
+
+  /**
+   * Method for moving logging to a new ring buffer and writer. Messages logged from then on wait
+   * in the new ring while the previous writer drains the old one and stops, so that the two never
+   * write at the same time and messages keep their order
+   *
+   * @param capacity -- messages the new ring holds
+   * @param out -- where the new writer writes the messages
+   */
+  static synchronized void replaceRing(int capacity, Writer out) {
+    Ring previous = ring;
+    Ring next = new Ring(capacity, out);
+    ring = next;
+    previous.close();
+    next.start();
+  }
+
+  public static void setLevel(Level newLevel) {
+    level = newLevel;
+  }
+
+  public static boolean isEnabled(Level messageLevel) {
+    return messageLevel.compareTo(level) >= 0;
+  }
+
+  public static boolean isDebugEnabled() {
+    return isEnabled(Level.DEBUG);
+  }
+
+  /**
+   * Method for logging a message at DEBUG. It is turned into a String only if DEBUG is on, so
+   * passing the StringBuilder of a statement costs nothing otherwise
+   *
+   * @param message -- message to be logged
+   */
+  public static void debug(CharSequence message) {
+    if (isEnabled(Level.DEBUG)) {
+      log(Level.DEBUG, message.toString(), null);
+    }
+  }
+
+  /** Method for logging a message built only if DEBUG is on, e.g. the text of a statement */
+  public static void debug(Supplier<String> message) {
+    if (isEnabled(Level.DEBUG)) {
+      log(Level.DEBUG, message.get(), null);
+    }
+  }
+
+  public static void info(String message) {
+    log(Level.INFO, message, null);
+  }
+
+  public static void warn(String message) {
+    log(Level.WARN, message, null);
+  }
+
+  public static void warn(String message, Throwable error) {
+    log(Level.WARN, message, error);
+  }
+
+  public static void error(String message) {
+    log(Level.ERROR, message, null);
+  }
+
+  public static void error(String message, Throwable error) {
+    log(Level.ERROR, message, error);
+  }
+
+  /**
+   * Method for logging a message at a level
+   *
+   * @param messageLevel -- level of the message, discarded if below the configured one
+   * @param message -- message to be logged
+   * @param error -- exception whose stack trace follows the message, may be null
+   */
+  public static void log(Level messageLevel, String message, Throwable error) {
+    if (!isEnabled(messageLevel)) {
+      return;
+    }
+    Entry entry = new Entry(messageLevel, message, error);
+    int outcome;
+    do {
+      // a closed ring has been replaced already
+      outcome = ring.offer(entry);
+    } while (outcome == CLOSED);
+    if (outcome == FULL) {
+      dropped.increment();
+    }
+  }
+
+  /** Method for waiting until the messages logged so far have been written, for up to a second */
+  public static void flush() {
+    ring.awaitEmpty(TimeUnit.SECONDS.toNanos(1));
+  }
+
+  /** Counter -- messages dropped because the buffer was full */
+  public static long getDropped() {
+    return dropped.sum();
+  }
+
+  /** Gauge -- messages waiting to be written */
+  public static int getPending() {
+    return ring.size();
+  }
+
+  /**
+   * Ring buffer of many producers and one consumer. A producer claims a slot by moving the tail
+   * with a CAS, then publishes its entry in the slot; the writer takes entries from the head in
+   * order, waiting for a claimed slot to be published, and empties each slot before moving the
+   * head past it.
+   *
+   * <p>The writer flags itself as sleeping before it checks the tail one last time and parks, and
+   * a producer checks the flag after moving the tail, so one of them always sees the other. Closing
+   * works the same way with the producers in flight: a producer counts itself in before it checks
+   * whether the ring is closed, and the writer only stops once it is closed, no producer is in
+   * flight and every claimed slot has been written
+   */
+  private static final class Ring {
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final Writer out;
+    private final Thread writer;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile long flushedUpTo = 0;
+    private volatile boolean sleeping = false;
+    private volatile boolean closed = false;
+
+    private Ring(int capacity, Writer out) {
+      int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+      this.slots = new AtomicReferenceArray<>(size);
+      this.mask = size - 1;
+      this.out = out;
+      this.writer = new Thread(this::drain, "log-writer");
+      writer.setDaemon(true);
+    }
+
+    private Ring start() {
+      writer.start();
+      return this;
+    }
+
+    private int capacity() {
+      return mask + 1;
+    }
+
+    private int size() {
+      return (int) (tail.get() - head.get());
+    }
+
+    private int offer(Entry entry) {
+      inFlight.incrementAndGet();
+      try {
+        if (closed) {
+          return CLOSED;
+        }
+        long claimed;
+        do {
+          claimed = tail.get();
+          if (claimed - head.get() > mask) {
+            return FULL;
+          }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        slots.lazySet((int) claimed & mask, entry);
+      } finally {
+        inFlight.decrementAndGet();
+      }
+      if (sleeping) {
+        LockSupport.unpark(writer);
+      }
+      return OFFERED;
+    }
+
+    private void drain() {
+      while (true) {
+        long next = head.get();
+        if (next == tail.get()) {
+          flushQuietly(out);
+          flushedUpTo = next;
+          if (closed && inFlight.get() == 0 && next == tail.get()) {
+            return;
+          }
+          sleeping = true;
+          if (next == tail.get() && !closed) {
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+          }
+          sleeping = false;
+          continue;
+        }
+        Entry entry = slots.get((int) next & mask);
+        if (entry == null) {
+          // claimed but not yet published
+          Thread.onSpinWait();
+          continue;
+        }
+        slots.lazySet((int) next & mask, null);
+        head.lazySet(next + 1);
+        write(out, entry);
+      }
+    }
+
+    private void awaitEmpty(long timeoutNanos) {
+      long deadline = System.nanoTime() + timeoutNanos;
+      long target = tail.get();
+      while (flushedUpTo < target && System.nanoTime() - deadline < 0) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+    }
+
+    /** Stops the writer once the entries already offered have been written, and waits for it */
+    private void close() {
+      closed = true;
+      LockSupport.unpark(writer);
+      try {
+        writer.join(DRAIN_TIMEOUT_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Writer of standard output, buffered for the writer thread */
+  static Writer console() {
+    return new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8),
+        1 << 16);
+  }
+
+  private static void write(Writer out, Entry entry) {
+    try {
+      out.write(Instant.ofEpochMilli(entry.timestamp).toString());
+      out.write(' ');
+      out.write(entry.level.name());
+      out.write(" [");
+      out.write(entry.thread);
+      out.write("] ");
+      out.write(entry.message);
+      out.write('\n');
+      if (entry.error != null) {
+        StringWriter trace = new StringWriter();
+        entry.error.printStackTrace(new PrintWriter(trace));
+        out.write(trace.toString());
+      }
+    } catch (IOException e) {
+      // nowhere left to report it
+    }
+  }
+
+  private static void flushQuietly(Writer out) {
+    try {
+      out.flush();
+    } catch (IOException e) {
+      // nowhere left to report it
+    }
+  }
+}
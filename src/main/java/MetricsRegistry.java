@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metrics of the server, written out in the Prometheus text format by the /metrics context.
+ *
+ * <p>Requests are recorded per endpoint, with a latency histogram for the whole request and one
+ * for each phase of its handling (see RequestTimer), and a count of the responses by status.
+ * Recording takes a few atomic increments and no lock once an endpoint has been seen. Every other
+ * metric is read from the getters of the components at scrape time, through the suppliers they
+ * were registered with, so that they cost nothing between scrapes.
+ */
+public class MetricsRegistry {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final String PREFIX = "wannabeez_";
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  /** Histograms and response counts of one endpoint */
+  private static class EndpointMetrics {
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram[] phases =
+        new LatencyHistogram[RequestTimer.Phase.values().length];
+    private final Map<Integer, LongAdder> responses = new ConcurrentHashMap<>();
+
+    private EndpointMetrics() {
+      for (int i = 0; i < phases.length; i++) {
+        phases[i] = new LatencyHistogram();
+      }
+    }
+  }
+
+  /** Metric read at scrape time, all the samples of a name sharing its type and help */
+  private static class Family {
+    private final String type;
+    private final String help;
+    private final List<String> labels = new ArrayList<>();
+    private final List<DoubleSupplier> values = new ArrayList<>();
+
+    private Family(String type, String help) {
+      this.type = type;
+      this.help = help;
+    }
+  }
+
+  private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+  private final Map<String, Family> families = new LinkedHashMap<>();
+
+  /**
+   * Method for recording a request once it has been handled
+   *
+   * @param timer -- timer of the request
+   */
+  public void record(RequestTimer timer) {
+    EndpointMetrics metrics =
+        endpoints.computeIfAbsent(timer.getEndpoint(), endpoint -> new EndpointMetrics());
+    metrics.total.record(timer.getElapsedNanos());
+    for (RequestTimer.Phase phase : RequestTimer.Phase.values()) {
+      long nanos = timer.getPhaseNanos(phase);
+      if (nanos >= 0) {
+        metrics.phases[phase.ordinal()].record(nanos);
+      }
+    }
+    if (timer.getStatus() != 0) {
+      metrics.responses.computeIfAbsent(timer.getStatus(), status -> new LongAdder()).increment();
+    }
+  }
+
+  /**
+   * Method for registering a counter, read from its supplier at scrape time
+   *
+   * @param name -- name of the metric without the prefix, ending in _total
+   * @param help -- description of the metric
+   * @param value -- supplier of the value
+   * @param labels -- labels of this sample as name, value pairs, e.g. "state", "idle"
+   */
+  public synchronized void counter(
+      String name, String help, DoubleSupplier value, String... labels) {
+    register(name, "counter", help, value, labels);
+  }
+
+  /**
+   * Method for registering a gauge, read from its supplier at scrape time
+   *
+   * @param name -- name of the metric without the prefix
+   * @param help -- description of the metric
+   * @param value -- supplier of the value
+   * @param labels -- labels of this sample as name, value pairs, e.g. "state", "idle"
+   */
+  public synchronized void gauge(
+      String name, String help, DoubleSupplier value, String... labels) {
+    register(name, "gauge", help, value, labels);
+  }
+
+  private void register(
+      String name, String type, String help, DoubleSupplier value, String... labels) {
+    Family family = families.computeIfAbsent(PREFIX + name, n -> new Family(type, help));
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is registered as a " + family.type);
+    }
+    StringBuilder labelText = new StringBuilder();
+    for (int i = 0; i + 1 < labels.length; i += 2) {
+      appendLabel(labelText, labels[i], labels[i + 1]);
+    }
+    family.labels.add(labelText.toString());
+    family.values.add(value);
+  }
+
+  /**
+   * Method for writing every metric in the Prometheus text exposition format
+   *
+   * @return String
+   */
+  public synchronized String scrape() {
+    StringBuilder out = new StringBuilder(8192);
+    writeRequests(out);
+    for (Map.Entry<String, Family> entry : families.entrySet()) {
+      Family family = entry.getValue();
+      writeHeader(out, entry.getKey(), family.type, family.help);
+      for (int i = 0; i < family.values.size(); i++) {
+        double value;
+        try {
+          value = family.values.get(i).getAsDouble();
+        } catch (RuntimeException e) {
+          // a component that is shutting down, or not set up
+          continue;
+        }
+        writeSample(out, entry.getKey(), family.labels.get(i), value);
+      }
+    }
+    return out.toString();
+  }
+
+  private void writeRequests(StringBuilder out) {
+    String seconds = PREFIX + "request_duration_seconds";
+    writeHeader(
+        out,
+        seconds,
+        "summary",
+        "Time spent handling requests by endpoint, as a whole (phase=\"total\") and by phase");
+    for (Map.Entry<String, EndpointMetrics> entry : endpoints.entrySet()) {
+      EndpointMetrics metrics = entry.getValue();
+      writeSummary(out, seconds, entry.getKey(), "total", metrics.total);
+      for (RequestTimer.Phase phase : RequestTimer.Phase.values()) {
+        LatencyHistogram histogram = metrics.phases[phase.ordinal()];
+        if (histogram.getCount() > 0) {
+          writeSummary(
+              out, seconds, entry.getKey(), phase.name().toLowerCase(Locale.ROOT), histogram);
+        }
+      }
+    }
+
+    String responses = PREFIX + "responses_total";
+    writeHeader(out, responses, "counter", "Responses sent by endpoint and HTTP status");
+    for (Map.Entry<String, EndpointMetrics> entry : endpoints.entrySet()) {
+      for (Map.Entry<Integer, LongAdder> status : entry.getValue().responses.entrySet()) {
+        StringBuilder labels = new StringBuilder();
+        appendLabel(labels, "endpoint", entry.getKey());
+        appendLabel(labels, "status", status.getKey().toString());
+        writeSample(out, responses, labels.toString(), status.getValue().sum());
+      }
+    }
+  }
+
+  private static void writeSummary(
+      StringBuilder out, String name, String endpoint, String phase, LatencyHistogram histogram) {
+    StringBuilder labels = new StringBuilder();
+    appendLabel(labels, "endpoint", endpoint);
+    appendLabel(labels, "phase", phase);
+    for (double quantile : QUANTILES) {
+      StringBuilder quantileLabels = new StringBuilder(labels);
+      appendLabel(quantileLabels, "quantile", Double.toString(quantile));
+      writeSample(
+          out,
+          name,
+          quantileLabels.toString(),
+          histogram.getValueAtPercentile(quantile * 100) / 1e9);
+    }
+    writeSample(out, name + "_sum", labels.toString(), histogram.getTotalNanos() / 1e9);
+    writeSample(out, name + "_count", labels.toString(), histogram.getCount());
+  }
+
+  private static void writeHeader(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ');
+    out.append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void writeSample(StringBuilder out, String name, String labels, double value) {
+    out.append(name);
+    if (labels.length() > 0) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ');
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      out.append((long) value);
+    } else if (Double.isInfinite(value)) {
+      out.append(value > 0 ? "+Inf" : "-Inf");
+    } else {
+      out.append(value);
+    }
+    out.append('\n');
+  }
+
+  private static void appendLabel(StringBuilder labels, String name, String value) {
+    if (labels.length() > 0) {
+      labels.append(',');
+    }
+    labels.append(name).append("=\"");
+    labels.append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+    labels.append('"');
+  }
+}
@@ -0,0 +1,374 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A request read by the NioHttpTransport and its response, behind the HttpExchange interface the
+ * handlers are written against. The response body is written into pooled buffers queued on the
+ * connection, framed with chunked encoding when sendResponseHeaders is given a length of 0.
+ */
+public class NioHttpExchange extends HttpExchange {
+
+  /** Room left at the start of a buffer for the size line of a chunk, "ffffffff\r\n" at most */
+  private static final int CHUNK_HEADER_BYTES = 10;
+  /** Room left at the end of a buffer for the CRLF closing a chunk */
+  private static final int CHUNK_TRAILER_BYTES = 2;
+  private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+  private final NioHttpTransport.Connection connection;
+  private final String method;
+  private final URI uri;
+  private final String protocol;
+  private final Headers requestHeaders;
+  private final Headers responseHeaders = new Headers();
+  private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+  private HttpContext context = null;
+  private InputStream requestBody;
+  private OutputStream responseBody;
+  private final ResponseBody rawResponseBody = new ResponseBody();
+  private int responseCode = -1;
+  private HttpPrincipal principal = null;
+
+  /* Read by the transport */
+  final byte[] body;
+  final int errorStatus;
+  volatile boolean keepAlive;
+  boolean expectContinue = false;
+
+  NioHttpExchange(
+      NioHttpTransport.Connection connection,
+      String method,
+      URI uri,
+      String protocol,
+      Headers requestHeaders,
+      byte[] body,
+      boolean keepAlive) {
+    this(connection, method, uri, protocol, requestHeaders, body, keepAlive, 0);
+  }
+
+  private NioHttpExchange(
+      NioHttpTransport.Connection connection,
+      String method,
+      URI uri,
+      String protocol,
+      Headers requestHeaders,
+      byte[] body,
+      boolean keepAlive,
+      int errorStatus) {
+    this.connection = connection;
+    this.method = method;
+    this.uri = uri;
+    this.protocol = protocol;
+    this.requestHeaders = requestHeaders;
+    this.body = body;
+    this.keepAlive = keepAlive;
+    this.errorStatus = errorStatus;
+    this.requestBody = new ByteArrayInputStream(body);
+    this.responseBody = rawResponseBody;
+  }
+
+  /**
+   * Method for building the exchange of a request refused by the transport, answered with the
+   * given status before the connection is closed
+   */
+  static NioHttpExchange rejected(NioHttpTransport.Connection connection, int status) {
+    return new NioHttpExchange(
+        connection, "GET", URI.create("/"), "HTTP/1.1", new Headers(), new byte[0], false, status);
+  }
+
+  void setHttpContext(HttpContext context) {
+    this.context = context;
+  }
+
+  @Override
+  public Headers getRequestHeaders() {
+    return requestHeaders;
+  }
+
+  @Override
+  public Headers getResponseHeaders() {
+    return responseHeaders;
+  }
+
+  @Override
+  public URI getRequestURI() {
+    return uri;
+  }
+
+  @Override
+  public String getRequestMethod() {
+    return method;
+  }
+
+  @Override
+  public HttpContext getHttpContext() {
+    return context;
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (responseCode < 0) {
+        sendResponseHeaders(500, -1);
+      }
+      responseBody.close();
+    } catch (IOException e) {
+      abort();
+    }
+  }
+
+  /** Method for ending a response that could not be completed, closing its connection */
+  void abort() {
+    keepAlive = false;
+    if (!rawResponseBody.closed) {
+      rawResponseBody.closed = true;
+      connection.getBuffers().release(rawResponseBody.buffer);
+      rawResponseBody.buffer = null;
+      connection.endResponse();
+    }
+  }
+
+  @Override
+  public InputStream getRequestBody() {
+    return requestBody;
+  }
+
+  @Override
+  public OutputStream getResponseBody() {
+    return responseBody;
+  }
+
+  /**
+   * Method for sending the status line and the response headers
+   *
+   * @param code -- status code of the response
+   * @param length -- length of the body, 0 for a body of unknown length sent in chunks, -1 for no
+   *     body
+   * @throws IOException -- if the headers were already sent or the connection is closed
+   */
+  @Override
+  public void sendResponseHeaders(int code, long length) throws IOException {
+    if (responseCode >= 0) {
+      throw new IOException("Response headers already sent");
+    }
+    responseCode = code;
+    responseHeaders.remove("Content-Length");
+    responseHeaders.remove("Transfer-Encoding");
+    if (length > 0) {
+      responseHeaders.set("Content-Length", Long.toString(length));
+      rawResponseBody.remaining = length;
+    } else if (length == 0 && "HTTP/1.0".equals(protocol)) {
+      // no chunked encoding in HTTP/1.0, the end of the body is the end of the connection
+      keepAlive = false;
+      rawResponseBody.remaining = Long.MAX_VALUE;
+    } else if (length == 0) {
+      responseHeaders.set("Transfer-Encoding", "chunked");
+      rawResponseBody.chunked = true;
+      rawResponseBody.remaining = Long.MAX_VALUE;
+    } else {
+      responseHeaders.set("Content-Length", "0");
+      rawResponseBody.remaining = 0;
+    }
+    if (!keepAlive) {
+      responseHeaders.set("Connection", "close");
+    } else if ("HTTP/1.0".equals(protocol)) {
+      responseHeaders.set("Connection", "keep-alive");
+    }
+
+    StringBuilder head = new StringBuilder(256);
+    head.append("HTTP/1.1 ").append(code).append(' ').append(reasonPhrase(code)).append("\r\n");
+    for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+      for (String value : header.getValue()) {
+        head.append(header.getKey()).append(": ").append(value).append("\r\n");
+      }
+    }
+    head.append("\r\n");
+    connection.enqueue(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1)));
+  }
+
+  private static String reasonPhrase(int code) {
+    switch (code) {
+      case 200:
+        return "OK";
+      case 204:
+        return "No Content";
+      case 400:
+        return "Bad Request";
+      case 401:
+        return "Unauthorized";
+      case 404:
+        return "Not Found";
+      case 413:
+        return "Payload Too Large";
+      case 429:
+        return "Too Many Requests";
+      case 431:
+        return "Request Header Fields Too Large";
+      case 500:
+        return "Internal Server Error";
+      case 501:
+        return "Not Implemented";
+      case 503:
+        return "Service Unavailable";
+      default:
+        return "";
+    }
+  }
+
+  @Override
+  public InetSocketAddress getRemoteAddress() {
+    return connection.getRemoteAddress();
+  }
+
+  @Override
+  public int getResponseCode() {
+    return responseCode;
+  }
+
+  @Override
+  public InetSocketAddress getLocalAddress() {
+    return connection.getLocalAddress();
+  }
+
+  @Override
+  public String getProtocol() {
+    return protocol;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    return attributes.get(name);
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    if (value == null) {
+      attributes.remove(name);
+    } else {
+      attributes.put(name, value);
+    }
+  }
+
+  @Override
+  public void setStreams(InputStream i, OutputStream o) {
+    if (i != null) {
+      requestBody = i;
+    }
+    if (o != null) {
+      responseBody = o;
+    }
+  }
+
+  @Override
+  public HttpPrincipal getPrincipal() {
+    return principal;
+  }
+
+  void setPrincipal(HttpPrincipal principal) {
+    this.principal = principal;
+  }
+
+  /** Writes the body into pooled buffers, handing each one to the connection once it is full */
+  private class ResponseBody extends OutputStream {
+    private ByteBuffer buffer = null;
+    private boolean chunked = false;
+    private long remaining = 0;
+    private boolean closed = false;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Response body already closed");
+      }
+      if (responseCode < 0) {
+        throw new IOException("Response headers not sent");
+      }
+      if (len > remaining) {
+        throw new IOException("More bytes written than the Content-Length");
+      }
+      remaining -= len;
+      int trailer = chunked ? CHUNK_TRAILER_BYTES : 0;
+      while (len > 0) {
+        if (buffer == null) {
+          buffer = connection.getBuffers().acquire();
+          if (chunked) {
+            buffer.position(CHUNK_HEADER_BYTES);
+          }
+        }
+        int n = Math.min(len, buffer.remaining() - trailer);
+        buffer.put(b, off, n);
+        off += n;
+        len -= n;
+        if (buffer.remaining() == trailer) {
+          emit();
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      emit();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      emit();
+      closed = true;
+      if (chunked) {
+        connection.enqueue(ByteBuffer.wrap(LAST_CHUNK));
+      } else if (remaining > 0 && remaining != Long.MAX_VALUE) {
+        // fewer bytes than announced, the client can only tell from the connection closing
+        keepAlive = false;
+      }
+      connection.endResponse();
+    }
+
+    private void emit() throws IOException {
+      if (buffer == null) {
+        return;
+      }
+      ByteBuffer full = buffer;
+      buffer = null;
+      if (!chunked) {
+        full.flip();
+        connection.enqueue(full);
+        return;
+      }
+      int size = full.position() - CHUNK_HEADER_BYTES;
+      if (size == 0) {
+        connection.getBuffers().release(full);
+        return;
+      }
+      byte[] sizeLine = (Integer.toHexString(size) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+      full.put((byte) '\r').put((byte) '\n');
+      full.flip();
+      int start = CHUNK_HEADER_BYTES - sizeLine.length;
+      for (int i = 0; i < sizeLine.length; i++) {
+        full.put(start + i, sizeLine[i]);
+      }
+      full.position(start);
+      connection.enqueue(full);
+    }
+  }
+}
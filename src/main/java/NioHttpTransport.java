@@ -0,0 +1,840 @@
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transport multiplexing every connection on a single selector thread, with the handlers run on the
+ * executor.
+ *
+ * <p>The selector thread does all the reading, parsing and writing. Requests pipelined on a
+ * connection are parsed ahead, up to a limit, and handled one after the other so that responses go
+ * out in order. A handler writes its response into pooled buffers that are queued on the
+ * connection and written by the selector thread; a handler producing a large response faster than
+ * the client reads it is paused once too much is queued. Connections are kept alive unless the
+ * client asks otherwise, and closed after an idle timeout. Once the maximum number of connections
+ * is open, new ones are left in the accept backlog until one is closed.
+ *
+ * <p>Request bodies must come with a Content-Length, chunked request bodies are refused with 501.
+ */
+public class NioHttpTransport implements HttpTransport {
+
+  private static final byte[] CONTINUE =
+      "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+  /** Marks the end of a response in the outbound queue of a connection */
+  private static final ByteBuffer END_OF_RESPONSE = ByteBuffer.allocate(0);
+  private static final byte[] NO_BODY = new byte[0];
+
+  private final Executor executor;
+  private final int maxConnections;
+  private final long idleTimeoutNanos;
+  private final int maxHeaderBytes;
+  private final int maxBodyBytes;
+  private final int maxPipelinedRequests;
+  private final long maxQueuedResponseBytes;
+  private final BufferPool buffers;
+
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final SelectionKey acceptKey;
+  private final List<NioHttpContext> contexts = new CopyOnWriteArrayList<>();
+  private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+  /* Only touched by the selector thread */
+  private final Set<Connection> connections = new HashSet<>();
+  private Thread selectorThread;
+  private volatile boolean running = false;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /* Metrics */
+  private final AtomicInteger openConnections = new AtomicInteger();
+  private final LongAdder acceptedConnections = new LongAdder();
+  private final LongAdder idleClosedConnections = new LongAdder();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder rejectedRequests = new LongAdder();
+
+  /**
+   * @param address -- address to listen on
+   * @param executor -- executor the handlers run on
+   * @param maxConnections -- connections open at once
+   * @param idleTimeoutMillis -- time after which a connection with no request in progress is closed
+   * @param bufferSize -- size of the pooled read and write buffers
+   * @param maxHeaderBytes -- size of the request line and headers above which a request is refused
+   * @param maxBodyBytes -- size of the body above which a request is refused
+   * @param maxPipelinedRequests -- requests parsed ahead on a connection
+   * @throws IOException -- if the address cannot be bound
+   */
+  public NioHttpTransport(
+      InetSocketAddress address,
+      Executor executor,
+      int maxConnections,
+      long idleTimeoutMillis,
+      int bufferSize,
+      int maxHeaderBytes,
+      int maxBodyBytes,
+      int maxPipelinedRequests)
+      throws IOException {
+    if (bufferSize < maxHeaderBytes + 4) {
+      throw new IllegalArgumentException("Buffer size must exceed the maximum header size");
+    }
+    this.executor = executor;
+    this.maxConnections = maxConnections;
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    this.maxHeaderBytes = maxHeaderBytes;
+    this.maxBodyBytes = maxBodyBytes;
+    this.maxPipelinedRequests = maxPipelinedRequests;
+    this.maxQueuedResponseBytes = 16L * bufferSize;
+    this.buffers = new BufferPool(bufferSize, 1024);
+
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    this.serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    this.serverChannel.bind(address);
+    this.serverChannel.configureBlocking(false);
+    this.acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  /**
+   * Method for building the transport described by the server.nio.* keys of the config
+   *
+   * @param address -- address to listen on
+   * @param executor -- executor the handlers run on
+   * @param config -- server configuration
+   * @return NioHttpTransport
+   * @throws IOException -- if the address cannot be bound
+   */
+  public static NioHttpTransport fromConfig(
+      InetSocketAddress address, Executor executor, ServerConfig config) throws IOException {
+    return new NioHttpTransport(
+        address,
+        executor,
+        config.getInt("server.nio.maxConnections", 10000),
+        config.getLong("server.nio.idleTimeoutMs", 30000L),
+        config.getInt("server.nio.bufferSize", 16384),
+        config.getInt("server.nio.maxHeaderBytes", 8192),
+        config.getInt("server.nio.maxBodyBytes", 8 * 1024 * 1024),
+        config.getInt("server.nio.maxPipelinedRequests", 16));
+  }
+
+  @Override
+  public void createContext(String path, HttpHandler handler) {
+    contexts.add(new NioHttpContext(path, handler));
+  }
+
+  @Override
+  public void start() {
+    running = true;
+    // Not a daemon, the selector thread is what keeps the server process alive
+    selectorThread = new Thread(this::run, "nio-selector");
+    selectorThread.start();
+  }
+
+  @Override
+  public void stop(int delaySeconds) {
+    runOnSelector(
+        () -> {
+          acceptKey.cancel();
+          closeQuietly(serverChannel);
+        });
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(delaySeconds);
+    while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    running = false;
+    selector.wakeup();
+    if (selectorThread != null) {
+      try {
+        selectorThread.join(TimeUnit.SECONDS.toMillis(1));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    try {
+      return (InetSocketAddress) serverChannel.getLocalAddress();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String getName() {
+    return NIO;
+  }
+
+  private void run() {
+    long checkIntervalNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(100), idleTimeoutNanos / 4);
+    long nextIdleCheck = System.nanoTime() + checkIntervalNanos;
+    try {
+      while (running) {
+        selector.select(TimeUnit.NANOSECONDS.toMillis(checkIntervalNanos));
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            Log.warn("Error in NIO selector task", e);
+          }
+        }
+        Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+        while (selected.hasNext()) {
+          SelectionKey key = selected.next();
+          selected.remove();
+          if (key == acceptKey) {
+            if (key.isValid()) {
+              accept();
+            }
+            continue;
+          }
+          Connection connection = (Connection) key.attachment();
+          try {
+            if (key.isReadable()) {
+              connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              connection.write();
+            }
+          } catch (IOException | CancelledKeyException e) {
+            connection.close();
+          }
+        }
+        long now = System.nanoTime();
+        if (now - nextIdleCheck >= 0) {
+          closeIdleConnections(now);
+          nextIdleCheck = now + checkIntervalNanos;
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      Log.error("NIO selector stopped", e);
+    } finally {
+      for (Connection connection : new ArrayList<>(connections)) {
+        connection.close();
+      }
+      closeQuietly(serverChannel);
+      closeQuietly(selector);
+    }
+  }
+
+  private void runOnSelector(Runnable task) {
+    selectorTasks.add(task);
+    selector.wakeup();
+  }
+
+  private void accept() {
+    try {
+      SocketChannel channel;
+      while (connections.size() < maxConnections && (channel = serverChannel.accept()) != null) {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+        openConnections.incrementAndGet();
+        acceptedConnections.increment();
+      }
+    } catch (IOException e) {
+      Log.warn("Error accepting connection: " + e.getMessage());
+    }
+    if (connections.size() >= maxConnections) {
+      // leave further connections in the backlog until one is closed
+      acceptKey.interestOps(0);
+    }
+  }
+
+  private void closeIdleConnections(long now) {
+    for (Connection connection : new ArrayList<>(connections)) {
+      if (connection.current == null
+          && connection.pending.isEmpty()
+          && now - connection.lastActivity > idleTimeoutNanos) {
+        idleClosedConnections.increment();
+        connection.close();
+      }
+    }
+  }
+
+  /** Context whose path is the longest prefix of the given one, null if there is none */
+  NioHttpContext findContext(String path) {
+    NioHttpContext match = null;
+    for (NioHttpContext context : contexts) {
+      if (path.startsWith(context.getPath())
+          && (match == null || context.getPath().length() > match.getPath().length())) {
+        match = context;
+      }
+    }
+    return match;
+  }
+
+  /** Runs on the executor */
+  private void handle(NioHttpExchange exchange) {
+    try {
+      NioHttpContext context = findContext(exchange.getRequestURI().getPath());
+      if (context == null) {
+        exchange.sendResponseHeaders(404, -1);
+      } else {
+        exchange.setHttpContext(context);
+        if (authenticate(context.getAuthenticator(), exchange)) {
+          new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+        }
+      }
+      exchange.close();
+    } catch (Throwable e) {
+      Log.warn("Error handling " + exchange.getRequestURI(), e);
+      if (exchange.getResponseCode() < 0) {
+        try {
+          exchange.sendResponseHeaders(500, -1);
+          exchange.close();
+        } catch (IOException ignored) {
+          exchange.abort();
+        }
+      } else {
+        exchange.abort();
+      }
+    }
+  }
+
+  /**
+   * Method for checking the credentials of a request as com.sun.net.httpserver.HttpServer does.
+   * A request the authenticator does not accept is answered with the status it chose, along with
+   * the headers it set, such as WWW-Authenticate
+   *
+   * @param authenticator -- authenticator of the context, null if there is none
+   * @param exchange -- the request
+   * @return boolean -- whether the request is to be handed to the handler
+   * @throws IOException
+   */
+  private static boolean authenticate(Authenticator authenticator, NioHttpExchange exchange)
+      throws IOException {
+    if (authenticator == null) {
+      return true;
+    }
+    Authenticator.Result result = authenticator.authenticate(exchange);
+    if (result instanceof Authenticator.Success) {
+      exchange.setPrincipal(((Authenticator.Success) result).getPrincipal());
+      return true;
+    }
+    int status =
+        result instanceof Authenticator.Retry
+            ? ((Authenticator.Retry) result).getResponseCode()
+            : ((Authenticator.Failure) result).getResponseCode();
+    exchange.sendResponseHeaders(status, -1);
+    return false;
+  }
+
+  private static void closeQuietly(java.io.Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException ignored) {
+      // nothing left to do with it
+    }
+  }
+
+  /** A client connection, with the requests read from it and the responses queued for it */
+  class Connection {
+    private final SocketChannel channel;
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+    private SelectionKey key;
+
+    /* Selector thread only */
+    private ByteBuffer in = null;
+    private NioHttpExchange parsing = null;
+    private int bodyRead = 0;
+    private final ArrayDeque<NioHttpExchange> pending = new ArrayDeque<>();
+    private NioHttpExchange current = null;
+    private boolean discardInput = false;
+    private boolean inputShutdown = false;
+    private boolean writeInterest = false;
+    private ByteBuffer writing = null;
+    private long lastActivity = System.nanoTime();
+
+    /* Shared with the handler threads */
+    private final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private volatile boolean closed = false;
+
+    Connection(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+      this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    InetSocketAddress getRemoteAddress() {
+      return remoteAddress;
+    }
+
+    InetSocketAddress getLocalAddress() {
+      return localAddress;
+    }
+
+    BufferPool getBuffers() {
+      return buffers;
+    }
+
+    private void read() throws IOException {
+      if (in == null) {
+        in = buffers.acquire();
+      }
+      int n = channel.read(in);
+      if (n < 0) {
+        inputShutdown = true;
+      } else {
+        lastActivity = System.nanoTime();
+      }
+      parse();
+      if (inputShutdown && current == null && pending.isEmpty()) {
+        close();
+        return;
+      }
+      updateInterest();
+      dispatchNext();
+    }
+
+    /** Parses as many complete requests as there are in the input buffer */
+    private void parse() {
+      if (in == null) {
+        return;
+      }
+      in.flip();
+      try {
+        while (pending.size() < maxPipelinedRequests && !closed) {
+          if (parsing == null) {
+            if (discardInput) {
+              break;
+            }
+            int end = indexOfHeaderEnd(in);
+            if (end < 0) {
+              if (in.remaining() > maxHeaderBytes) {
+                reject(431);
+              }
+              break;
+            }
+            parsing = parseHead(end);
+            bodyRead = 0;
+            if (parsing.errorStatus > 0) {
+              rejectedRequests.increment();
+              pending.add(parsing);
+              parsing = null;
+              discardInput = true;
+              break;
+            }
+          }
+          byte[] body = parsing.body;
+          int n = Math.min(in.remaining(), body.length - bodyRead);
+          in.get(body, bodyRead, n);
+          bodyRead += n;
+          if (bodyRead < body.length) {
+            if (parsing.expectContinue && current == null && pending.isEmpty()) {
+              parsing.expectContinue = false;
+              queue(ByteBuffer.wrap(CONTINUE));
+            }
+            break;
+          }
+          requests.increment();
+          pending.add(parsing);
+          parsing = null;
+          if (!pending.getLast().keepAlive) {
+            // nothing after a "Connection: close" request is read
+            discardInput = true;
+          }
+        }
+      } finally {
+        in.compact();
+        if (in.position() == 0) {
+          buffers.release(in);
+          in = null;
+        }
+      }
+    }
+
+    private void reject(int status) {
+      rejectedRequests.increment();
+      pending.add(NioHttpExchange.rejected(this, status));
+      discardInput = true;
+    }
+
+    private NioHttpExchange parseHead(int end) {
+      byte[] head = new byte[end - in.position()];
+      in.get(head);
+      in.position(in.position() + 4);
+      String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+      int first = 0;
+      while (first < lines.length - 1 && lines[first].isEmpty()) {
+        first++;
+      }
+      String[] requestLine = lines[first].split(" ");
+      if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+        return NioHttpExchange.rejected(this, 400);
+      }
+      URI uri;
+      try {
+        uri = new URI(requestLine[1]);
+      } catch (URISyntaxException e) {
+        return NioHttpExchange.rejected(this, 400);
+      }
+      Headers headers = new Headers();
+      for (int i = first + 1; i < lines.length; i++) {
+        int colon = lines[i].indexOf(':');
+        if (colon <= 0) {
+          return NioHttpExchange.rejected(this, 400);
+        }
+        headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+      }
+
+      String protocol = requestLine[2];
+      String connectionHeader = headers.getFirst("Connection");
+      boolean keepAlive =
+          "HTTP/1.0".equals(protocol)
+              ? "keep-alive".equalsIgnoreCase(connectionHeader)
+              : !"close".equalsIgnoreCase(connectionHeader);
+      if (headers.getFirst("Transfer-Encoding") != null) {
+        return NioHttpExchange.rejected(this, 501);
+      }
+      byte[] body = NO_BODY;
+      String contentLength = headers.getFirst("Content-Length");
+      if (contentLength != null) {
+        long length;
+        try {
+          length = Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+          return NioHttpExchange.rejected(this, 400);
+        }
+        if (length < 0) {
+          return NioHttpExchange.rejected(this, 400);
+        }
+        if (length > maxBodyBytes) {
+          return NioHttpExchange.rejected(this, 413);
+        }
+        body = length == 0 ? NO_BODY : new byte[(int) length];
+      }
+      NioHttpExchange exchange =
+          new NioHttpExchange(this, requestLine[0], uri, protocol, headers, body, keepAlive);
+      exchange.expectContinue = "100-continue".equalsIgnoreCase(headers.getFirst("Expect"));
+      return exchange;
+    }
+
+    /** Hands the next parsed request to a handler, once the previous response has been sent */
+    private void dispatchNext() {
+      if (current != null || closed || pending.isEmpty()) {
+        return;
+      }
+      NioHttpExchange exchange = pending.poll();
+      current = exchange;
+      inFlight.incrementAndGet();
+      if (exchange.errorStatus > 0) {
+        try {
+          exchange.sendResponseHeaders(exchange.errorStatus, -1);
+          exchange.close();
+        } catch (IOException e) {
+          close();
+        }
+        return;
+      }
+      try {
+        executor.execute(() -> handle(exchange));
+      } catch (RejectedExecutionException e) {
+        exchange.keepAlive = false;
+        try {
+          exchange.sendResponseHeaders(503, -1);
+          exchange.close();
+        } catch (IOException ignored) {
+          close();
+        }
+      }
+    }
+
+    private void updateInterest() {
+      if (closed) {
+        return;
+      }
+      boolean reading = !discardInput && !inputShutdown && pending.size() < maxPipelinedRequests;
+      int ops = (reading ? SelectionKey.OP_READ : 0) | (writeInterest ? SelectionKey.OP_WRITE : 0);
+      if (key.interestOps() != ops) {
+        key.interestOps(ops);
+      }
+    }
+
+    /**
+     * Method for queueing bytes of a response, called by the handler. Blocks the handler while
+     * too many bytes are waiting to be written
+     *
+     * @param buffer -- bytes to be written, in read mode
+     * @throws IOException -- if the connection is closed
+     */
+    void enqueue(ByteBuffer buffer) throws IOException {
+      if (closed) {
+        buffers.release(buffer);
+        throw new IOException("Connection closed");
+      }
+      queue(buffer);
+      if (Thread.currentThread() != selectorThread
+          && queuedBytes.get() > maxQueuedResponseBytes) {
+        synchronized (this) {
+          while (!closed && queuedBytes.get() > maxQueuedResponseBytes / 2) {
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException("Interrupted writing response");
+            }
+          }
+        }
+        if (closed) {
+          throw new IOException("Connection closed");
+        }
+      }
+    }
+
+    /** Method for marking the end of the current response */
+    void endResponse() {
+      queue(END_OF_RESPONSE);
+    }
+
+    private void queue(ByteBuffer buffer) {
+      queuedBytes.addAndGet(buffer.remaining());
+      outbound.add(buffer);
+      if (writeRequested.compareAndSet(false, true)) {
+        runOnSelector(
+            () -> {
+              try {
+                if (!closed) {
+                  write();
+                }
+              } catch (IOException e) {
+                close();
+              }
+            });
+      }
+    }
+
+    private void write() throws IOException {
+      while (!closed) {
+        if (writing == null) {
+          writing = outbound.poll();
+          if (writing == null) {
+            writeRequested.set(false);
+            if (outbound.isEmpty() || !writeRequested.compareAndSet(false, true)) {
+              writeInterest = false;
+              updateInterest();
+              return;
+            }
+            continue;
+          }
+          if (writing == END_OF_RESPONSE) {
+            writing = null;
+            finishResponse();
+            continue;
+          }
+        }
+        int n = channel.write(writing);
+        if (queuedBytes.addAndGet(-n) <= maxQueuedResponseBytes / 2) {
+          synchronized (this) {
+            notifyAll();
+          }
+        }
+        if (writing.hasRemaining()) {
+          // socket buffer full, carry on once it drains
+          writeInterest = true;
+          updateInterest();
+          return;
+        }
+        lastActivity = System.nanoTime();
+        buffers.release(writing);
+        writing = null;
+      }
+    }
+
+    private void finishResponse() {
+      NioHttpExchange done = current;
+      if (done == null) {
+        return;
+      }
+      current = null;
+      inFlight.decrementAndGet();
+      if (!done.keepAlive) {
+        close();
+        return;
+      }
+      parse();
+      if (inputShutdown && pending.isEmpty()) {
+        close();
+        return;
+      }
+      updateInterest();
+      dispatchNext();
+    }
+
+    void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (current != null) {
+        current = null;
+        inFlight.decrementAndGet();
+      }
+      if (key != null) {
+        key.cancel();
+      }
+      closeQuietly(channel);
+      if (connections.remove(this)) {
+        openConnections.decrementAndGet();
+      }
+      buffers.release(in);
+      in = null;
+      buffers.release(writing);
+      writing = null;
+      ByteBuffer buffer;
+      while ((buffer = outbound.poll()) != null) {
+        buffers.release(buffer);
+      }
+      synchronized (this) {
+        notifyAll();
+      }
+      if (running && acceptKey.isValid() && acceptKey.interestOps() == 0) {
+        acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+      }
+    }
+  }
+
+  private static int indexOfHeaderEnd(ByteBuffer buffer) {
+    for (int i = buffer.position(); i + 3 < buffer.limit(); i++) {
+      if (buffer.get(i) == '\r'
+          && buffer.get(i + 1) == '\n'
+          && buffer.get(i + 2) == '\r'
+          && buffer.get(i + 3) == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** A handler registered under a path, as seen by the handlers through getHttpContext() */
+  static class NioHttpContext extends HttpContext {
+    private final String path;
+    private HttpHandler handler;
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final List<Filter> filters = new CopyOnWriteArrayList<>();
+    private volatile Authenticator authenticator = null;
+
+    NioHttpContext(String path, HttpHandler handler) {
+      this.path = path;
+      this.handler = handler;
+    }
+
+    @Override
+    public HttpHandler getHandler() {
+      return handler;
+    }
+
+    @Override
+    public void setHandler(HttpHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public String getPath() {
+      return path;
+    }
+
+    @Override
+    public HttpServer getServer() {
+      // there is no com.sun.net.httpserver.HttpServer behind this transport
+      return null;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+      return attributes;
+    }
+
+    @Override
+    public List<Filter> getFilters() {
+      return filters;
+    }
+
+    /** Checked before the filters and the handler of every request, see authenticate() */
+    @Override
+    public Authenticator setAuthenticator(Authenticator auth) {
+      Authenticator previous = authenticator;
+      authenticator = auth;
+      return previous;
+    }
+
+    @Override
+    public Authenticator getAuthenticator() {
+      return authenticator;
+    }
+  }
+
+  /** Gauge -- connections currently open */
+  public int getOpenConnections() {
+    return openConnections.get();
+  }
+
+  /** Gauge -- requests handed to a handler whose response has not been fully written */
+  public int getRequestsInFlight() {
+    return inFlight.get();
+  }
+
+  public long getAcceptedConnections() {
+    return acceptedConnections.sum();
+  }
+
+  public long getIdleClosedConnections() {
+    return idleClosedConnections.sum();
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /** Counter -- requests refused as malformed or too large */
+  public long getRejectedRequests() {
+    return rejectedRequests.sum();
+  }
+
+  public BufferPool getBufferPool() {
+    return buffers;
+  }
+}
@@ -0,0 +1,256 @@
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashes the passwords of the players with PBKDF2, on threads of its own. PBKDF2 is slow by
+ * design, so a burst of logins run on the threads serving requests would hold up every other
+ * endpoint; here they queue for a few hashing threads instead, and are rejected once the queue is
+ * full. Requests hashing passwords are admitted under a bound of their own, below the threads
+ * serving requests, so that the ones waiting for a hash cannot take all of those either.
+ *
+ * <p>Hashes are stored as "pbkdf2-sha256$iterations$salt$hash". Anything else found in the password
+ * column is taken to be a password stored in plain text before hashing was introduced, and is
+ * reported by needsRehash so that it can be replaced on the next successful login.
+ */
+public class PasswordHasher {
+
+  /** Handling of a request hashing passwords */
+  public interface Request {
+    void run() throws IOException;
+  }
+
+  private static final String PREFIX = "pbkdf2-sha256$";
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+  private static final int SALT_BYTES = 16;
+  private static final int HASH_BITS = 256;
+
+  private final int iterations;
+  private final ThreadPoolExecutor hashers;
+  private final Semaphore requests;
+  private final SecureRandom random = new SecureRandom();
+
+  /* Metrics */
+  private final LongAdder hashes = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder rejectedRequests = new LongAdder();
+  private final LongAdder totalHashNanos = new LongAdder();
+
+  /**
+   * @param iterations -- PBKDF2 iterations of new hashes, the cost of a hash grows linearly with it
+   * @param threads -- threads hashing passwords
+   * @param queueCapacity -- passwords waiting for a thread, further ones are rejected
+   * @param maxRequests -- requests admitted at once, further ones are rejected
+   */
+  public PasswordHasher(int iterations, int threads, int queueCapacity, int maxRequests) {
+    if (maxRequests < 1) {
+      throw new IllegalArgumentException("Invalid password.maxRequests: " + maxRequests);
+    }
+    this.iterations = iterations;
+    this.requests = new Semaphore(maxRequests);
+    this.hashers =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            WorkerExecutor.namedDaemonThreads("password-hasher-"));
+  }
+
+  /**
+   * Method for building the hasher described by the password.* keys of the config. The threads
+   * default to half the processors, leaving the others to the rest of the server, and the
+   * requests to twice the threads, well below the threads serving requests
+   *
+   * @param config -- server configuration
+   * @return PasswordHasher
+   */
+  public static PasswordHasher fromConfig(ServerConfig config) {
+    int threads =
+        config.getInt(
+            "password.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    return new PasswordHasher(
+        config.getInt("password.iterations", 210000),
+        threads,
+        config.getInt("password.queueCapacity", 64),
+        config.getInt("password.maxRequests", 2 * threads));
+  }
+
+  /**
+   * Method for handling a request hashing passwords, if fewer than maxRequests are being handled
+   *
+   * @param request -- handling of the request
+   * @throws RejectedExecutionException -- if maxRequests are being handled already
+   * @throws IOException -- thrown by the request
+   */
+  public void admit(Request request) throws IOException {
+    if (!requests.tryAcquire()) {
+      rejectedRequests.increment();
+      throw new RejectedExecutionException("Too many requests hashing passwords");
+    }
+    try {
+      request.run();
+    } finally {
+      requests.release();
+    }
+  }
+
+  /**
+   * Method for hashing a password with a new salt
+   *
+   * @param password -- password in plain text
+   * @return String -- hash to be stored
+   * @throws RejectedExecutionException -- if too many passwords are waiting to be hashed
+   */
+  public String hash(String password) {
+    byte[] salt = new byte[SALT_BYTES];
+    random.nextBytes(salt);
+    byte[] hash = run(() -> pbkdf2(password, salt, iterations));
+    return PREFIX + iterations + "$" + encode(salt) + "$" + encode(hash);
+  }
+
+  /**
+   * Method for checking a password against what is stored for the player
+   *
+   * @param password -- password sent by the client
+   * @param stored -- content of the password column
+   * @return boolean -- true if they match, false as well if the stored hash is malformed
+   * @throws RejectedExecutionException -- if too many passwords are waiting to be hashed
+   */
+  public boolean verify(String password, String stored) {
+    if (!stored.startsWith(PREFIX)) {
+      return MessageDigest.isEqual(
+          password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+    }
+    String[] fields = stored.substring(PREFIX.length()).split("\\$");
+    if (fields.length != 3) {
+      return false;
+    }
+    int storedIterations;
+    byte[] salt;
+    byte[] expected;
+    try {
+      storedIterations = Integer.parseInt(fields[0]);
+      salt = Base64.getDecoder().decode(fields[1]);
+      expected = Base64.getDecoder().decode(fields[2]);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    if (storedIterations < 1 || salt.length == 0 || expected.length == 0) {
+      return false;
+    }
+    byte[] actual = run(() -> pbkdf2(password, salt, storedIterations));
+    return MessageDigest.isEqual(expected, actual);
+  }
+
+  /**
+   * Method for checking whether what is stored for a player is to be replaced once the password is
+   * known. True for passwords stored in plain text and for hashes of fewer iterations
+   *
+   * @param stored -- content of the password column
+   * @return boolean
+   */
+  public boolean needsRehash(String stored) {
+    if (!stored.startsWith(PREFIX)) {
+      return true;
+    }
+    int end = stored.indexOf('$', PREFIX.length());
+    try {
+      return end < 0 || Integer.parseInt(stored.substring(PREFIX.length(), end)) < iterations;
+    } catch (NumberFormatException e) {
+      return true;
+    }
+  }
+
+  private byte[] run(Callable<byte[]> work) {
+    Future<byte[]> result;
+    try {
+      result = hashers.submit(work);
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      throw e;
+    }
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      result.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for a password hash");
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Password could not be hashed", e.getCause());
+    }
+  }
+
+  private byte[] pbkdf2(String password, byte[] salt, int iterations)
+      throws GeneralSecurityException {
+    long start = System.nanoTime();
+    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+    try {
+      return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+    } finally {
+      spec.clearPassword();
+      hashes.increment();
+      totalHashNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  private static String encode(byte[] bytes) {
+    return Base64.getEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /** Method for stopping the hashing threads, failing the passwords still waiting for them */
+  public void shutdown() {
+    for (Runnable waiting : hashers.shutdownNow()) {
+      ((Future<?>) waiting).cancel(false);
+    }
+  }
+
+  public int getIterations() {
+    return iterations;
+  }
+
+  /** Counter -- passwords hashed, for storing or checking */
+  public long getHashes() {
+    return hashes.sum();
+  }
+
+  /** Counter -- passwords rejected because the queue was full */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  /** Counter -- time spent hashing */
+  public long getTotalHashNanos() {
+    return totalHashNanos.sum();
+  }
+
+  /** Counter -- requests rejected because maxRequests were being handled */
+  public long getRejectedRequests() {
+    return rejectedRequests.sum();
+  }
+
+  /** Gauge -- passwords waiting for a thread */
+  public int getQueueDepth() {
+    return hashers.getQueue().size();
+  }
+
+  /** Gauge -- threads hashing a password */
+  public int getActiveHashers() {
+    return hashers.getActiveCount();
+  }
+}
@@ -0,0 +1,302 @@
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind buffer of the xp and cash earned by the players. Increments are summed per player in
+ * memory and written to Player_Stats in a few batched statements, on a fixed interval or as soon as
+ * enough players have pending increments, so that a burst of game events costs one update per
+ * player rather than one per event.
+ *
+ * <p>Pending increments are spread over stripes, each a map of its own behind its own lock, so that
+ * concurrent increments rarely wait for each other. A flush swaps every stripe for an empty map and
+ * writes what it took out; if the write fails, the increments are merged back to be written by the
+ * next flush. A statement refused for its data, e.g. a column overflowing, is retried one player at
+ * a time instead, and the increments of the players still refused are dropped, so that one bad row
+ * is not retried forever along with the others. Increments still pending are lost if the process
+ * dies; close() flushes them on an orderly shutdown.
+ *
+ * <p>A single increment is limited to MAX_INCREMENT either way, and the pending amounts of a player
+ * saturate at the range of an integer column.
+ */
+public class PlayerStatsBuffer {
+
+  /** Largest xp or cash a single increment adds or takes away */
+  public static final long MAX_INCREMENT = 1_000_000_000L;
+
+  private static final int STRIPES = 16;
+
+  /** Pending increments of the players falling in one stripe, guarded by the stripe */
+  private static final class Stripe {
+    private Map<Integer, long[]> pending = new HashMap<>();
+  }
+
+  private final QueryProcessor queryProcessor;
+  private final int maxPendingPlayers;
+  private final int maxRowsPerStatement;
+  private final ScheduledExecutorService flusher;
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  private final AtomicInteger pendingPlayers = new AtomicInteger();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+  /* Metrics */
+  private final LongAdder increments = new LongAdder();
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder flushedRows = new LongAdder();
+  private final LongAdder flushFailures = new LongAdder();
+  private final LongAdder droppedRows = new LongAdder();
+
+  /**
+   * @param queryProcessor -- processor the increments are written through
+   * @param flushIntervalMillis -- time between two flushes
+   * @param maxPendingPlayers -- players with pending increments that trigger a flush straight away
+   * @param maxRowsPerStatement -- players updated by one statement
+   */
+  public PlayerStatsBuffer(
+      QueryProcessor queryProcessor,
+      long flushIntervalMillis,
+      int maxPendingPlayers,
+      int maxRowsPerStatement) {
+    this.queryProcessor = queryProcessor;
+    this.maxPendingPlayers = maxPendingPlayers;
+    this.maxRowsPerStatement = maxRowsPerStatement;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+    this.flusher =
+        Executors.newSingleThreadScheduledExecutor(
+            WorkerExecutor.namedDaemonThreads("player-stats-flusher-"));
+    flusher.scheduleWithFixedDelay(
+        this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Method for building the buffer described by the increment.* keys of the config
+   *
+   * @param queryProcessor -- processor the increments are written through
+   * @param config -- server configuration
+   * @return PlayerStatsBuffer
+   */
+  public static PlayerStatsBuffer fromConfig(QueryProcessor queryProcessor, ServerConfig config) {
+    return new PlayerStatsBuffer(
+        queryProcessor,
+        config.getLong("increment.flushIntervalMs", 1000L),
+        config.getInt("increment.maxPendingPlayers", 10000),
+        config.getInt("increment.maxRowsPerStatement", 512));
+  }
+
+  /**
+   * Method for adding xp and cash to a player, written to Player_Stats by a later flush
+   *
+   * @param playerId -- id of the player
+   * @param xp -- xp to be added, negative to take some away
+   * @param cash -- cash to be added, negative to take some away
+   * @throws IllegalArgumentException -- if xp or cash is beyond MAX_INCREMENT either way
+   */
+  public void increment(int playerId, long xp, long cash) {
+    if (Math.abs(xp) > MAX_INCREMENT || Math.abs(cash) > MAX_INCREMENT) {
+      throw new IllegalArgumentException("Increment beyond " + MAX_INCREMENT);
+    }
+    increments.increment();
+    if (merge(playerId, xp, cash) && pendingPlayers.incrementAndGet() >= maxPendingPlayers) {
+      scheduleFlush();
+    }
+  }
+
+  /** Adds to the pending increments of a player, returning true if there were none */
+  private boolean merge(int playerId, long xp, long cash) {
+    Stripe stripe = stripeOf(playerId);
+    synchronized (stripe) {
+      long[] pending = stripe.pending.get(playerId);
+      if (pending != null) {
+        pending[0] = saturatedAdd(pending[0], xp);
+        pending[1] = saturatedAdd(pending[1], cash);
+        return false;
+      }
+      stripe.pending.put(playerId, new long[] {saturatedAdd(0, xp), saturatedAdd(0, cash)});
+      return true;
+    }
+  }
+
+  /** Sum of two amounts, held within the range of an integer column */
+  private static long saturatedAdd(long amount, long delta) {
+    long sum = amount + delta;
+    return Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, sum));
+  }
+
+  private Stripe stripeOf(int playerId) {
+    int h = playerId * 0x9E3779B9;
+    return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+  }
+
+  private void scheduleFlush() {
+    if (flushScheduled.compareAndSet(false, true)) {
+      try {
+        flusher.execute(this::flushQuietly);
+      } catch (RejectedExecutionException e) {
+        // shutting down, close() flushes what is left
+        flushScheduled.set(false);
+      }
+    }
+  }
+
+  private void flushQuietly() {
+    flushScheduled.set(false);
+    if (pendingPlayers.get() == 0) {
+      return;
+    }
+    try {
+      queryProcessor.borrowConnection();
+      flush();
+    } catch (SQLException e) {
+      Log.warn("Could not flush player stats: " + e.getMessage());
+    } finally {
+      queryProcessor.releaseConnection();
+    }
+  }
+
+  /**
+   * Method for writing every pending increment to Player_Stats, using the connection of the
+   * current thread. Increments not written because of a failure other than their data are kept
+   * for the next flush, those refused for their data are dropped
+   *
+   * @throws SQLException -- once the increments have been merged back
+   */
+  public synchronized void flush() throws SQLException {
+    List<PlayerStatsDelta> deltas = new ArrayList<>();
+    for (Stripe stripe : stripes) {
+      Map<Integer, long[]> taken;
+      synchronized (stripe) {
+        if (stripe.pending.isEmpty()) {
+          continue;
+        }
+        taken = stripe.pending;
+        stripe.pending = new HashMap<>();
+      }
+      pendingPlayers.addAndGet(-taken.size());
+      for (Map.Entry<Integer, long[]> pending : taken.entrySet()) {
+        long[] amounts = pending.getValue();
+        if (amounts[0] != 0 || amounts[1] != 0) {
+          deltas.add(new PlayerStatsDelta(pending.getKey(), amounts[0], amounts[1]));
+        }
+      }
+    }
+
+    int written = 0;
+    try {
+      while (written < deltas.size()) {
+        List<PlayerStatsDelta> chunk =
+            deltas.subList(written, Math.min(deltas.size(), written + maxRowsPerStatement));
+        try {
+          queryProcessor.addToPlayerStats(chunk);
+          flushedRows.add(chunk.size());
+          written += chunk.size();
+        } catch (SQLException e) {
+          if (!isDataError(e)) {
+            throw e;
+          }
+          flushFailures.increment();
+          for (PlayerStatsDelta delta : new ArrayList<>(chunk)) {
+            writeAlone(delta);
+            written++;
+          }
+        }
+      }
+    } catch (SQLException e) {
+      flushFailures.increment();
+      for (PlayerStatsDelta delta : deltas.subList(written, deltas.size())) {
+        if (merge(delta.getPlayerId(), delta.getXp(), delta.getCash())) {
+          pendingPlayers.incrementAndGet();
+        }
+      }
+      throw e;
+    }
+    flushes.increment();
+  }
+
+  /** Writes the increments of one player, dropping them if they are refused for their data */
+  private void writeAlone(PlayerStatsDelta delta) throws SQLException {
+    try {
+      queryProcessor.addToPlayerStats(Collections.singletonList(delta));
+      flushedRows.increment();
+    } catch (SQLException e) {
+      if (!isDataError(e)) {
+        throw e;
+      }
+      flushFailures.increment();
+      droppedRows.increment();
+      Log.warn(
+          "Dropping increments of player "
+              + delta.getPlayerId()
+              + " (xp "
+              + delta.getXp()
+              + ", cash "
+              + delta.getCash()
+              + "): "
+              + e.getMessage());
+    }
+  }
+
+  /** Whether a statement was refused for the values it carries, as opposed to failing to run */
+  private static boolean isDataError(SQLException e) {
+    String state = e.getSQLState();
+    return e instanceof SQLDataException
+        || e instanceof SQLIntegrityConstraintViolationException
+        || (state != null && (state.startsWith("22") || state.startsWith("23")));
+  }
+
+  /** Method for stopping the periodic flushes and writing the increments still pending */
+  public void close() {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flushQuietly();
+  }
+
+  /** Counter -- increments received */
+  public long getIncrements() {
+    return increments.sum();
+  }
+
+  /** Counter -- flushes completed */
+  public long getFlushes() {
+    return flushes.sum();
+  }
+
+  /** Counter -- player rows written by the flushes */
+  public long getFlushedRows() {
+    return flushedRows.sum();
+  }
+
+  /** Counter -- statements that failed, their increments being kept or retried alone */
+  public long getFlushFailures() {
+    return flushFailures.sum();
+  }
+
+  /** Counter -- player rows whose increments were dropped, refused for their data */
+  public long getDroppedRows() {
+    return droppedRows.sum();
+  }
+
+  /** Gauge -- players with increments waiting for a flush */
+  public int getPendingPlayers() {
+    return pendingPlayers.get();
+  }
+}
@@ -0,0 +1,24 @@
+/** Amounts of xp and cash to be added to the row of a player in Player_Stats */
+public class PlayerStatsDelta {
+  private final int playerId;
+  private final long xp;
+  private final long cash;
+
+  public PlayerStatsDelta(int playerId, long xp, long cash) {
+    this.playerId = playerId;
+    this.xp = xp;
+    this.cash = cash;
+  }
+
+  public int getPlayerId() {
+    return playerId;
+  }
+
+  public long getXp() {
+    return xp;
+  }
+
+  public long getCash() {
+    return cash;
+  }
+}
@@ -0,0 +1,180 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A physical connection to the DB Server together with its prepared-statement cache, the limit on
+ * the queries in flight it executes under and the bookkeeping done by the pool
+ */
+public class PooledConnection {
+
+  public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+  private final Connection connection;
+  private final StatementCache statementCache;
+  private final ConcurrencyLimiter limiter;
+  private long lastReleasedAt;
+  /* Whether beginFetch() switched auto-commit off, for endFetch() to switch it back on */
+  private boolean fetching;
+
+  /**
+   * @param connection -- physical connection to the DB Server
+   * @param statementCacheSize -- statements kept prepared on the connection
+   * @param limiter -- limit on the queries in flight the statements are executed under
+   * @param statementCacheTotals -- counters summing those of the cache, e.g. over a pool, may be
+   *     null
+   */
+  public PooledConnection(
+      Connection connection,
+      int statementCacheSize,
+      ConcurrencyLimiter limiter,
+      StatementCache.Counters statementCacheTotals) {
+    this.connection = connection;
+    this.statementCache =
+        new StatementCache(connection, statementCacheSize, statementCacheTotals);
+    this.limiter = limiter;
+    this.lastReleasedAt = System.nanoTime();
+  }
+
+  public PooledConnection(
+      Connection connection, int statementCacheSize, ConcurrencyLimiter limiter) {
+    this(connection, statementCacheSize, limiter, null);
+  }
+
+  public PooledConnection(Connection connection, int statementCacheSize) {
+    this(connection, statementCacheSize, ConcurrencyLimiter.UNLIMITED);
+  }
+
+  public PooledConnection(Connection connection) {
+    this(connection, DEFAULT_STATEMENT_CACHE_SIZE);
+  }
+
+  public Connection getConnection() {
+    return connection;
+  }
+
+  public StatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * Method for preparing a statement through the cache of this connection. The statement must not
+   * be closed by the caller
+   *
+   * @param sql -- SQL text of the statement
+   * @return PreparedStatement
+   * @throws SQLException
+   */
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    return statementCache.prepare(sql);
+  }
+
+  /**
+   * Method for preparing a statement returning generated keys through the cache of this connection
+   *
+   * @param sql -- SQL text of the statement
+   * @param keyColumns -- names of the columns to be returned by getGeneratedKeys()
+   * @return PreparedStatement
+   * @throws SQLException
+   */
+  public PreparedStatement prepareStatement(String sql, String[] keyColumns) throws SQLException {
+    return statementCache.prepare(sql, keyColumns);
+  }
+
+  /**
+   * Method for executing a query under the concurrency limit
+   *
+   * @param stmt -- statement prepared on this connection
+   * @return ResultSet
+   * @throws SQLException
+   */
+  public ResultSet executeQuery(PreparedStatement stmt) throws SQLException {
+    return execute(stmt::executeQuery);
+  }
+
+  /**
+   * Method for executing an INSERT, UPDATE or DELETE statement under the concurrency limit
+   *
+   * @param stmt -- statement prepared on this connection
+   * @return int -- number of rows affected
+   * @throws SQLException
+   */
+  public int executeUpdate(PreparedStatement stmt) throws SQLException {
+    return execute(stmt::executeUpdate);
+  }
+
+  /**
+   * Method for executing the batch of a statement under the concurrency limit
+   *
+   * @param stmt -- statement prepared on this connection
+   * @return int[] -- number of rows affected by each statement of the batch
+   * @throws SQLException
+   */
+  public int[] executeBatch(PreparedStatement stmt) throws SQLException {
+    return execute(stmt::executeBatch);
+  }
+
+  /** Runs a statement under the concurrency limit, as the SQL phase of the current request */
+  private <T> T execute(ConcurrencyLimiter.Query<T> query) throws SQLException {
+    RequestTimer timer = RequestTimer.current();
+    if (timer == null) {
+      return limiter.execute(query);
+    }
+    long begunAt = timer.begin();
+    try {
+      return limiter.execute(query);
+    } finally {
+      timer.end(RequestTimer.Phase.SQL, begunAt);
+    }
+  }
+
+  /**
+   * Method for opening the transaction the driver needs to fetch a result in batches. Does nothing
+   * if a transaction is open already
+   *
+   * @throws SQLException
+   */
+  public void beginFetch() throws SQLException {
+    if (connection.getAutoCommit()) {
+      connection.setAutoCommit(false);
+      fetching = true;
+    }
+  }
+
+  /**
+   * Method for ending the transaction opened by beginFetch(), if any, and switching auto-commit
+   * back on. Called once the result has been read, as closing the transaction closes its cursor
+   *
+   * @throws SQLException
+   */
+  public void endFetch() throws SQLException {
+    if (!fetching) {
+      return;
+    }
+    fetching = false;
+    try {
+      connection.rollback();
+    } finally {
+      connection.setAutoCommit(true);
+    }
+  }
+
+  long getLastReleasedAt() {
+    return lastReleasedAt;
+  }
+
+  void markReleased() {
+    lastReleasedAt = System.nanoTime();
+  }
+
+  /** Method for closing the physical connection, ignoring any error raised by the driver */
+  void closeQuietly() {
+    statementCache.clear();
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      Log.warn("Error occured when closing pooled connection: " + e.getMessage());
+    }
+  }
+}
@@ -1,93 +1,173 @@
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 public class QueryProcessor {
 
-  private static final String CONFIG_FILEPATH =
-      System.getenv("DB_CONFIG") != null ? System.getenv("DB_CONFIG") : "src/config.properties";
-
-  private Properties properties;
-  private Connection connection;
+  private final ServerConfig config;
+  private final ConcurrencyLimiter limiter;
+  private final PooledConnection connection;
+  private ConnectionPool pool;
+  private final ThreadLocal<PooledConnection> borrowedConnection = new ThreadLocal<>();
+
+  public QueryProcessor(ServerConfig config, Connection connection) {
+    this.config = config;
+    this.limiter = ConcurrencyLimiter.fromConfig(config);
+    this.connection =
+        connection != null
+            ? new PooledConnection(
+                connection,
+                config.getInt(
+                    "pool.statementCacheSize", PooledConnection.DEFAULT_STATEMENT_CACHE_SIZE),
+                limiter)
+            : null;
+    String driver = config.getString("driver");
+    if (driver != null) {
+      registerDriver(driver);
+    }
+  }
 
   public QueryProcessor(Connection connection) {
-    this.connection = connection;
-
-    File configFile = new File(CONFIG_FILEPATH);
-    properties = new Properties();
+    this(ServerConfig.load(), connection);
+  }
 
-    try {
-      FileReader fileReader = new FileReader(configFile);
-      properties.load(fileReader);
-      String driver = properties.getProperty("driver");
-      registerDriver(driver);
-    } catch (IOException e) {
-      System.out.println("Exception occurred when loading the config file");
-      e.printStackTrace();
-    }
+  public QueryProcessor(ServerConfig config) {
+    /* Do not connect by default upon creation */
+    this(config, null);
   }
 
   public QueryProcessor() {
-    /* Do not connect by default upon creation */
-    this(null);
+    this((Connection) null);
   }
 
   /**
-   * Method for registering a JDBC Driver for PostgreSQL *
+   * Method for registering a JDBC Driver for PostgreSQL
    *
    * @param driver -- driver name
    */
   private void registerDriver(String driver) {
     try {
       Class.forName(driver);
-      System.out.println("Database driver loaded succesfully");
+      Log.info("Database driver loaded succesfully");
     } catch (ClassNotFoundException e) {
-      System.out.println("JDBC Driver could not be registered");
+      Log.error("JDBC Driver could not be registered", e);
+      Log.flush();
       System.exit(1);
-      e.printStackTrace();
     }
   }
 
   /**
-   * Method for establishing a connection with the DB Server *
+   * Method for establishing the pool of connections with the DB Server. Connections are opened
+   * lazily up to pool.maxSize, pool.minSize of them are opened straight away
    *
-   * @return Connection object
+   * @throws SQLException -- if the first pool.minSize connections cannot be opened, in which case
+   *     no pool is kept and connect() can be called again
    */
-  public Connection connect() {
-    String url = properties.getProperty("url");
-    String user = properties.getProperty("user");
-    String password = properties.getProperty("password");
-
+  public void connect() throws SQLException {
+    if (pool != null) {
+      return;
+    }
+    ConnectionPool newPool = ConnectionPool.fromConfig(config, this::openConnection, limiter);
     try {
-      connection = DriverManager.getConnection(url, user, password);
-      System.out.println("Connection to PostgreSQL server established successfully\n");
+      newPool.fill();
     } catch (SQLException e) {
-      System.out.println("SQL Exception: " + e.getMessage());
+      newPool.close();
+      throw e;
     }
-    return connection;
+    pool = newPool;
+    Log.info("Connection pool to PostgreSQL server established successfully");
   }
 
-  /** Method for closing an existing connection with the DB Server * Connection must not be null */
+  /**
+   * Method for opening a physical connection to the DB Server, called by the pool as it grows
+   *
+   * @return Connection
+   * @throws SQLException
+   */
+  protected Connection openConnection() throws SQLException {
+    Properties connectionProperties = new Properties();
+    connectionProperties.setProperty("user", config.getString("user", ""));
+    connectionProperties.setProperty("password", config.getString("password", ""));
+    // Lets the driver turn a batch of single-row inserts into multi-row inserts
+    connectionProperties.setProperty(
+        "reWriteBatchedInserts", config.getString("pool.reWriteBatchedInserts", "true"));
+    return DriverManager.getConnection(config.getString("url"), connectionProperties);
+  }
+
+  /** Method for closing the pool of connections with the DB Server */
   public void closeConnection() {
-    if (connection != null) {
+    if (pool != null) {
+      pool.close();
+      pool = null;
+      Log.info("Connection pool succesfully closed");
+    } else if (connection != null) {
+      connection.closeQuietly();
+      Log.info("Connection succesfully closed");
+    }
+  }
+
+  /**
+   * Method for borrowing a connection from the pool for the current thread. Every query issued by
+   * this thread goes through that connection until releaseConnection() is called. Without a pool
+   * (e.g. when a Connection was passed to the constructor) this does nothing
+   *
+   * @throws SQLException -- if no connection became available within pool.borrowTimeoutMs
+   */
+  public void borrowConnection() throws SQLException {
+    if (pool != null && borrowedConnection.get() == null) {
+      borrowedConnection.set(pool.borrow());
+    }
+  }
+
+  /**
+   * Method for handing the connection borrowed by the current thread back to the pool. The
+   * transaction a Select fetched in batches ran in is ended first, on the connection passed to the
+   * constructor too
+   */
+  public void releaseConnection() {
+    PooledConnection pooled = borrowedConnection.get();
+    if (pooled != null) {
+      borrowedConnection.remove();
       try {
-        connection.close();
-        System.out.println("Connection succesfully closed");
-      } catch (SQLException e) {
-        System.out.println("Error occured when closing connection");
-        e.printStackTrace();
+        endFetch(pooled);
+      } finally {
+        pool.release(pooled);
       }
+    } else if (connection != null) {
+      endFetch(connection);
     }
   }
 
+  private static void endFetch(PooledConnection pooled) {
+    try {
+      pooled.endFetch();
+    } catch (SQLException e) {
+      Log.warn("Could not restore auto-commit: " + e.getMessage());
+    }
+  }
+
+  public ConnectionPool getPool() {
+    return pool;
+  }
+
+  public ConcurrencyLimiter getConcurrencyLimiter() {
+    return limiter;
+  }
+
+  /** Method for getting the connection to be used by the current thread */
+  private PooledConnection connection() {
+    PooledConnection pooled = borrowedConnection.get();
+    return pooled != null ? pooled : connection;
+  }
+
   /**
-   * Methods for Prepared INSERT SQL Statements * Overloaded methods to support all possible types
+   * Methods for Prepared INSERT SQL Statements. Overloaded methods to support all possible types
    * of values to be inserted into DB Each overloaded method is designed for a specific table
    *
-   * <p>Insert SQL Prepared statement for PLAYER *
+   * <p>Insert SQL Prepared statement for PLAYER
    *
+   * @param password -- hash of the password, as made by PasswordHasher
    * @return Integer -- the id of the new player that was just added
    */
   public Integer addNewPlayer(String email, String password) throws SQLException {
@@ -95,8 +175,9 @@ public class QueryProcessor {
   }
 
   private Integer insert(String tableName, String email, String password) throws SQLException {
+    PooledConnection pooled = connection();
     PreparedStatement stmt =
-        connection.prepareStatement(
+        pooled.prepareStatement(
             "insert into "
                 + tableName
                 + " (\"email\", \"password\") "
@@ -104,12 +185,15 @@ public class QueryProcessor {
     stmt.setString(1, email);
     stmt.setString(2, password);
 
-    ResultSet id = stmt.executeQuery();
+    ResultSet id = pooled.executeQuery(stmt);
     id.next();
     return id.getInt("id");
   }
 
-  /** Insert SQL Prepared statement for PLAYER_STATS * */
+  /**
+   * Insert SQL Prepared statement for PLAYER_STATS. A player having stats already keeps them, so
+   * that inserting them again, e.g. on a retry, does nothing
+   */
   public void addPlayerStats(Integer player_id, Integer xp, Integer cash) throws SQLException {
     insert("Player_Stats", player_id, xp, cash);
   }
@@ -117,14 +201,16 @@ public class QueryProcessor {
   private void insert(String tableName, Integer player_id, Integer xp, Integer cash)
       throws SQLException {
     PreparedStatement stmt =
-        connection.prepareStatement("insert into " + tableName + " values(?, ?, ?)");
+        connection()
+            .prepareStatement(
+                "insert into " + tableName + " values(?, ?, ?) on conflict (player_id) do nothing");
     stmt.setInt(1, player_id);
     stmt.setInt(2, xp);
     stmt.setInt(3, cash);
-    DBInterfaceHelpers.executeSQLStatement(stmt);
+    connection().executeUpdate(stmt);
   }
 
-  /** Insert SQL Prepared statement for GALLERY * */
+  /** Insert SQL Prepared statement for GALLERY */
   public Integer addNewImageMetaData(Timestamp ts, Integer playerId, String url)
       throws SQLException {
     return insert("Gallery", ts, playerId, url);
@@ -132,8 +218,9 @@ public class QueryProcessor {
 
   private Integer insert(String tableName, Timestamp ts, Integer playerId, String url)
       throws SQLException {
+    PooledConnection pooled = connection();
     PreparedStatement stmt =
-        connection.prepareStatement(
+        pooled.prepareStatement(
             "insert into "
                 + tableName
                 + " (\"ts\", \"player_id\", \"url\") "
@@ -142,12 +229,12 @@ public class QueryProcessor {
     stmt.setInt(2, playerId);
     stmt.setString(3, url);
 
-    ResultSet id = stmt.executeQuery();
+    ResultSet id = pooled.executeQuery(stmt);
     id.next();
     return id.getInt("id");
   }
 
-  /** Insert SQL Prepared statement for LOCATION * */
+  /** Insert SQL Prepared statement for LOCATION */
   public void addNewLocation(Integer imageId, Float longitude, Float latitude) throws SQLException {
     insert("Location", imageId, longitude, latitude);
   }
@@ -155,20 +242,17 @@ public class QueryProcessor {
   private void insert(String tableName, Integer imageId, Float longitude, Float latitude)
       throws SQLException {
     PreparedStatement stmt =
-        connection.prepareStatement(
+        connection().prepareStatement(
             "insert into "
                 + tableName
-                + " values(?, "
-                + "ST_SetSRID(ST_MakePoint("
-                + longitude
-                + ", "
-                + latitude
-                + "), 4326)::geography::geometry)");
+                + " values(?, ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography::geometry)");
     stmt.setInt(1, imageId);
-    DBInterfaceHelpers.executeSQLStatement(stmt);
+    stmt.setDouble(2, DBInterfaceHelpers.toDouble(longitude));
+    stmt.setDouble(3, DBInterfaceHelpers.toDouble(latitude));
+    connection().executeUpdate(stmt);
   }
 
-  /** Insert SQL Prepared statement for LANDMARK * */
+  /** Insert SQL Prepared statement for LANDMARK */
   public void addNewLandmark(Float longitude, Float latitude, Integer type, String description)
       throws SQLException {
     insert("Landmark", longitude, latitude, type, description);
@@ -178,34 +262,31 @@ public class QueryProcessor {
       String tableName, Float longitude, Float latitude, Integer type, String description)
       throws SQLException {
     PreparedStatement stmt =
-        connection.prepareStatement(
+        connection().prepareStatement(
             "insert into "
                 + tableName
                 + " (\"location\", \"type\", \"description\") "
-                + "values(ST_SetSRID(ST_MakePoint("
-                + longitude
-                + ", "
-                + latitude
-                + "),4326)"
-                + ", ?, ?)");
-    stmt.setInt(1, type);
-    stmt.setString(2, description);
-    DBInterfaceHelpers.executeSQLStatement(stmt);
+                + "values(ST_SetSRID(ST_MakePoint(?, ?),4326), ?, ?)");
+    stmt.setDouble(1, DBInterfaceHelpers.toDouble(longitude));
+    stmt.setDouble(2, DBInterfaceHelpers.toDouble(latitude));
+    stmt.setInt(3, type);
+    stmt.setString(4, description);
+    connection().executeUpdate(stmt);
   }
 
-  /** Insert SQL Prepared statement for LANDMARK_TYPE * */
+  /** Insert SQL Prepared statement for LANDMARK_TYPE */
   public void addNewLandmarkType(String name) throws SQLException {
     insert("Landmark_Type", name);
   }
 
   private void insert(String tableName, String name) throws SQLException {
     PreparedStatement stmt =
-        connection.prepareStatement("insert into " + tableName + " (\"name\") " + " values(?)");
+        connection().prepareStatement("insert into " + tableName + " (\"name\") " + " values(?)");
     stmt.setString(1, name);
-    DBInterfaceHelpers.executeSQLStatement(stmt);
+    connection().executeUpdate(stmt);
   }
 
-  /** Insert SQL Prepared Statement for QUEST * */
+  /** Insert SQL Prepared Statement for QUEST */
   public void addNewQuest(Integer type, String name, String description) throws SQLException {
     insert("Quest", type, name, description);
   }
@@ -213,7 +294,7 @@ public class QueryProcessor {
   private void insert(String tableName, Integer type, String name, String description)
       throws SQLException {
     PreparedStatement stmt =
-        connection.prepareStatement(
+        connection().prepareStatement(
             "insert into "
                 + tableName
                 + " (\"type\", \"name\", \"description\") "
@@ -221,20 +302,301 @@ public class QueryProcessor {
     stmt.setInt(1, type);
     stmt.setString(2, name);
     stmt.setString(3, description);
-    DBInterfaceHelpers.executeSQLStatement(stmt);
+    connection().executeUpdate(stmt);
   }
 
-  /** Insert SQL Prepared Statements for QUEST_TYPE * */
+  /** Insert SQL Prepared Statements for QUEST_TYPE */
   public void addNewQuestType(String name) throws SQLException {
     insert("Quest_Type", name);
   }
 
-  /** Insert SQL Prepared Statement for QUEST_LOCATION * */
+  /** Insert SQL Prepared Statement for QUEST_LOCATION */
   public void addNewQuestLocation(Integer questId, Float longitude, Float latitude)
       throws SQLException {
     insert("Quest_Location", questId, longitude, latitude);
   }
 
+  /**
+   * Methods for INSERT ... ON CONFLICT SQL Statements. A row conflicting with an existing one
+   * updates it instead of failing, so that a write retried after a lost response has the same
+   * effect as the first one. Each returns the row as it stands after the statement
+   *
+   * <p>Upsert SQL Prepared statement for PLAYER_STATS. Replaces xp and cash if the player has a
+   * row already
+   *
+   * @return ResultSet -- the row of the player
+   */
+  public ResultSet upsertPlayerStats(Integer playerId, Integer xp, Integer cash)
+      throws SQLException {
+    PooledConnection pooled = connection();
+    PreparedStatement stmt =
+        pooled.prepareStatement(
+            "insert into Player_Stats values(?, ?, ?) on conflict (player_id)"
+                + " do update set xp = excluded.xp, cash = excluded.cash returning *");
+    stmt.setInt(1, playerId);
+    stmt.setInt(2, xp);
+    stmt.setInt(3, cash);
+    return pooled.executeQuery(stmt);
+  }
+
+  /**
+   * Upsert SQL Prepared statement for LOCATION. Moves the image if it has a location already
+   *
+   * @return ResultSet -- the row of the image
+   */
+  public ResultSet upsertLocation(Integer imageId, Float longitude, Float latitude)
+      throws SQLException {
+    PooledConnection pooled = connection();
+    PreparedStatement stmt =
+        pooled.prepareStatement(
+            "insert into Location"
+                + " values(?, ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography::geometry)"
+                + " on conflict (id) do update set location = excluded.location returning *");
+    stmt.setInt(1, imageId);
+    stmt.setDouble(2, DBInterfaceHelpers.toDouble(longitude));
+    stmt.setDouble(3, DBInterfaceHelpers.toDouble(latitude));
+    return pooled.executeQuery(stmt);
+  }
+
+  /**
+   * Upsert SQL Prepared statement for LANDMARK_TYPE. Needs a unique constraint on name
+   *
+   * @return ResultSet -- the row of the type, new or existing
+   */
+  public ResultSet upsertLandmarkType(String name) throws SQLException {
+    return upsert("Landmark_Type", name);
+  }
+
+  /**
+   * Upsert SQL Prepared statement for QUEST_TYPE. Needs a unique constraint on name
+   *
+   * @return ResultSet -- the row of the type, new or existing
+   */
+  public ResultSet upsertQuestType(String name) throws SQLException {
+    return upsert("Quest_Type", name);
+  }
+
+  private ResultSet upsert(String tableName, String name) throws SQLException {
+    PooledConnection pooled = connection();
+    // DO NOTHING would return no row for an existing type, hence the no-op update
+    PreparedStatement stmt =
+        pooled.prepareStatement(
+            "insert into "
+                + tableName
+                + " (\"name\") values(?) on conflict (name) do update set name = excluded.name"
+                + " returning *");
+    stmt.setString(1, name);
+    return pooled.executeQuery(stmt);
+  }
+
+  /**
+   * Insert SQL Prepared statement for PLAYER, unless a player has that email already
+   *
+   * @param password -- hash of the password, as made by PasswordHasher
+   * @return Integer -- the id of the new player, null if the email was taken
+   */
+  public Integer addNewPlayerIfAbsent(String email, String password) throws SQLException {
+    PooledConnection pooled = connection();
+    PreparedStatement stmt =
+        pooled.prepareStatement(
+            "insert into Player (\"email\", \"password\") values(?, ?)"
+                + " on conflict (email) do nothing returning id");
+    stmt.setString(1, email);
+    stmt.setString(2, password);
+
+    ResultSet id = pooled.executeQuery(stmt);
+    return id.next() ? id.getInt("id") : null;
+  }
+
+  /**
+   * Method for registering a player. The Player row, unless a player has that email already, and
+   * its PLAYER_STATS row are committed together in a transaction of their own, so that no player
+   * is left without stats
+   *
+   * @param password -- hash of the password, as made by PasswordHasher
+   * @param xp -- xp the player starts with
+   * @param cash -- cash the player starts with
+   * @return Integer -- the id of the new player, null if the email was taken
+   * @throws SQLException -- once the transaction has been rolled back
+   */
+  public Integer registerPlayer(String email, String password, Integer xp, Integer cash)
+      throws SQLException {
+    Connection connection = connection().getConnection();
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try {
+      Integer id = addNewPlayerIfAbsent(email, password);
+      if (id != null) {
+        addPlayerStats(id, xp, cash);
+      }
+      connection.commit();
+      return id;
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(autoCommit);
+    }
+  }
+
+  /**
+   * Methods for batched INSERT SQL Statements. Every row is added to one prepared statement and
+   * sent in a single round trip; the batch is committed as a whole or not at all
+   *
+   * <p>Batched insert for GALLERY
+   *
+   * @return List<Integer> -- the ids of the new images, in the order they were given
+   */
+  public List<Integer> addNewImageMetaData(List<ImageObject> images) throws SQLException {
+    return insertImageBatch("Gallery", images);
+  }
+
+  private List<Integer> insertImageBatch(String tableName, List<ImageObject> images)
+      throws SQLException {
+    PooledConnection pooled = connection();
+    PreparedStatement stmt =
+        pooled.prepareStatement(
+            "insert into " + tableName + " (\"ts\", \"player_id\", \"url\") " + " values(?, ?, ?)",
+            new String[] {"id"});
+    for (ImageObject image : images) {
+      stmt.setTimestamp(1, image.getTimestamp());
+      stmt.setInt(2, image.getPlayerId());
+      stmt.setString(3, image.getUrl());
+      stmt.addBatch();
+    }
+
+    List<Integer> ids = new ArrayList<>(images.size());
+    executeBatchInTransaction(pooled, stmt, ids);
+    return ids;
+  }
+
+  /** Batched insert for LOCATION */
+  public void addNewLocations(List<LocationObject> locations) throws SQLException {
+    insertLocationBatch("Location", locations);
+  }
+
+  /** Batched insert for QUEST_LOCATION */
+  public void addNewQuestLocations(List<LocationObject> locations) throws SQLException {
+    insertLocationBatch("Quest_Location", locations);
+  }
+
+  private void insertLocationBatch(String tableName, List<LocationObject> locations)
+      throws SQLException {
+    PooledConnection pooled = connection();
+    PreparedStatement stmt =
+        pooled.prepareStatement(
+            "insert into "
+                + tableName
+                + " values(?, ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography::geometry)");
+    for (LocationObject location : locations) {
+      stmt.setInt(1, location.getId());
+      stmt.setDouble(2, DBInterfaceHelpers.toDouble(location.getLongitude()));
+      stmt.setDouble(3, DBInterfaceHelpers.toDouble(location.getLatitude()));
+      stmt.addBatch();
+    }
+
+    executeBatchInTransaction(pooled, stmt, null);
+  }
+
+  /**
+   * Method for adding xp and cash to many players in one UPDATE ... FROM (VALUES ...). Rows are
+   * padded with NULL players up to a power of two, which match nothing, so that only a handful of
+   * distinct statements go through the statement cache
+   *
+   * @param deltas -- amounts to be added, at most one per player
+   * @return int -- number of rows of Player_Stats updated
+   * @throws SQLException
+   */
+  public int addToPlayerStats(List<PlayerStatsDelta> deltas) throws SQLException {
+    if (deltas.isEmpty()) {
+      return 0;
+    }
+    int rows = Integer.highestOneBit(deltas.size());
+    if (rows < deltas.size()) {
+      rows <<= 1;
+    }
+    StringBuilder sql =
+        new StringBuilder(
+            "UPDATE Player_Stats AS s SET xp = s.xp + d.xp, cash = s.cash + d.cash FROM (VALUES ");
+    for (int i = 0; i < rows; i++) {
+      sql.append(i == 0 ? "" : ", ").append("(?::integer, ?::bigint, ?::bigint)");
+    }
+    sql.append(") AS d(player_id, xp, cash) WHERE s.player_id = d.player_id");
+
+    PooledConnection pooled = connection();
+    PreparedStatement stmt = pooled.prepareStatement(sql.toString());
+    int param = 1;
+    for (PlayerStatsDelta delta : deltas) {
+      stmt.setInt(param++, delta.getPlayerId());
+      stmt.setLong(param++, delta.getXp());
+      stmt.setLong(param++, delta.getCash());
+    }
+    for (int i = deltas.size(); i < rows; i++) {
+      stmt.setNull(param++, Types.INTEGER);
+      stmt.setNull(param++, Types.BIGINT);
+      stmt.setNull(param++, Types.BIGINT);
+    }
+    return pooled.executeUpdate(stmt);
+  }
+
+  /**
+   * Method for executing the batch of a prepared statement in a transaction of its own
+   *
+   * @param pooled -- connection the statement was prepared on
+   * @param stmt -- statement whose batch is to be executed
+   * @param generatedIds -- list the generated keys are added to, null if they are not needed
+   * @throws SQLException -- once the transaction has been rolled back
+   */
+  private static void executeBatchInTransaction(
+      PooledConnection pooled, PreparedStatement stmt, List<Integer> generatedIds)
+      throws SQLException {
+    Connection connection = pooled.getConnection();
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try {
+      pooled.executeBatch(stmt);
+      if (generatedIds != null) {
+        ResultSet keys = stmt.getGeneratedKeys();
+        while (keys.next()) {
+          generatedIds.add(keys.getInt(1));
+        }
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      stmt.clearBatch();
+      connection.setAutoCommit(autoCommit);
+    }
+  }
+
+  /**
+   * Method for checking whether a column is covered by a GiST index. Either a plain one on the
+   * column, as used by && and ST_Contains, or one on column::geography, as used by ST_DWithin
+   *
+   * @param table -- name of the table
+   * @param column -- name of the geometry column
+   * @return boolean -- true if such an index exists in the current schema
+   * @throws SQLException
+   */
+  public boolean hasSpatialIndex(String table, String column) throws SQLException {
+    PreparedStatement stmt =
+        connection()
+            .prepareStatement(
+                "SELECT indexdef FROM pg_indexes"
+                    + " WHERE schemaname = current_schema() AND tablename = lower(?)");
+    stmt.setString(1, table);
+    ResultSet rs = connection().executeQuery(stmt);
+    while (rs.next()) {
+      String definition = rs.getString("indexdef").toLowerCase();
+      if (definition.contains("using gist") && definition.contains("(" + column.toLowerCase())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Method for SQL SELECT Query
    *
@@ -242,7 +604,7 @@ public class QueryProcessor {
    * @return SelectQueryBuilder -- to be used in order to perform the query
    */
   public SelectQueryBuilder select(String... columns) {
-    return new SelectQueryBuilder(connection, columns);
+    return new SelectQueryBuilder(connection(), columns);
   }
 
   /**
@@ -252,7 +614,7 @@ public class QueryProcessor {
    * @return -- UpdateStatementBuilder -- to be used in order to execute the Update statement
    */
   public UpdateStatementBuilder update(String table) {
-    return new UpdateStatementBuilder(connection, table);
+    return new UpdateStatementBuilder(connection(), table);
   }
 
   /**
@@ -261,6 +623,6 @@ public class QueryProcessor {
    * @return DeleteStatementBuilder -- to be used in order to perform the Delete
    */
   public DeleteStatementBuilder delete() {
-    return new DeleteStatementBuilder(connection);
+    return new DeleteStatementBuilder(connection());
   }
 }
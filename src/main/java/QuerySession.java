@@ -1,11 +1,35 @@
 import java.io.IOException;
+import java.sql.SQLException;
 
 public class QuerySession {
 
   public static final int PORT = 8500;
 
-  public static void main(String[] args) throws IOException {
-    Server server = new Server(PORT, new QueryProcessor());
+  public static void main(String[] args) throws IOException, SQLException {
+    ServerConfig config = ServerConfig.load();
+    Log.configure(config);
+    startServer(config);
+  }
+
+  /**
+   * Method for starting a server as described by the config. On a StubQueryProcessor rather than
+   * a connection to the DB Server when stub.enabled is set
+   *
+   * @param config -- server configuration
+   * @return Server -- the server, listening
+   * @throws IOException
+   * @throws SQLException -- if the DB Server could not be reached
+   */
+  public static Server startServer(ServerConfig config) throws IOException, SQLException {
+    int port = config.getInt("server.port", PORT);
+    WorkerExecutor executor = WorkerExecutor.fromConfig(config);
+    HttpTransport transport = HttpTransport.fromConfig(port, executor, config);
+    QueryProcessor queryProcessor =
+        config.getBoolean("stub.enabled", false)
+            ? StubQueryProcessor.fromConfig(config)
+            : new QueryProcessor(config);
+    Server server = new Server(transport, queryProcessor, executor, config);
     server.start();
+    return server;
   }
 }
@@ -0,0 +1,140 @@
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parser of the raw query of a request URI into its parameters, in one pass over the query. Keys
+ * and values are split on the raw '&' and '=' and only then percent-decoded, each on its own, so
+ * that an encoded '&' or '=' inside a value (e.g. the polygon of /geoSelect/location) stays in it.
+ * A component without escapes is taken as is, without being copied through a decoder.
+ *
+ * <p>Each thread has its own parser, whose decoding buffer is reused from one request to the next.
+ * The buffer is only kept up to MAX_RETAINED_BYTES, so that one long value does not pin a large
+ * buffer to every thread that has seen one. Each call returns a map of its own, which the caller
+ * may keep.
+ */
+final class QueryStringParser {
+
+  private static final ThreadLocal<QueryStringParser> PARSERS =
+      ThreadLocal.withInitial(QueryStringParser::new);
+
+  /** Largest decoding buffer kept for the next call, longer components get one of their own */
+  static final int MAX_RETAINED_BYTES = 8192;
+
+  private byte[] bytes = new byte[256];
+
+  private QueryStringParser() {}
+
+  /**
+   * Method for parsing a raw query
+   *
+   * @param query -- raw query of the request URI, i.e. as given by getRawQuery(), may be null
+   * @return Map<Key, Value> -- a key without '=' has an empty value, and the last of repeated
+   *     keys wins
+   */
+  static Map<String, String> parse(String query) {
+    return PARSERS.get().parseInto(query);
+  }
+
+  private Map<String, String> parseInto(String query) {
+    Map<String, String> params = new HashMap<>();
+    if (query == null) {
+      return params;
+    }
+    int length = query.length();
+    int start = 0;
+    while (start < length) {
+      int equals = -1;
+      boolean keyEncoded = false;
+      boolean valueEncoded = false;
+      int end = start;
+      for (; end < length; end++) {
+        char c = query.charAt(end);
+        if (c == '&') {
+          break;
+        } else if (c == '=' && equals < 0) {
+          equals = end;
+        } else if (c == '%' || c == '+' || c >= 0x80) {
+          if (equals < 0) {
+            keyEncoded = true;
+          } else {
+            valueEncoded = true;
+          }
+        }
+      }
+      int keyEnd = equals < 0 ? end : equals;
+      if (keyEnd > start) {
+        String key = component(query, start, keyEnd, keyEncoded);
+        String value = equals < 0 ? "" : component(query, equals + 1, end, valueEncoded);
+        params.put(key, value);
+      }
+      start = end + 1;
+    }
+    return params;
+  }
+
+  private String component(String query, int from, int to, boolean encoded) {
+    return encoded ? decode(query, from, to) : query.substring(from, to);
+  }
+
+  /**
+   * Decodes '+' into a space and %XX escapes into bytes, read as UTF-8. A '%' not followed by two
+   * hex digits is kept as it is
+   */
+  private String decode(String query, int from, int to) {
+    // a char takes at most 3 bytes in UTF-8, a surrogate pair 4
+    int needed = 3 * (to - from);
+    byte[] bytes = this.bytes;
+    if (bytes.length < needed) {
+      bytes = new byte[Math.max(2 * bytes.length, needed)];
+      if (bytes.length <= MAX_RETAINED_BYTES) {
+        this.bytes = bytes;
+      }
+    }
+    int n = 0;
+    for (int i = from; i < to; i++) {
+      char c = query.charAt(i);
+      if (c == '+') {
+        bytes[n++] = ' ';
+      } else if (c == '%' && isEscape(query, i, to)) {
+        bytes[n++] = (byte) (hex(query.charAt(i + 1)) << 4 | hex(query.charAt(i + 2)));
+        i += 2;
+      } else if (c < 0x80) {
+        bytes[n++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[n++] = (byte) (0xc0 | c >> 6);
+        bytes[n++] = (byte) (0x80 | c & 0x3f);
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < to
+          && Character.isLowSurrogate(query.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, query.charAt(++i));
+        bytes[n++] = (byte) (0xf0 | codePoint >> 18);
+        bytes[n++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+        bytes[n++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+        bytes[n++] = (byte) (0x80 | codePoint & 0x3f);
+      } else {
+        bytes[n++] = (byte) (0xe0 | c >> 12);
+        bytes[n++] = (byte) (0x80 | c >> 6 & 0x3f);
+        bytes[n++] = (byte) (0x80 | c & 0x3f);
+      }
+    }
+    return new String(bytes, 0, n, StandardCharsets.UTF_8);
+  }
+
+  private static boolean isEscape(String query, int percent, int to) {
+    return percent + 2 < to
+        && hex(query.charAt(percent + 1)) >= 0
+        && hex(query.charAt(percent + 2)) >= 0;
+  }
+
+  private static int hex(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    } else if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    } else if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+}
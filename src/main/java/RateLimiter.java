@@ -0,0 +1,199 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client rate limits of the contexts of the Server, clients being told apart by the player of
+ * their verified session token or else by their address. Nothing else the client sends is trusted
+ * to name it, as a client changing it at will would get a new bucket each time.
+ *
+ * <p>Each client has a token bucket per context, kept as the single value of the generic cell rate
+ * algorithm: the time at which its bucket will be full again. Taking a token is one compare-and-set
+ * on that value, so there are no locks and no refill thread. A bucket left alone long enough is
+ * full, and is then no different from a new one; such buckets are evicted periodically.
+ */
+public class RateLimiter {
+
+  /** Limit of one context, and the buckets of its clients */
+  private static class Limit {
+    final long emissionIntervalNanos;
+    final long burstNanos;
+    final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    final LongAdder allowed = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+
+    Limit(double perSecond, int burst) {
+      this.emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+      this.burstNanos = emissionIntervalNanos * Math.max(1, burst);
+    }
+  }
+
+  private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+  private final int maxKeysPerContext;
+  private final long idleNanos;
+  private final ScheduledExecutorService evictor;
+
+  /**
+   * @param maxKeysPerContext -- clients tracked per context, further clients sharing the bucket of
+   *     their address
+   * @param idleSeconds -- time after which the bucket of a client making no request is evicted
+   */
+  public RateLimiter(int maxKeysPerContext, long idleSeconds) {
+    if (maxKeysPerContext < 1 || idleSeconds < 1) {
+      throw new IllegalArgumentException(
+          "Invalid rate limiter: maxKeys=" + maxKeysPerContext + " idleSeconds=" + idleSeconds);
+    }
+    this.maxKeysPerContext = maxKeysPerContext;
+    this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+    this.evictor =
+        Executors.newSingleThreadScheduledExecutor(
+            WorkerExecutor.namedDaemonThreads("rate-limit-evictor-"));
+    evictor.scheduleWithFixedDelay(
+        () -> evictIdle(System.nanoTime()), idleSeconds, idleSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Method for building the limiter described by the ratelimit.* keys of the config. A context
+   * "/geoSelect" is limited by ratelimit.geoSelect.perSecond and ratelimit.geoSelect.burst, and not
+   * limited when no rate is given
+   *
+   * @param config -- server configuration
+   * @param contexts -- paths of the contexts of the Server
+   * @return RateLimiter
+   */
+  public static RateLimiter fromConfig(ServerConfig config, String... contexts) {
+    RateLimiter limiter =
+        new RateLimiter(
+            config.getInt("ratelimit.maxKeys", 100000),
+            config.getLong("ratelimit.idleEvictionSeconds", 60L));
+    for (String context : contexts) {
+      String prefix = "ratelimit." + context.substring(1) + ".";
+      double perSecond = Double.parseDouble(config.getString(prefix + "perSecond", "0"));
+      if (perSecond > 0) {
+        int burst = config.getInt(prefix + "burst", (int) Math.ceil(perSecond));
+        limiter.setLimit(context, perSecond, burst);
+      }
+    }
+    return limiter;
+  }
+
+  /**
+   * Method for limiting the requests each client makes to a context
+   *
+   * @param context -- path of the context e.g. "/geoSelect"
+   * @param perSecond -- sustained requests per second
+   * @param burst -- requests allowed at once after a quiet period
+   */
+  public void setLimit(String context, double perSecond, int burst) {
+    limits.put(context, new Limit(perSecond, burst));
+  }
+
+  /**
+   * Method for taking a token from the bucket of the client of an exchange
+   *
+   * @param context -- path of the context handling the exchange
+   * @param exchange -- the HttpExchange to be processed
+   * @return long -- 0 if the request may go ahead, otherwise the nanoseconds until it could
+   */
+  public long acquire(String context, HttpExchange exchange) {
+    Limit limit = limits.get(context);
+    if (limit == null) {
+      return 0;
+    }
+    return acquire(limit, clientOf(exchange), exchange, System.nanoTime());
+  }
+
+  /**
+   * Method for taking a token from the bucket of a client, at a given time
+   *
+   * @param context -- path of the context
+   * @param client -- key of the client
+   * @param now -- current System.nanoTime()
+   * @return long -- 0 if the request may go ahead, otherwise the nanoseconds until it could
+   */
+  long acquire(String context, String client, long now) {
+    Limit limit = limits.get(context);
+    return limit == null ? 0 : acquire(limit, client, null, now);
+  }
+
+  private long acquire(Limit limit, String client, HttpExchange exchange, long now) {
+    AtomicLong bucket = limit.buckets.get(client);
+    if (bucket == null) {
+      if (limit.buckets.size() >= maxKeysPerContext && exchange != null) {
+        client = addressOf(exchange);
+      }
+      bucket = limit.buckets.computeIfAbsent(client, key -> new AtomicLong(now));
+    }
+    while (true) {
+      long fullAt = bucket.get();
+      long newFullAt = Math.max(fullAt, now) + limit.emissionIntervalNanos;
+      long wait = newFullAt - now - limit.burstNanos;
+      if (wait > 0) {
+        limit.rejected.increment();
+        return wait;
+      }
+      if (bucket.compareAndSet(fullAt, newFullAt)) {
+        limit.allowed.increment();
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Method for telling clients apart. By the player of their session token when it has been
+   * verified and attached to the exchange, by the address of the client otherwise
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @return String -- key of the client
+   */
+  static String clientOf(HttpExchange exchange) {
+    SessionTokens.Session session = SessionTokens.forExchange(exchange);
+    return session != null ? "player:" + session.getPlayerId() : addressOf(exchange);
+  }
+
+  private static String addressOf(HttpExchange exchange) {
+    InetSocketAddress remote = exchange.getRemoteAddress();
+    return remote == null ? "unknown" : remote.getAddress().getHostAddress();
+  }
+
+  /** Method for evicting the buckets that have been full for longer than the idle time */
+  void evictIdle(long now) {
+    for (Limit limit : limits.values()) {
+      limit.buckets.entrySet().removeIf(bucket -> now - bucket.getValue().get() > idleNanos);
+    }
+  }
+
+  public void shutdown() {
+    evictor.shutdownNow();
+  }
+
+  /** Counter -- requests of a context allowed through */
+  public long getAllowed(String context) {
+    Limit limit = limits.get(context);
+    return limit == null ? 0 : limit.allowed.sum();
+  }
+
+  /** Counter -- requests of a context rejected */
+  public long getRejected(String context) {
+    Limit limit = limits.get(context);
+    return limit == null ? 0 : limit.rejected.sum();
+  }
+
+  /** Gauge -- clients with a bucket for a context */
+  public int getTrackedClients(String context) {
+    Limit limit = limits.get(context);
+    return limit == null ? 0 : limit.buckets.size();
+  }
+
+  /** Method for getting the paths of the contexts that are limited */
+  public Iterable<String> getLimitedContexts() {
+    return limits.keySet();
+  }
+}
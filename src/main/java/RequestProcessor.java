@@ -23,7 +23,7 @@ public class RequestProcessor implements Runnable {
           new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
       PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true);
 
-      System.out.println("Thread currently executing: " + Thread.currentThread().getName());
+      Log.debug(() -> "Thread currently executing: " + Thread.currentThread().getName());
       String clientInput;
 
       while ((clientInput = reader.readLine()) != null) {
@@ -37,8 +37,7 @@ public class RequestProcessor implements Runnable {
         writer.println(result);
       }
     } catch (IOException | JSONException e) {
-      System.out.println("IO Exception occurred when trying to open Input or Output stream");
-      System.out.println(e.getMessage());
+      Log.warn("IO Exception occurred when trying to open Input or Output stream", e);
     }
   }
 
@@ -47,14 +46,15 @@ public class RequestProcessor implements Runnable {
   }
 
   public boolean insertImageMetaDataIntoDB(ImageObject obj) {
-    queryProcessor.connect();
-
     try {
+      queryProcessor.connect();
+      queryProcessor.borrowConnection();
       queryProcessor.addNewImageMetaData(obj.getTimestamp(), obj.getPlayerId(), obj.getUrl());
     } catch (SQLException throwables) {
-      throwables.printStackTrace();
+      Log.warn("Could not insert image metadata", throwables);
       return false;
     } finally {
+      queryProcessor.releaseConnection();
       queryProcessor.closeConnection();
     }
     return true;
@@ -0,0 +1,151 @@
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Time spent by one request in each phase of its handling, recorded into the MetricsRegistry
+ * once the request is done. A timer is attached to the exchange, and bound to the thread running
+ * the handler so that code without access to the exchange, such as PooledConnection, can add to
+ * it. A request is handled by one thread at a time, handing over through executors, so the timer
+ * is not synchronized.
+ *
+ * <p>PARSE runs from the start of the handler to the first other phase. The time of a phase that
+ * is interleaved with another, e.g. rows fetched while being serialized, goes to the phase
+ * measured around it.
+ */
+public class RequestTimer {
+
+  /** Phases of the handling of a request */
+  public enum Phase {
+    PARSE,
+    SQL,
+    SERIALIZE,
+    WRITE
+  }
+
+  private static final String ATTRIBUTE = "RequestTimer";
+  private static final ThreadLocal<RequestTimer> current = new ThreadLocal<>();
+
+  private final String endpoint;
+  private final long startedAt;
+  private long handlerStartedAt;
+  private boolean parsed = false;
+  private int status = 0;
+  private final long[] phaseNanos = new long[Phase.values().length];
+  private final boolean[] phaseSeen = new boolean[Phase.values().length];
+
+  /**
+   * @param endpoint -- name the request is recorded under e.g. "/insert/gallery"
+   */
+  public RequestTimer(String endpoint) {
+    this.endpoint = endpoint;
+    this.startedAt = System.nanoTime();
+    this.handlerStartedAt = startedAt;
+  }
+
+  /** Method for attaching a timer to the exchange of its request */
+  public static void attach(HttpExchange exchange, RequestTimer timer) {
+    exchange.setAttribute(ATTRIBUTE, timer);
+  }
+
+  /**
+   * Method for getting the timer attached to an exchange
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @return RequestTimer -- null if the request is not timed
+   */
+  public static RequestTimer forExchange(HttpExchange exchange) {
+    Object timer = exchange.getAttribute(ATTRIBUTE);
+    return timer instanceof RequestTimer ? (RequestTimer) timer : null;
+  }
+
+  /**
+   * Method for binding a timer to the current thread, until unbind() is called
+   *
+   * @param timer -- timer of the request the thread is about to work on, may be null
+   * @return RequestTimer -- the timer bound before, to be passed to unbind()
+   */
+  public static RequestTimer bind(RequestTimer timer) {
+    RequestTimer previous = current.get();
+    current.set(timer);
+    return previous;
+  }
+
+  /** Method for restoring the timer bound to the current thread before bind() */
+  public static void unbind(RequestTimer previous) {
+    if (previous == null) {
+      current.remove();
+    } else {
+      current.set(previous);
+    }
+  }
+
+  /**
+   * Method for getting the timer bound to the current thread
+   *
+   * @return RequestTimer -- null if the thread is not working on a timed request
+   */
+  public static RequestTimer current() {
+    return current.get();
+  }
+
+  /** Method for marking the start of the handler proper, once the request has been admitted */
+  public void handlerStarted() {
+    handlerStartedAt = System.nanoTime();
+  }
+
+  /**
+   * Method for marking the start of a phase other than PARSE, closing PARSE if still open
+   *
+   * @return long -- start of the phase, to be passed to end()
+   */
+  public long begin() {
+    long now = System.nanoTime();
+    if (!parsed) {
+      parsed = true;
+      add(Phase.PARSE, now - handlerStartedAt);
+    }
+    return now;
+  }
+
+  /**
+   * Method for adding the time since begin() to a phase
+   *
+   * @param phase -- phase that was running
+   * @param begunAt -- value returned by begin()
+   */
+  public void end(Phase phase, long begunAt) {
+    add(phase, System.nanoTime() - begunAt);
+  }
+
+  private void add(Phase phase, long nanos) {
+    phaseNanos[phase.ordinal()] += nanos;
+    phaseSeen[phase.ordinal()] = true;
+  }
+
+  /** Method for recording the HTTP status of the response, once it is being sent */
+  public void setStatus(int status) {
+    this.status = status;
+  }
+
+  /** HTTP status of the response, 0 if none was sent */
+  public int getStatus() {
+    return status;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /** Time since the request was received, in nanoseconds */
+  public long getElapsedNanos() {
+    return System.nanoTime() - startedAt;
+  }
+
+  /**
+   * Method for getting the time spent in a phase
+   *
+   * @return long -- nanoseconds, -1 if the request never entered the phase
+   */
+  public long getPhaseNanos(Phase phase) {
+    return phaseSeen[phase.ordinal()] ? phaseNanos[phase.ordinal()] : -1;
+  }
+}
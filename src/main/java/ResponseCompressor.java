@@ -0,0 +1,380 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses response bodies with gzip or deflate, as negotiated through the Accept-Encoding header
+ * of the request. Bodies smaller than the threshold are sent as they are, since the framing of a
+ * compressed stream would outweigh what it saves. The Server attaches its compressor to every
+ * exchange, so the static helpers of DBInterfaceHelpers can find it with forExchange.
+ */
+public class ResponseCompressor {
+
+  public static final String GZIP = "gzip";
+  public static final String DEFLATE = "deflate";
+
+  private static final String ATTRIBUTE = "ResponseCompressor";
+  private static final int BUFFER_SIZE = 8192;
+
+  /** Compressor sending every response uncompressed */
+  public static final ResponseCompressor DISABLED =
+      new ResponseCompressor(false, Integer.MAX_VALUE, Deflater.DEFAULT_COMPRESSION);
+
+  private final boolean enabled;
+  private final int minBytes;
+  private final int level;
+
+  /* Metrics */
+  private final LongAdder compressedResponses = new LongAdder();
+  private final LongAdder uncompressedResponses = new LongAdder();
+  private final LongAdder bytesBeforeCompression = new LongAdder();
+  private final LongAdder bytesAfterCompression = new LongAdder();
+
+  /**
+   * @param enabled -- whether responses may be compressed at all
+   * @param minBytes -- size under which bodies are not compressed
+   * @param level -- Deflater compression level, 1 (fastest) to 9 (smallest)
+   */
+  public ResponseCompressor(boolean enabled, int minBytes, int level) {
+    if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+      throw new IllegalArgumentException("Invalid compression level: " + level);
+    }
+    this.enabled = enabled;
+    this.minBytes = minBytes;
+    this.level = level;
+  }
+
+  /**
+   * Method for building the compressor described by the response.compression* keys of the config
+   *
+   * @param config -- server configuration
+   * @return ResponseCompressor
+   */
+  public static ResponseCompressor fromConfig(ServerConfig config) {
+    return new ResponseCompressor(
+        config.getBoolean("response.compression", true),
+        config.getInt("response.compression.minBytes", 1024),
+        config.getInt("response.compression.level", 6));
+  }
+
+  /** Method for attaching the compressor to an exchange, for the helpers sending its response */
+  public void attachTo(HttpExchange exchange) {
+    exchange.setAttribute(ATTRIBUTE, this);
+  }
+
+  /**
+   * Method for getting the compressor attached to an exchange
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @return ResponseCompressor -- DISABLED if none was attached
+   */
+  public static ResponseCompressor forExchange(HttpExchange exchange) {
+    Object compressor = exchange.getAttribute(ATTRIBUTE);
+    return compressor instanceof ResponseCompressor ? (ResponseCompressor) compressor : DISABLED;
+  }
+
+  /**
+   * Method for sending a whole response body, compressed if the client accepts it and the body is
+   * large enough
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @param status -- HTTP status code of the response
+   * @param body -- uncompressed response body
+   * @throws IOException
+   */
+  public void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+    String encoding = encodingFor(exchange);
+    if (encoding != null && body.length >= minBytes) {
+      byte[] compressed = compress(body, encoding);
+      exchange.getResponseHeaders().set("Content-Encoding", encoding);
+      exchange.sendResponseHeaders(status, compressed.length);
+      recordCompressed(body.length, compressed.length);
+      body = compressed;
+    } else {
+      exchange.sendResponseHeaders(status, body.length);
+      uncompressedResponses.increment();
+    }
+    OutputStream os = exchange.getResponseBody();
+    os.write(body);
+    os.close();
+  }
+
+  /**
+   * Method for opening the body of a response whose length is not known upfront. The headers are
+   * sent once the threshold has been written, with chunked encoding and compression, or when the
+   * stream is closed below it, as a plain response of fixed length
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @return OutputStream -- to be closed once the whole body has been written
+   * @throws IOException
+   */
+  public OutputStream openStream(HttpExchange exchange) throws IOException {
+    String encoding = encodingFor(exchange);
+    if (encoding == null) {
+      exchange.sendResponseHeaders(200, 0);
+      uncompressedResponses.increment();
+      return exchange.getResponseBody();
+    }
+    return new DeferredCompressionStream(exchange, encoding);
+  }
+
+  private String encodingFor(HttpExchange exchange) {
+    if (!enabled) {
+      return null;
+    }
+    Headers responseHeaders = exchange.getResponseHeaders();
+    responseHeaders.add("Vary", "Accept-Encoding");
+    return negotiate(exchange.getRequestHeaders().get("Accept-Encoding"));
+  }
+
+  /**
+   * Method for picking the encoding of a response from the Accept-Encoding headers of the request.
+   * gzip is preferred over deflate, encodings given a q-value of 0 are refused. Names and
+   * parameters are matched whatever their case
+   *
+   * @param acceptEncoding -- values of the Accept-Encoding headers, null if there are none
+   * @return String -- GZIP, DEFLATE or null for no compression
+   */
+  static String negotiate(List<String> acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    Boolean gzip = null;
+    Boolean deflate = null;
+    Boolean any = null;
+    for (String header : acceptEncoding) {
+      for (String coding : header.split(",")) {
+        String[] parts = coding.split(";");
+        String name = parts[0].trim().toLowerCase(Locale.ROOT);
+        boolean accepted = true;
+        for (int i = 1; i < parts.length; i++) {
+          String param = parts[i].trim();
+          if (param.regionMatches(true, 0, "q=", 0, 2)) {
+            try {
+              accepted = Double.parseDouble(param.substring(2)) > 0;
+            } catch (NumberFormatException e) {
+              accepted = false;
+            }
+          }
+        }
+        if (GZIP.equals(name) || "x-gzip".equals(name)) {
+          gzip = accepted;
+        } else if (DEFLATE.equals(name)) {
+          deflate = accepted;
+        } else if ("*".equals(name)) {
+          any = accepted;
+        }
+      }
+    }
+    if (gzip != null ? gzip : Boolean.TRUE.equals(any)) {
+      return GZIP;
+    }
+    if (deflate != null ? deflate : Boolean.TRUE.equals(any)) {
+      return DEFLATE;
+    }
+    return null;
+  }
+
+  /**
+   * Method for compressing a whole body
+   *
+   * @param body -- uncompressed bytes
+   * @param encoding -- GZIP or DEFLATE
+   * @return byte[] -- compressed bytes
+   * @throws IOException
+   */
+  byte[] compress(byte[] body, String encoding) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+    try (OutputStream out = compressingStream(compressed, encoding)) {
+      out.write(body);
+    }
+    return compressed.toByteArray();
+  }
+
+  /**
+   * Stream compressing into out, whose Deflater is ended by close() even when writing the end of
+   * the compressed data fails, so that its native memory is never left to the finalizer
+   */
+  private DeflaterOutputStream compressingStream(OutputStream out, String encoding)
+      throws IOException {
+    if (GZIP.equals(encoding)) {
+      return new GZIPOutputStream(out, BUFFER_SIZE) {
+        {
+          def.setLevel(level);
+        }
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            def.end();
+          }
+        }
+      };
+    }
+    // "deflate" in HTTP is the zlib format, which is what a Deflater writes by default
+    Deflater deflater = new Deflater(level);
+    return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          deflater.end();
+        }
+      }
+    };
+  }
+
+  private void recordCompressed(long before, long after) {
+    compressedResponses.increment();
+    bytesBeforeCompression.add(before);
+    bytesAfterCompression.add(after);
+  }
+
+  /** Holds the start of a streamed body back until it is known whether it reaches the threshold */
+  private class DeferredCompressionStream extends OutputStream {
+    private final HttpExchange exchange;
+    private final String encoding;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private CountingOutputStream sent = null;
+    private DeflaterOutputStream out = null;
+    private long written = 0;
+    private boolean aborted = false;
+
+    DeferredCompressionStream(HttpExchange exchange, String encoding) {
+      this.exchange = exchange;
+      this.encoding = encoding;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (aborted) {
+        throw new IOException("Response body aborted by an earlier failure");
+      }
+      written += len;
+      try {
+        if (out != null) {
+          out.write(b, off, len);
+          return;
+        }
+        pending.write(b, off, len);
+        if (pending.size() >= minBytes) {
+          exchange.getResponseHeaders().set("Content-Encoding", encoding);
+          exchange.sendResponseHeaders(200, 0);
+          sent = new CountingOutputStream(exchange.getResponseBody());
+          out = compressingStream(sent, encoding);
+          pending.writeTo(out);
+          pending = null;
+        }
+      } catch (IOException | RuntimeException e) {
+        // the client is most likely gone, and the writers above may never reach close()
+        abort();
+        throw e;
+      }
+    }
+
+    /** Ends the Deflater of a body that will not be completed */
+    private void abort() {
+      aborted = true;
+      pending = null;
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          // the Deflater is ended all the same
+        }
+        out = null;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out != null) {
+        try {
+          out.flush();
+        } catch (IOException | RuntimeException e) {
+          abort();
+          throw e;
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (out != null) {
+        out.close();
+        recordCompressed(written, sent.count);
+        out = null;
+        return;
+      }
+      if (pending != null) {
+        byte[] body = pending.toByteArray();
+        pending = null;
+        exchange.sendResponseHeaders(200, body.length);
+        uncompressedResponses.increment();
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+      }
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public long getCompressedResponses() {
+    return compressedResponses.sum();
+  }
+
+  public long getUncompressedResponses() {
+    return uncompressedResponses.sum();
+  }
+
+  /** Counter -- bytes of the compressed responses before compression */
+  public long getBytesBeforeCompression() {
+    return bytesBeforeCompression.sum();
+  }
+
+  /** Counter -- bytes of the compressed responses as sent */
+  public long getBytesAfterCompression() {
+    return bytesAfterCompression.sum();
+  }
+}
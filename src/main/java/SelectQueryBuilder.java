@@ -1,16 +1,20 @@
+import org.postgis.LinearRing;
 import org.postgis.PGgeometry;
 import org.postgis.Point;
+import org.postgis.Polygon;
 
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.List;
 
 public class SelectQueryBuilder implements WhereClauseBuilder {
 
   private StringBuilder sqlSelectQuery = new StringBuilder();
   private PreparedStatement stmt = null;
-  private Connection connection;
+  private PooledConnection connection;
+  private int fetchSize = 0;
 
-  public SelectQueryBuilder(Connection connection, String... columns) {
+  public SelectQueryBuilder(PooledConnection connection, String... columns) {
     this.connection = connection;
     sqlSelectQuery
         .append("SELECT ")
@@ -31,7 +35,6 @@ public class SelectQueryBuilder implements WhereClauseBuilder {
   @Override
   public SelectQueryBuilder where(String whereParam) throws SQLException {
     sqlSelectQuery.append(" WHERE ").append(whereParam).append(" = ?");
-    System.out.println(sqlSelectQuery.toString());
     stmt = connection.prepareStatement(sqlSelectQuery.toString());
     return this;
   }
@@ -56,33 +59,109 @@ public class SelectQueryBuilder implements WhereClauseBuilder {
     return this;
   }
 
-  public SelectQueryBuilder withinPoly
-      (List<Point> vertices, String table, String column) throws SQLException {
-    // TODO: maybe validate that |vertices| > 2
-    sqlSelectQuery
-        .append(" WHERE ")
-        .append("ST_Contains(ST_SetSRID(ST_GEOMFROMTEXT('POLYGON((");
-    // Add points
-    for (Point v : vertices) {
+  /**
+   * Method for restricting the query to the rows whose point lies within a distance of a point.
+   * Unlike withinRadiusOf, the point and the radius are bound as parameters so the SQL text is the
+   * same for every request, and ST_DWithin can use a GiST index on (column::geography). With the
+   * bounding-box prefilter, an && test against the box around the circle lets a plain GiST index
+   * on the geometry column discard most rows before any distance is computed
+   *
+   * @param x -- latitude of the centre
+   * @param y -- longitude of the centre
+   * @param radius -- distance in metres
+   * @param table -- table holding the points
+   * @param column -- geometry column (SRID 4326) holding the points
+   * @param boundingBoxPrefilter -- whether to add the && prefilter
+   * @return SelectQueryBuilder
+   * @throws SQLException
+   */
+  public SelectQueryBuilder withinDistanceOf(
+      Double x,
+      Double y,
+      Double radius,
+      String table,
+      String column,
+      boolean boundingBoxPrefilter)
+      throws SQLException {
+    String point = "ST_SetSRID(ST_MakePoint(?, ?), 4326)";
+    sqlSelectQuery.append(" WHERE ");
+    if (boundingBoxPrefilter) {
       sqlSelectQuery
-          .append(v.x)
-          .append(" ")
-          .append(v.y)
-          .append(", ");
+          .append(table)
+          .append(".")
+          .append(column)
+          .append(" && ST_Expand(")
+          .append(point)
+          .append(", ?) AND ");
     }
-    // Close the loop
     sqlSelectQuery
-        .append(vertices.get(0).x)
-        .append(" ")
-        .append(vertices.get(0).y);
-    // Finish off the statement
+        .append("ST_DWithin(")
+        .append(table)
+        .append(".")
+        .append(column)
+        .append("::geography, ")
+        .append(point)
+        .append("::geography, ?)");
+    stmt = connection.prepareStatement(sqlSelectQuery.toString());
+
+    int param = 1;
+    if (boundingBoxPrefilter) {
+      stmt.setDouble(param++, y);
+      stmt.setDouble(param++, x);
+      stmt.setDouble(param++, DBInterfaceHelpers.metresToDegrees(radius, x));
+    }
+    stmt.setDouble(param++, y);
+    stmt.setDouble(param++, x);
+    stmt.setDouble(param, radius);
+    return this;
+  }
+
+  /**
+   * Method for restricting the query to the rows whose point lies inside a polygon. The polygon is
+   * bound as a geometry parameter so the SQL text is the same for every request. With the
+   * bounding-box prefilter, an && test against the polygon lets a GiST index on the column discard
+   * the rows outside its bounding box before ST_Contains is evaluated
+   *
+   * @param vertices -- vertices of the polygon (longitude as x, latitude as y), at least 3, the
+   *     loop is closed if the last vertex differs from the first
+   * @param table -- table holding the points
+   * @param column -- geometry column (SRID 4326) holding the points
+   * @param boundingBoxPrefilter -- whether to add the && prefilter
+   * @return SelectQueryBuilder
+   * @throws SQLException
+   */
+  public SelectQueryBuilder withinPolygon(
+      List<Point> vertices, String table, String column, boolean boundingBoxPrefilter)
+      throws SQLException {
+    if (vertices.size() < 3) {
+      throw new IllegalArgumentException("A polygon needs at least 3 vertices");
+    }
+    List<Point> ring = new ArrayList<>(vertices);
+    if (!ring.get(0).equals(ring.get(ring.size() - 1))) {
+      ring.add(ring.get(0));
+    }
+    Polygon polygon =
+        new Polygon(new LinearRing[] {new LinearRing(ring.toArray(new Point[0]))});
+    polygon.setSrid(4326);
+    PGgeometry polygonParam = new PGgeometry(polygon);
+
+    sqlSelectQuery.append(" WHERE ");
+    if (boundingBoxPrefilter) {
+      sqlSelectQuery.append(table).append(".").append(column).append(" && ? AND ");
+    }
     sqlSelectQuery
-        .append("))'),4326),")
+        .append("ST_Contains(?::geometry, ")
         .append(table)
         .append(".")
         .append(column)
         .append(")");
     stmt = connection.prepareStatement(sqlSelectQuery.toString());
+
+    int param = 1;
+    if (boundingBoxPrefilter) {
+      stmt.setObject(param++, polygonParam);
+    }
+    stmt.setObject(param, polygonParam);
     return this;
   }
 
@@ -130,12 +209,28 @@ public class SelectQueryBuilder implements WhereClauseBuilder {
     return this;
   }
 
+  /**
+   * Method for fetching the result in batches of the given number of rows instead of all at once.
+   * The driver only honours this inside a transaction, so auto-commit is switched off for the
+   * connection until QueryProcessor.releaseConnection(), which ends the transaction
+   *
+   * @param rows -- number of rows per round trip, 0 to fetch everything at once
+   */
+  public SelectQueryBuilder withFetchSize(int rows) {
+    fetchSize = rows;
+    return this;
+  }
+
   @Override
   public ResultSet executeSelect() throws SQLException {
     if (stmt == null) {
       stmt = connection.prepareStatement(sqlSelectQuery.toString());
     }
-    return DBInterfaceHelpers.getResultSet(stmt);
+    if (fetchSize > 0) {
+      connection.beginFetch();
+    }
+    stmt.setFetchSize(fetchSize);
+    return connection.executeQuery(stmt);
   }
 
   @Override
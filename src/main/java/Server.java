@@ -1,6 +1,5 @@
-import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpHandler;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -13,40 +12,856 @@ import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
 
+  private static final String BATCH_PREFIX = "batch/";
+
+  private static final DatabaseStage.EndpointStats NO_STAGE_STATS =
+      new DatabaseStage.EndpointStats();
+
+  /* Contexts whose first path segment names a table or method, timed separately */
+  private static final Set<String> METHOD_CONTEXTS =
+      Set.of("/insert", "/upsert", "/update", "/geoSelect", "/increment");
+  private static final Set<String> METHODS =
+      Set.of(
+          "gallery",
+          "player",
+          "player_stats",
+          "location",
+          "landmark",
+          "landmark_type",
+          "quest",
+          "quest_type",
+          "quest_location");
+
   private final QueryProcessor queryProcessor;
-  private final HttpServer httpServer;
+  private final HttpTransport transport;
+  private final WorkerExecutor executor;
+  private final DatabaseStage databaseStage;
+  private final String retryAfterSeconds;
+  private final RateLimiter rateLimiter;
+  private final SessionTokens sessionTokens;
+  private final boolean sessionRequired;
+  private final PasswordHasher passwordHasher;
+
+  /* Response settings */
+  private final boolean streamResponses;
+  private final int fetchSize;
+  private final String defaultFormat;
+  private final int maxBatchSize;
+  private final ResponseCompressor responseCompressor;
+
+  /* Geolocation settings */
+  private final boolean useDWithin;
+  private final boolean boundingBoxPrefilter;
+
+  /* In-memory spatial indexes, by lower-case table name */
+  private final Map<String, SpatialIndex> spatialIndexes = new HashMap<>();
+  private final ScheduledExecutorService spatialIndexLoader;
+  private final long spatialIndexRefreshSeconds;
+
+  /* In-memory filter of the emails of the players, null if disabled */
+  private final EmailFilter emailFilter;
+  private final ScheduledExecutorService emailFilterLoader;
+  private final long emailFilterRefreshSeconds;
+
+  /* Write-behind buffer of the xp and cash earned by the players */
+  private final PlayerStatsBuffer statsBuffer;
+
+  /* Metrics of the requests and the components, null if disabled */
+  private final MetricsRegistry metrics;
 
   public Server(int port, QueryProcessor queryProcessor) throws IOException {
+    this(port, queryProcessor, WorkerExecutor.fixed());
+  }
+
+  public Server(int port, QueryProcessor queryProcessor, WorkerExecutor executor)
+      throws IOException {
+    this(port, queryProcessor, executor, new ServerConfig(new Properties()));
+  }
+
+  public Server(
+      int port, QueryProcessor queryProcessor, WorkerExecutor executor, ServerConfig config)
+      throws IOException {
+    this(
+        new JdkHttpTransport(new InetSocketAddress(port), executor),
+        queryProcessor,
+        executor,
+        config);
+  }
+
+  /**
+   * @param transport -- transport carrying the requests, running the handlers on the executor
+   * @param queryProcessor -- processor of the queries
+   * @param executor -- executor the transport runs the handlers on
+   * @param config -- server configuration
+   */
+  public Server(
+      HttpTransport transport,
+      QueryProcessor queryProcessor,
+      WorkerExecutor executor,
+      ServerConfig config) {
+    this.transport = transport;
     this.queryProcessor = queryProcessor;
-    this.httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executor = executor;
+    this.databaseStage = DatabaseStage.fromConfig(config);
+    this.retryAfterSeconds = Integer.toString(config.getInt("db.retryAfterSeconds", 1));
+    this.rateLimiter =
+        RateLimiter.fromConfig(
+            config,
+            "/insert",
+            "/select",
+            "/update",
+            "/delete",
+            "/geoSelect",
+            "/register",
+            "/auth",
+            "/increment",
+            "/upsert");
+    this.sessionTokens = SessionTokens.fromConfig(config);
+    this.sessionRequired = config.getBoolean("session.required", false);
+    this.passwordHasher = PasswordHasher.fromConfig(config);
+    this.streamResponses = config.getBoolean("response.streaming", false);
+    this.fetchSize = config.getInt("response.fetchSize", 500);
+    this.defaultFormat = config.getString("response.format", DBInterfaceHelpers.TEXT_FORMAT);
+    this.maxBatchSize = config.getInt("insert.maxBatchSize", 1000);
+    this.responseCompressor = ResponseCompressor.fromConfig(config);
+    this.useDWithin = "dwithin".equals(config.getString("geo.radiusPredicate", "dwithin"));
+    this.boundingBoxPrefilter = config.getBoolean("geo.boundingBoxPrefilter", true);
+    this.spatialIndexRefreshSeconds = config.getLong("geo.memoryIndex.refreshSeconds", 0L);
+    if (config.getBoolean("geo.memoryIndex", false)) {
+      double cellDegrees =
+          Double.parseDouble(config.getString("geo.memoryIndex.cellDegrees", "0.01"));
+      this.spatialIndexLoader =
+          Executors.newSingleThreadScheduledExecutor(
+              WorkerExecutor.namedDaemonThreads("spatial-index-"));
+      for (String table : new String[] {"landmark", "quest_location"}) {
+        spatialIndexes.put(
+            table,
+            new SpatialIndex(queryProcessor, table, "location", cellDegrees, spatialIndexLoader));
+      }
+    } else {
+      this.spatialIndexLoader = null;
+    }
+    this.emailFilterRefreshSeconds = config.getLong("auth.emailFilter.refreshSeconds", 0L);
+    if (config.getBoolean("auth.emailFilter", true)) {
+      this.emailFilterLoader =
+          Executors.newSingleThreadScheduledExecutor(
+              WorkerExecutor.namedDaemonThreads("email-filter-"));
+      this.emailFilter =
+          new EmailFilter(
+              queryProcessor,
+              Double.parseDouble(config.getString("auth.emailFilter.falsePositiveRate", "0.01")),
+              emailFilterLoader);
+    } else {
+      this.emailFilterLoader = null;
+      this.emailFilter = null;
+    }
+    this.statsBuffer = PlayerStatsBuffer.fromConfig(queryProcessor, config);
+    this.metrics = config.getBoolean("metrics.enabled", true) ? new MetricsRegistry() : null;
     /* QueryProcessor contexts */
-    HttpContext insertContext = this.httpServer.createContext("/insert");
-    insertContext.setHandler(this::handleInsert);
-    HttpContext selectContext = this.httpServer.createContext("/select");
-    selectContext.setHandler(this::handleSelect);
-    HttpContext updateContext = this.httpServer.createContext("/update");
-    updateContext.setHandler(this::handleUpdate);
-    HttpContext deleteContext = this.httpServer.createContext("/delete");
-    deleteContext.setHandler(this::handleDelete);
-    HttpContext geoSelectContext = this.httpServer.createContext("/geoSelect");
-    geoSelectContext.setHandler(this::handleGeoSelect);
-    HttpContext registerContext = this.httpServer.createContext("/register");
-    registerContext.setHandler(this::handleRegister);
-    HttpContext authContext = this.httpServer.createContext("/auth");
-    authContext.setHandler(this::handleAuth);
-  }
-
-  /** Method for server boot */
-  public void start() {
+    createContext("/insert", this::handleInsert, true);
+    createContext("/select", this::handleSelect, true);
+    createContext("/update", this::handleUpdate, true);
+    createContext("/upsert", this::handleUpsert, true);
+    createContext("/delete", this::handleDelete, true);
+    createContext("/geoSelect", this::handleGeoSelect, true);
+    /* Contexts hashing passwords, entering the database stage only for their queries */
+    createContext("/register", hashingPasswords(this::handleRegister), false);
+    createContext("/auth", hashingPasswords(this::handleAuth), false);
+    /* Contexts buffering their writes, flushed to the database in the background */
+    createContext("/increment", this::handleIncrement, true);
+    /* Session contexts, not touching the database */
+    this.transport.createContext("/logout", this::handleLogout);
+    /* Monitoring contexts, neither limited nor timed */
+    if (metrics != null) {
+      this.transport.createContext("/metrics", this::handleMetrics);
+    }
+  }
+
+  /**
+   * Method for registering a handler under a context of the transport. Each request gets the
+   * response compressor attached. Requests over the rate limit of their client are answered with
+   * 429, and requests the database stage or the password hasher cannot take with 503, both with a
+   * Retry-After header
+   *
+   * <p>On contexts checking sessions, the session token of the request is verified first and
+   * attached to the exchange, so that the rate limit is that of its player. A token failing
+   * verification is answered with 401, and so is a missing one when session.required is set, but
+   * only once the request has been counted against the limit of its address, so that guessing
+   * tokens is throttled like any other request
+   *
+   * @param path -- root path of the context e.g. "/insert"
+   * @param handler -- handler for the requests under that path
+   * @param checkSession -- whether requests to the context carry a session token
+   */
+  private void createContext(String path, HttpHandler handler, boolean checkSession) {
+    this.transport.createContext(
+        path,
+        exchange -> {
+          if (metrics == null) {
+            admitAndHandle(exchange, path, handler, checkSession);
+            return;
+          }
+          RequestTimer timer = new RequestTimer(endpointOf(path, exchange));
+          RequestTimer.attach(exchange, timer);
+          RequestTimer previous = RequestTimer.bind(timer);
+          try {
+            admitAndHandle(exchange, path, handler, checkSession);
+          } finally {
+            RequestTimer.unbind(previous);
+            metrics.record(timer);
+          }
+        });
+  }
+
+  /** Method for running a handler once the request has passed the session check and the limits */
+  private void admitAndHandle(
+      HttpExchange exchange, String path, HttpHandler handler, boolean checkSession)
+      throws IOException {
+    responseCompressor.attachTo(exchange);
+    boolean sessionAccepted = !checkSession || checkSession(exchange);
+    long waitNanos = rateLimiter.acquire(path, exchange);
+    if (waitNanos > 0) {
+      long waitSeconds = TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L);
+      exchange.getResponseHeaders().set("Retry-After", Long.toString(waitSeconds));
+      DBInterfaceHelpers.sendResponseBackToClient(
+          exchange, 429, DBInterfaceHelpers.TOO_MANY_REQUESTS);
+      return;
+    }
+    if (!sessionAccepted) {
+      DBInterfaceHelpers.sendResponseBackToClient(exchange, 401, DBInterfaceHelpers.UNAUTHORIZED);
+      return;
+    }
+    RequestTimer timer = RequestTimer.current();
+    if (timer != null) {
+      timer.handlerStarted();
+    }
+    try {
+      handler.handle(exchange);
+    } catch (RejectedExecutionException e) {
+      Log.warn("Rejecting " + path + " request: " + e.getMessage());
+      exchange.getResponseHeaders().set("Retry-After", retryAfterSeconds);
+      DBInterfaceHelpers.sendResponseBackToClient(
+          exchange, 503, DBInterfaceHelpers.SERVICE_UNAVAILABLE);
+    }
+  }
+
+  /**
+   * Method for naming the endpoint a request is timed under. The context, followed by the table or
+   * method for the contexts that have one e.g. "/insert/batch/gallery". Anything else sent by the
+   * client is left out, so that the number of endpoints stays bounded
+   *
+   * @param path -- root path of the context
+   * @param exchange -- the HttpExchange to be processed
+   * @return String
+   */
+  static String endpointOf(String path, HttpExchange exchange) {
+    return endpointOf(path, exchange.getRequestURI().getPath());
+  }
+
+  static String endpointOf(String path, String requestPath) {
+    if (!METHOD_CONTEXTS.contains(path) || requestPath.length() <= path.length() + 1) {
+      return path;
+    }
+    String method = requestPath.substring(path.length() + 1);
+    String prefix = "";
+    if (method.startsWith(BATCH_PREFIX)) {
+      prefix = BATCH_PREFIX;
+      method = method.substring(BATCH_PREFIX.length());
+    }
+    return METHODS.contains(method) ? path + "/" + prefix + method : path;
+  }
+
+  /**
+   * Method for checking the session token of a request, attaching its session to the exchange
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @return boolean -- false if the request is to be refused
+   */
+  private boolean checkSession(HttpExchange exchange) {
+    String token = exchange.getRequestHeaders().getFirst(SessionTokens.HEADER);
+    if (token == null) {
+      return !sessionRequired;
+    }
+    SessionTokens.Session session = sessionTokens.verify(token);
+    if (session == null) {
+      return false;
+    }
+    SessionTokens.attach(exchange, session);
+    return true;
+  }
+
+  /**
+   * Method for checking that a request only names the player of its session. The "player"
+   * parameter, a where clause on player_id (or on the id of Player) and an update setting
+   * player_id must all give that player. Requests without a session are not restricted
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @param table -- table the request is made on, in any case
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @return boolean -- false if the request is to be refused with 401
+   */
+  private static boolean namesOwnPlayer(
+      HttpExchange exchange, String table, Map<String, String> params) {
+    SessionTokens.Session session = SessionTokens.forExchange(exchange);
+    if (session == null) {
+      return true;
+    }
+    String where = params.get("where");
+    boolean onPlayer =
+        "player_id".equals(where)
+            || ("id".equals(where) && "player".equalsIgnoreCase(table));
+    if (!isPlayer(session, params.get("player"))
+        || (onPlayer && !isPlayer(session, params.get("is")))) {
+      return false;
+    }
+    String set = params.get("set");
+    if (set != null) {
+      for (String column : set.split(",")) {
+        if ("player_id".equals(column.trim())
+            && !isPlayer(session, params.getOrDefault("to.player_id", params.get("to")))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Whether a value sent by the client, if any, is the player of the session */
+  private static boolean isPlayer(SessionTokens.Session session, String player) {
+    if (player == null) {
+      return true;
+    }
+    try {
+      return Integer.parseInt(player.trim()) == session.getPlayerId();
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Method for handling the requests of a context within the bound of the password hasher on
+   * requests waiting for it, so that a burst of logins cannot hold every HTTP worker
+   *
+   * @param handler -- handler for the requests under that path
+   * @return HttpHandler
+   */
+  private HttpHandler hashingPasswords(HttpHandler handler) {
+    return exchange -> passwordHasher.admit(() -> handler.handle(exchange));
+  }
+
+  /**
+   * Method for running queries in the database stage, with a connection borrowed from the pool
+   *
+   * @param path -- root path of the context the queries are made for
+   * @param call -- queries to be run
+   * @return T -- result of the queries
+   * @throws RejectedExecutionException -- if the stage cannot take them
+   * @throws SQLException -- if no connection is available or a query fails
+   */
+  private <T> T queryInDatabaseStage(String path, DatabaseStage.Call<T> call)
+      throws IOException, SQLException {
+    RequestTimer timer = RequestTimer.current();
+    if (timer != null) {
+      // closes PARSE, the wait for a worker and a connection only counting in the total
+      timer.begin();
+    }
+    return databaseStage.submit(
+        path,
+        () -> {
+          RequestTimer previous = RequestTimer.bind(timer);
+          try {
+            queryProcessor.borrowConnection();
+            try {
+              return call.call();
+            } finally {
+              queryProcessor.releaseConnection();
+            }
+          } finally {
+            RequestTimer.unbind(previous);
+          }
+        });
+  }
+
+  /**
+   * Method for building the response to a request in the database stage, with a connection
+   * borrowed from the pool. Only the queries and the reading of their results run there, the
+   * request having been read and the response being sent on the thread serving HTTP
+   *
+   * @param path -- root path of the context e.g. "/insert"
+   * @param call -- queries building the response
+   * @return String -- response to be sent back, DATABASE_ERROR if the queries could not be run
+   * @throws RejectedExecutionException -- if the stage cannot take them
+   */
+  private String responseFromDatabaseStage(String path, DatabaseStage.Call<String> call)
+      throws IOException {
+    try {
+      return queryInDatabaseStage(path, call);
+    } catch (SQLException e) {
+      Log.warn("Database error on " + path + ": " + e.getMessage());
+      return DBInterfaceHelpers.DATABASE_ERROR;
+    }
+  }
+
+  /**
+   * Method for server boot
+   *
+   * @throws SQLException -- if the pool of connections to the DB Server could not be established
+   */
+  public void start() throws SQLException {
     this.queryProcessor.connect();
-    this.httpServer.start();
-    System.out.println("Server started");
+    reportMissingSpatialIndexes();
+    loadSpatialIndexes();
+    loadEmailFilter();
+    if (metrics != null) {
+      registerMetrics();
+    }
+    this.transport.start();
+    Log.info(
+        "Server started ("
+            + transport.getName()
+            + " transport, "
+            + executor.getMode()
+            + " executor)");
+  }
+
+  /** Method for exposing the getters of the components on /metrics */
+  private void registerMetrics() {
+    ConnectionPool pool = queryProcessor.getPool();
+    if (pool != null) {
+      metrics.gauge(
+          "db_pool_connections",
+          "Connections of the pool by state",
+          pool::getActiveConnections,
+          "state",
+          "active");
+      metrics.gauge(
+          "db_pool_connections",
+          "Connections of the pool by state",
+          pool::getIdleConnections,
+          "state",
+          "idle");
+      metrics.gauge("db_pool_max_connections", "Maximum size of the pool", pool::getMaxSize);
+      metrics.gauge(
+          "db_pool_pending_borrows", "Threads waiting for a connection", pool::getPendingBorrows);
+      metrics.counter("db_pool_borrows_total", "Connections borrowed", pool::getBorrowCount);
+      metrics.counter(
+          "db_pool_borrow_timeouts_total",
+          "Borrows that gave up waiting for a connection",
+          pool::getBorrowTimeouts);
+      metrics.counter(
+          "db_pool_borrow_wait_seconds_total",
+          "Time spent waiting for a connection",
+          () -> pool.getTotalBorrowWaitNanos() / 1e9);
+      metrics.counter(
+          "db_pool_validation_failures_total",
+          "Connections found broken when borrowed",
+          pool::getValidationFailures);
+      metrics.counter(
+          "db_pool_created_connections_total", "Connections opened", pool::getCreatedConnections);
+      metrics.counter(
+          "db_pool_evicted_connections_total",
+          "Connections closed for being idle or broken",
+          pool::getEvictedConnections);
+      StatementCache.Counters statementCache = pool.getStatementCacheCounters();
+      metrics.counter(
+          "statement_cache_hits_total",
+          "Statements found in the statement cache",
+          statementCache::getHits);
+      metrics.counter(
+          "statement_cache_misses_total",
+          "Statements prepared for lack of a cached one",
+          statementCache::getMisses);
+      metrics.counter(
+          "statement_cache_evictions_total",
+          "Statements closed to make room in the cache",
+          statementCache::getEvictions);
+    }
+    ConcurrencyLimiter limiter = queryProcessor.getConcurrencyLimiter();
+    metrics.gauge("db_concurrency_limit", "Queries allowed in flight", limiter::getLimit);
+    metrics.gauge("db_queries_in_flight", "Queries in flight", limiter::getInFlight);
+    metrics.counter("db_queries_total", "Queries run", limiter::getExecuted);
+    metrics.counter(
+        "db_query_limit_timeouts_total",
+        "Queries failed waiting for room under the limit",
+        limiter::getTimeouts);
+    metrics.counter(
+        "db_concurrency_backoffs_total", "Times the limit was cut", limiter::getBackoffs);
+
+    metrics.gauge(
+        "http_worker_queue_depth", "Requests waiting for a worker", executor::getQueueDepth);
+    metrics.gauge(
+        "http_workers_active", "Requests being handled by a worker", executor::getActiveWorkers);
+    metrics.counter(
+        "http_worker_completed_total", "Requests handled by a worker", executor::getCompletedTasks);
+    if (transport instanceof NioHttpTransport) {
+      NioHttpTransport nio = (NioHttpTransport) transport;
+      metrics.gauge("nio_open_connections", "Connections open", nio::getOpenConnections);
+      metrics.gauge(
+          "nio_requests_in_flight",
+          "Requests whose response is not fully written",
+          nio::getRequestsInFlight);
+      metrics.counter(
+          "nio_accepted_connections_total", "Connections accepted", nio::getAcceptedConnections);
+      metrics.counter(
+          "nio_idle_closed_connections_total",
+          "Connections closed for being idle",
+          nio::getIdleClosedConnections);
+      metrics.counter("nio_requests_total", "Requests parsed", nio::getRequests);
+      metrics.counter(
+          "nio_rejected_requests_total",
+          "Requests refused as malformed or too large",
+          nio::getRejectedRequests);
+    }
+    metrics.counter(
+        "compressed_responses_total",
+        "Responses sent compressed",
+        responseCompressor::getCompressedResponses);
+    metrics.counter(
+        "uncompressed_responses_total",
+        "Responses sent uncompressed",
+        responseCompressor::getUncompressedResponses);
+    metrics.counter(
+        "compression_input_bytes_total",
+        "Bytes of the compressed responses before compression",
+        responseCompressor::getBytesBeforeCompression);
+    metrics.counter(
+        "compression_output_bytes_total",
+        "Bytes of the compressed responses as sent",
+        responseCompressor::getBytesAfterCompression);
+
+    metrics.gauge(
+        "db_stage_queue_depth",
+        "Work waiting for a database stage worker",
+        databaseStage::getQueueDepth);
+    metrics.gauge(
+        "db_stage_workers_active",
+        "Database stage workers running work",
+        databaseStage::getActiveWorkers);
+    for (String path :
+        new String[] {
+          "/insert", "/select", "/update", "/delete", "/geoSelect", "/upsert", "/register", "/auth"
+        }) {
+      metrics.counter(
+          "db_stage_executed_total",
+          "Work run in the database stage by context",
+          () -> stageStats(path).getExecuted(),
+          "context",
+          path);
+      metrics.counter(
+          "db_stage_rejected_total",
+          "Work rejected by the database stage by context",
+          () -> stageStats(path).getRejected(),
+          "context",
+          path);
+      metrics.counter(
+          "db_stage_queue_seconds_total",
+          "Time spent waiting for a database stage worker by context",
+          () -> stageStats(path).getTotalQueueNanos() / 1e9,
+          "context",
+          path);
+    }
+    for (String context : rateLimiter.getLimitedContexts()) {
+      metrics.counter(
+          "rate_limit_allowed_total",
+          "Requests let through by the rate limiter",
+          () -> rateLimiter.getAllowed(context),
+          "context",
+          context);
+      metrics.counter(
+          "rate_limit_rejected_total",
+          "Requests answered 429 by the rate limiter",
+          () -> rateLimiter.getRejected(context),
+          "context",
+          context);
+      metrics.gauge(
+          "rate_limit_tracked_clients",
+          "Clients with a bucket",
+          () -> rateLimiter.getTrackedClients(context),
+          "context",
+          context);
+    }
+
+    metrics.counter("sessions_issued_total", "Session tokens issued", sessionTokens::getIssued);
+    metrics.counter(
+        "sessions_accepted_total",
+        "Session tokens that passed verification",
+        sessionTokens::getAccepted);
+    metrics.counter(
+        "sessions_refused_total",
+        "Session tokens that failed verification",
+        sessionTokens::getRefused);
+    metrics.gauge(
+        "sessions_revoked", "Revoked session tokens remembered", sessionTokens::getRevokedTokens);
+    metrics.counter(
+        "password_hashes_total",
+        "Passwords hashed, for storing or checking",
+        passwordHasher::getHashes);
+    metrics.counter(
+        "password_hash_rejected_total",
+        "Passwords refused because the hashing queue was full",
+        passwordHasher::getRejected);
+    metrics.counter(
+        "password_requests_rejected_total",
+        "Requests to /register and /auth refused because password.maxRequests were handled",
+        passwordHasher::getRejectedRequests);
+    metrics.counter(
+        "password_hash_seconds_total",
+        "Time spent hashing passwords",
+        () -> passwordHasher.getTotalHashNanos() / 1e9);
+    metrics.gauge(
+        "password_hash_queue_depth",
+        "Passwords waiting to be hashed",
+        passwordHasher::getQueueDepth);
+    if (emailFilter != null) {
+      metrics.counter("email_filter_lookups_total", "Emails looked up", emailFilter::getLookups);
+      metrics.counter(
+          "email_filter_definite_misses_total",
+          "Emails refused without a query",
+          emailFilter::getDefiniteMisses);
+      metrics.counter(
+          "email_filter_false_positives_total",
+          "Emails let through that were not in Player",
+          emailFilter::getFalsePositives);
+      metrics.gauge(
+          "email_filter_expected_false_positive_rate",
+          "False-positive rate expected from the emails in the filter",
+          emailFilter::getExpectedFalsePositiveRate);
+    }
+    for (SpatialIndex index : spatialIndexes.values()) {
+      metrics.gauge(
+          "spatial_index_fresh",
+          "1 if radius queries are answered from the in-memory index",
+          () -> index.isFresh() ? 1 : 0,
+          "table",
+          index.getTable());
+    }
+    metrics.counter(
+        "stats_increments_total", "Increments received by /increment", statsBuffer::getIncrements);
+    metrics.counter("stats_flushes_total", "Flushes of the stats buffer", statsBuffer::getFlushes);
+    metrics.counter(
+        "stats_flushed_rows_total",
+        "Player rows written by the flushes",
+        statsBuffer::getFlushedRows);
+    metrics.counter(
+        "stats_flush_failures_total",
+        "Flush statements that failed, their increments being kept or retried alone",
+        statsBuffer::getFlushFailures);
+    metrics.counter(
+        "stats_dropped_rows_total",
+        "Player rows whose increments were dropped, refused by the database",
+        statsBuffer::getDroppedRows);
+    metrics.gauge(
+        "stats_pending_players",
+        "Players with increments waiting for a flush",
+        statsBuffer::getPendingPlayers);
+    metrics.counter(
+        "log_dropped_total", "Log messages dropped because the buffer was full", Log::getDropped);
+    metrics.gauge("log_pending", "Log messages waiting to be written", Log::getPending);
+  }
+
+  /** Statistics of the work of a context in the database stage, empty until it submits some */
+  private DatabaseStage.EndpointStats stageStats(String path) {
+    DatabaseStage.EndpointStats stats = databaseStage.getEndpointStats().get(path);
+    return stats != null ? stats : NO_STAGE_STATS;
+  }
+
+  /** Method for warning about the geolocation queries that will have to scan whole tables */
+  private void reportMissingSpatialIndexes() {
+    String[][] spatialColumns = {{"landmark", "location"}, {"quest_location", "location"}};
+    try {
+      queryProcessor.borrowConnection();
+      for (String[] tableColumn : spatialColumns) {
+        if (!queryProcessor.hasSpatialIndex(tableColumn[0], tableColumn[1])) {
+          Log.warn(
+              "No spatial index on "
+                  + tableColumn[0]
+                  + "."
+                  + tableColumn[1]
+                  + ", radius queries will scan the whole table. Create one with: CREATE INDEX ON "
+                  + tableColumn[0]
+                  + " USING GIST ("
+                  + tableColumn[1]
+                  + ")");
+        }
+      }
+    } catch (SQLException e) {
+      Log.warn("Could not check spatial indexes: " + e.getMessage());
+    } finally {
+      queryProcessor.releaseConnection();
+    }
+  }
+
+  /** Method for loading the in-memory spatial indexes, and scheduling their periodic reload */
+  private void loadSpatialIndexes() {
+    for (SpatialIndex index : spatialIndexes.values()) {
+      try {
+        queryProcessor.borrowConnection();
+        index.load();
+      } catch (SQLException e) {
+        Log.warn(
+            "Could not load spatial index of " + index.getTable() + ": " + e.getMessage());
+        index.scheduleReload(TimeUnit.SECONDS.toMillis(5));
+      } finally {
+        queryProcessor.releaseConnection();
+      }
+      if (spatialIndexRefreshSeconds > 0) {
+        spatialIndexLoader.scheduleWithFixedDelay(
+            index::refresh,
+            spatialIndexRefreshSeconds,
+            spatialIndexRefreshSeconds,
+            TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  /** Method for loading the filter of the emails of the players, and scheduling its reload */
+  private void loadEmailFilter() {
+    if (emailFilter == null) {
+      return;
+    }
+    try {
+      queryProcessor.borrowConnection();
+      emailFilter.load();
+    } catch (SQLException e) {
+      Log.warn("Could not load email filter: " + e.getMessage());
+      emailFilter.scheduleReload(TimeUnit.SECONDS.toMillis(5));
+    } finally {
+      queryProcessor.releaseConnection();
+    }
+    if (emailFilterRefreshSeconds > 0) {
+      emailFilterLoader.scheduleWithFixedDelay(
+          () -> emailFilter.scheduleReload(0),
+          emailFilterRefreshSeconds,
+          emailFilterRefreshSeconds,
+          TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Method for marking the in-memory spatial index of a table as stale after a write to it
+   *
+   * @param table -- table written to, in any case
+   */
+  private void invalidateSpatialIndex(String table) {
+    SpatialIndex index = spatialIndexes.get(table.toLowerCase(Locale.ROOT));
+    if (index != null) {
+      index.invalidate();
+    }
+  }
+
+  /**
+   * Method for answering a radius query from the in-memory spatial index of a table
+   *
+   * @return ResultSet -- null if the index is disabled or stale, in which case SQL is to be used
+   */
+  private ResultSet selectFromSpatialIndex(
+      String table, Double latitude, Double longitude, Double radius) {
+    SpatialIndex index = spatialIndexes.get(table);
+    if (index == null) {
+      return null;
+    }
+    ResultSet rs = index.withinRadiusOf(latitude, longitude, radius);
+    if (rs != null) {
+      Log.debug(() -> "served from spatial index of " + table);
+    }
+    return rs;
+  }
+
+  /**
+   * Method for restricting a geolocation query to a circle, with the predicate set by
+   * geo.radiusPredicate
+   */
+  private SelectQueryBuilder withinRadius(
+      SelectQueryBuilder queryBuilder,
+      Double latitude,
+      Double longitude,
+      Double radius,
+      String table,
+      String column)
+      throws SQLException {
+    if (useDWithin) {
+      return queryBuilder.withinDistanceOf(
+          latitude, longitude, radius, table, column, boundingBoxPrefilter);
+    }
+    return queryBuilder.withinRadiusOf(latitude, longitude, radius, table, column);
+  }
+
+  /**
+   * Method for server shutdown
+   *
+   * @param delaySeconds -- maximum time to wait for in-flight requests to complete
+   */
+  public void stop(int delaySeconds) {
+    this.transport.stop(delaySeconds);
+    this.statsBuffer.close();
+    this.executor.shutdown();
+    this.databaseStage.shutdown();
+    this.rateLimiter.shutdown();
+    this.passwordHasher.shutdown();
+    if (spatialIndexLoader != null) {
+      spatialIndexLoader.shutdownNow();
+    }
+    if (emailFilterLoader != null) {
+      emailFilterLoader.shutdownNow();
+    }
+    this.queryProcessor.closeConnection();
+    Log.info("Server stopped");
+    Log.flush();
+  }
+
+  public HttpTransport getTransport() {
+    return transport;
+  }
+
+  public WorkerExecutor getExecutor() {
+    return executor;
+  }
+
+  public DatabaseStage getDatabaseStage() {
+    return databaseStage;
+  }
+
+  public PlayerStatsBuffer getStatsBuffer() {
+    return statsBuffer;
+  }
+
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  public EmailFilter getEmailFilter() {
+    return emailFilter;
+  }
+
+  public PasswordHasher getPasswordHasher() {
+    return passwordHasher;
+  }
+
+  public SessionTokens getSessionTokens() {
+    return sessionTokens;
+  }
+
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  public ResponseCompressor getResponseCompressor() {
+    return responseCompressor;
   }
 
   /**
@@ -59,15 +874,70 @@ public class Server {
     // extract info from request
     URI requestURI = exchange.getRequestURI();
     String method = requestURI.getPath().replace("/insert/", "");
-    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getQuery());
+    if (method.startsWith(BATCH_PREFIX)) {
+      handleBatchInsert(exchange, method.substring(BATCH_PREFIX.length()));
+      return;
+    }
+    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getRawQuery());
+    if (!namesOwnPlayer(exchange, method, params)) {
+      DBInterfaceHelpers.sendResponseBackToClient(exchange, 401, DBInterfaceHelpers.UNAUTHORIZED);
+      return;
+    }
 
+    if ("player".equals(method)) {
+      passwordHasher.admit(() -> handlePlayerInsert(exchange, params));
+      return;
+    }
+    String response = responseFromDatabaseStage("/insert", () -> insert(method, params));
+    DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
+  }
+
+  /**
+   * Handler for Insert into Player Http Request. The password is hashed within the bound of the
+   * password hasher, before the player is inserted in the database stage, as for /register
+   *
+   * @param exchange -- HttpExchange to be processed
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @throws IOException
+   */
+  private void handlePlayerInsert(HttpExchange exchange, Map<String, String> params)
+      throws IOException {
+    String response;
+    try {
+      Log.debug("player insertion");
+      String email = DBInterfaceHelpers.safeMapLookup(params, "email");
+      String passwordHash =
+          passwordHasher.hash(DBInterfaceHelpers.safeMapLookup(params, "password"));
+      rememberEmail(email);
+      response =
+          responseFromDatabaseStage(
+              "/insert",
+              () -> {
+                this.queryProcessor.addNewPlayer(email, passwordHash);
+                return DBInterfaceHelpers.SUCCESS;
+              });
+    } catch (KeyNotFoundException | IllegalArgumentException e) {
+      // catch missing params
+      response = DBInterfaceHelpers.BAD_PARAMS;
+    }
+    DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
+  }
+
+  /**
+   * Method for running an Insert in the database stage
+   *
+   * @param method -- table the row is inserted into
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @return String -- response to be sent back to the client
+   */
+  private String insert(String method, Map<String, String> params) {
     String response = DBInterfaceHelpers.METHOD_NOT_FOUND;
     try {
       // check which method is being used
       switch (method) {
         case "gallery":
           {
-            System.out.println("gallery insertion");
+            Log.debug("gallery insertion");
             Integer imageId =
                 this.queryProcessor.addNewImageMetaData(
                     Timestamp.valueOf(DBInterfaceHelpers.safeMapLookup(params, "timestamp")),
@@ -76,18 +946,9 @@ public class Server {
             response = imageId.toString();
             break;
           }
-        case "player":
-          {
-            System.out.println("player insertion");
-            this.queryProcessor.addNewPlayer(
-                DBInterfaceHelpers.safeMapLookup(params, "email"),
-                DBInterfaceHelpers.safeMapLookup(params, "password"));
-            response = DBInterfaceHelpers.SUCCESS;
-            break;
-          }
         case "player_stats":
           {
-            System.out.println("player_stats insertion");
+            Log.debug("player_stats insertion");
             this.queryProcessor.addPlayerStats(
                 Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "player")),
                 Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "xp")),
@@ -97,7 +958,7 @@ public class Server {
           }
         case "location":
           {
-            System.out.println("location insertion");
+            Log.debug("location insertion");
             this.queryProcessor.addNewLocation(
                 Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "image_id")),
                 Float.parseFloat(DBInterfaceHelpers.safeMapLookup(params, "lon")),
@@ -107,7 +968,7 @@ public class Server {
           }
         case "landmark":
           {
-            System.out.println("landmark insertion");
+            Log.debug("landmark insertion");
             this.queryProcessor.addNewLandmark(
                 Float.parseFloat(DBInterfaceHelpers.safeMapLookup(params, "lon")),
                 Float.parseFloat(DBInterfaceHelpers.safeMapLookup(params, "lat")),
@@ -118,7 +979,7 @@ public class Server {
           }
         case "landmark_type":
           {
-            System.out.println("landmark_type insertion");
+            Log.debug("landmark_type insertion");
             this.queryProcessor.addNewLandmarkType(
                 DBInterfaceHelpers.safeMapLookup(params, "name"));
             response = DBInterfaceHelpers.SUCCESS;
@@ -126,7 +987,7 @@ public class Server {
           }
         case "quest":
           {
-            System.out.println("quest insertion");
+            Log.debug("quest insertion");
             this.queryProcessor.addNewQuest(
                 Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "type")),
                 DBInterfaceHelpers.safeMapLookup(params, "name"),
@@ -136,7 +997,7 @@ public class Server {
           }
         case "quest_location":
           {
-            System.out.println("quest_location insertion");
+            Log.debug("quest_location insertion");
             this.queryProcessor.addNewQuestLocation(
                 Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "quest_id")),
                 Float.parseFloat(DBInterfaceHelpers.safeMapLookup(params, "lon")),
@@ -146,22 +1007,126 @@ public class Server {
           }
         case "quest_type":
           {
-            System.out.println("quest_type insertion");
+            Log.debug("quest_type insertion");
             this.queryProcessor.addNewQuestType(DBInterfaceHelpers.safeMapLookup(params, "name"));
             response = DBInterfaceHelpers.SUCCESS;
             break;
           }
       }
+      invalidateSpatialIndex(method);
     } catch (KeyNotFoundException | IllegalArgumentException e) {
       // catch missing params
       response = DBInterfaceHelpers.BAD_PARAMS;
     } catch (SQLException e) {
       response = DBInterfaceHelpers.DATABASE_ERROR;
     }
+    return response;
+  }
+
+  /**
+   * Handler for batched Insert into DB Http Request. The body is a JSON array holding one object
+   * per row, with the same keys as the parameters of the single-row insert e.g.
+   * [{"image_id": 3, "lon": -0.17, "lat": 51.49}, ...] for /insert/batch/location. All rows are
+   * inserted in one transaction
+   *
+   * @param exchange -- HttpExchange to be processed
+   * @param method -- table the rows are inserted into
+   * @throws IOException
+   */
+  private void handleBatchInsert(HttpExchange exchange, String method) throws IOException {
+    String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+    String response = DBInterfaceHelpers.METHOD_NOT_FOUND;
+    try {
+      JSONArray rows = new JSONArray(body);
+      if (rows.length() > maxBatchSize) {
+        throw new IllegalArgumentException("Batch larger than " + maxBatchSize + " rows");
+      }
+      switch (method) {
+        case "gallery":
+          {
+            Log.debug(() -> "gallery batch insertion of " + rows.length() + " rows");
+            List<ImageObject> images = new ArrayList<>(rows.length());
+            SessionTokens.Session session = SessionTokens.forExchange(exchange);
+            for (int i = 0; i < rows.length(); i++) {
+              JSONObject row = rows.getJSONObject(i);
+              if (session != null && session.getPlayerId() != row.getInt("player")) {
+                DBInterfaceHelpers.sendResponseBackToClient(
+                    exchange, 401, DBInterfaceHelpers.UNAUTHORIZED);
+                return;
+              }
+              images.add(
+                  new ImageObject(
+                      row.getInt("player"),
+                      0,
+                      Timestamp.valueOf(row.getString("timestamp")),
+                      row.getString("url")));
+            }
+            response =
+                responseFromDatabaseStage(
+                    "/insert",
+                    () -> {
+                      List<Integer> imageIds = this.queryProcessor.addNewImageMetaData(images);
+                      return new JSONArray(imageIds).toString();
+                    });
+            break;
+          }
+        case "location":
+          {
+            Log.debug(() -> "location batch insertion of " + rows.length() + " rows");
+            List<LocationObject> locations = getLocations(rows, "image_id");
+            response =
+                responseFromDatabaseStage(
+                    "/insert",
+                    () -> {
+                      this.queryProcessor.addNewLocations(locations);
+                      return DBInterfaceHelpers.SUCCESS;
+                    });
+            break;
+          }
+        case "quest_location":
+          {
+            Log.debug(() -> "quest_location batch insertion of " + rows.length() + " rows");
+            List<LocationObject> locations = getLocations(rows, "quest_id");
+            response =
+                responseFromDatabaseStage(
+                    "/insert",
+                    () -> {
+                      this.queryProcessor.addNewQuestLocations(locations);
+                      return DBInterfaceHelpers.SUCCESS;
+                    });
+            break;
+          }
+      }
+      invalidateSpatialIndex(method);
+    } catch (JSONException | IllegalArgumentException e) {
+      // catch malformed rows
+      response = DBInterfaceHelpers.BAD_PARAMS;
+    }
     // send response
     DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
   }
 
+  /**
+   * Method for reading the rows of a batched Location or Quest_Location insert
+   *
+   * @param rows -- JSON objects holding the id and the "lon" and "lat" of each point
+   * @param idKey -- key of the id e.g. "image_id"
+   * @return List<LocationObject>
+   * @throws JSONException -- if a row misses one of the keys
+   */
+  private static List<LocationObject> getLocations(JSONArray rows, String idKey)
+      throws JSONException {
+    List<LocationObject> locations = new ArrayList<>(rows.length());
+    for (int i = 0; i < rows.length(); i++) {
+      JSONObject row = rows.getJSONObject(i);
+      locations.add(
+          new LocationObject(
+              row.getInt(idKey), (float) row.getDouble("lon"), (float) row.getDouble("lat")));
+    }
+    return locations;
+  }
+
   /**
    * Handler for Select Query from DB Http Request
    *
@@ -172,8 +1137,24 @@ public class Server {
     // extract info from request
     URI requestURI = exchange.getRequestURI();
     String rawColumns = requestURI.getPath().replace("/select/", "");
-    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getQuery());
+    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getRawQuery());
+    if (!namesOwnPlayer(exchange, params.get("from"), params)) {
+      DBInterfaceHelpers.sendResponseBackToClient(exchange, 401, DBInterfaceHelpers.UNAUTHORIZED);
+      return;
+    }
 
+    String response = responseFromDatabaseStage("/select", () -> select(rawColumns, params));
+    DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
+  }
+
+  /**
+   * Method for running a Select query in the database stage
+   *
+   * @param rawColumns -- columns to be queried, separated by "&"
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @return String -- response to be sent back to the client
+   */
+  private String select(String rawColumns, Map<String, String> params) {
     String response = DBInterfaceHelpers.METHOD_NOT_FOUND;
     try {
       String columnsToBeQueried = rawColumns.replace("&", ",");
@@ -190,9 +1171,9 @@ public class Server {
       // Check for WHERE clause
       try {
         indexColumn = DBInterfaceHelpers.safeMapLookup(params, "where");
-        System.out.println("Select query with WHERE clause requested");
+        Log.debug("Select query with WHERE clause requested");
       } catch (KeyNotFoundException e) {
-        System.out.println("Simple Select query requested");
+        Log.debug("Simple Select query requested");
       }
       if (indexColumn != null) {
         queryBuilder =
@@ -208,11 +1189,11 @@ public class Server {
         if (indexColumn != null) {
           validQuery = false;
           response = DBInterfaceHelpers.BAD_PARAMS;
-          System.out.println("Query badly written...Cannot have both JOIN and WHERE");
+          Log.debug("Query badly written...Cannot have both JOIN and WHERE");
         }
-        System.out.println("Select query with JOIN clause requested");
+        Log.debug("Select query with JOIN clause requested");
       } catch (KeyNotFoundException e) {
-        System.out.println("No Join query");
+        Log.debug("No Join query");
       }
       if (joinPresent && validQuery) {
         queryBuilder = queryBuilder.join(tableToJoin);
@@ -221,7 +1202,7 @@ public class Server {
           rhsAttr = DBInterfaceHelpers.safeMapLookup(params, "equals");
           queryBuilder = queryBuilder.on(lhsAttr).equals(rhsAttr);
         } catch (KeyNotFoundException e) {
-          System.out.println("Syntax error in Join query");
+          Log.debug("Syntax error in Join query");
           response = DBInterfaceHelpers.BAD_PARAMS;
           validQuery = false;
         }
@@ -229,23 +1210,110 @@ public class Server {
 
       if (validQuery) {
         // Print the SQL Query
-        System.out.println(queryBuilder.getSQLStatement().toString());
-        ResultSet rs = queryBuilder.executeSelect();
-        response = DBInterfaceHelpers.SUCCESS;
-        response = response + "\n" + DBInterfaceHelpers.getJSONfromResultSet(rs);
+        Log.debug(queryBuilder.getSQLStatement());
+        ResultSet rs = executeSelect(queryBuilder);
+        response = getResponseFromResultSet(rs, isTyped(params));
       }
-    } catch (KeyNotFoundException e) {
-      // catch missing params
+    } catch (KeyNotFoundException | IllegalArgumentException e) {
+      // catch missing or malformed params
       response = DBInterfaceHelpers.BAD_PARAMS;
     } catch (SQLException e) {
       response = DBInterfaceHelpers.DATABASE_ERROR;
     } catch (JSONException e) {
       response += "\nCould not retrieve JSON Object...Exception caught...";
     }
-    // send response
+    return response;
+  }
+
+  /**
+   * Handler for Upsert into DB Http Request. Same parameters as the single-row insert into the
+   * table, but a row conflicting with an existing one updates it, and the row as it stands after
+   * the write is sent back like the result of a select
+   *
+   * @param exchange -- HttpExchange to be processed
+   * @throws IOException
+   */
+  private void handleUpsert(HttpExchange exchange) throws IOException {
+    // extract info from request
+    URI requestURI = exchange.getRequestURI();
+    String method = requestURI.getPath().replace("/upsert/", "");
+    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getRawQuery());
+    if (!namesOwnPlayer(exchange, method, params)) {
+      DBInterfaceHelpers.sendResponseBackToClient(exchange, 401, DBInterfaceHelpers.UNAUTHORIZED);
+      return;
+    }
+
+    String response = responseFromDatabaseStage("/upsert", () -> upsert(method, params));
     DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
   }
 
+  /**
+   * Method for running an Upsert in the database stage
+   *
+   * @param method -- table the row is upserted into
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @return String -- response to be sent back to the client
+   */
+  private String upsert(String method, Map<String, String> params) {
+    String response = DBInterfaceHelpers.METHOD_NOT_FOUND;
+    try {
+      ResultSet rs = null;
+      switch (method) {
+        case "player_stats":
+          {
+            Log.debug("player_stats upsert");
+            rs =
+                this.queryProcessor.upsertPlayerStats(
+                    Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "player")),
+                    Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "xp")),
+                    Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "cash")));
+            break;
+          }
+        case "location":
+          {
+            Log.debug("location upsert");
+            rs =
+                this.queryProcessor.upsertLocation(
+                    Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "image_id")),
+                    Float.parseFloat(DBInterfaceHelpers.safeMapLookup(params, "lon")),
+                    Float.parseFloat(DBInterfaceHelpers.safeMapLookup(params, "lat")));
+            break;
+          }
+        case "landmark_type":
+          {
+            Log.debug("landmark_type upsert");
+            rs =
+                this.queryProcessor.upsertLandmarkType(
+                    DBInterfaceHelpers.safeMapLookup(params, "name"));
+            break;
+          }
+        case "quest_type":
+          {
+            Log.debug("quest_type upsert");
+            rs =
+                this.queryProcessor.upsertQuestType(
+                    DBInterfaceHelpers.safeMapLookup(params, "name"));
+            break;
+          }
+      }
+      invalidateSpatialIndex(method);
+      if (rs != null) {
+        response =
+            DBInterfaceHelpers.SUCCESS
+                + "\n"
+                + DBInterfaceHelpers.getJSONfromResultSet(rs, isTyped(params));
+      }
+    } catch (KeyNotFoundException | IllegalArgumentException e) {
+      // catch missing params
+      response = DBInterfaceHelpers.BAD_PARAMS;
+    } catch (SQLException e) {
+      response = DBInterfaceHelpers.DATABASE_ERROR;
+    } catch (JSONException e) {
+      response += "\nCould not retrieve JSON Object...Exception caught...";
+    }
+    return response;
+  }
+
   /**
    * Handler for Update a record into DB Http Request
    *
@@ -256,30 +1324,88 @@ public class Server {
     // extract info from request
     URI requestURI = exchange.getRequestURI();
     String table = requestURI.getPath().replace("/update/", "");
-    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getQuery());
+    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getRawQuery());
+    if (!namesOwnPlayer(exchange, table, params)) {
+      DBInterfaceHelpers.sendResponseBackToClient(exchange, 401, DBInterfaceHelpers.UNAUTHORIZED);
+      return;
+    }
 
+    if ("player".equalsIgnoreCase(table)) {
+      String email = DBInterfaceHelpers.getUpdateSetValue(params, "email");
+      if (email != null) {
+        rememberEmail(email);
+      }
+    }
+    String response = responseFromDatabaseStage("/update", () -> update(table, params));
+    DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
+  }
+
+  /**
+   * Method for running an Update in the database stage
+   *
+   * @param table -- table the rows are updated in
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @return String -- response to be sent back to the client
+   */
+  private String update(String table, Map<String, String> params) {
     String response = DBInterfaceHelpers.METHOD_NOT_FOUND;
     try {
-      System.out.println(table + " update");
-      String column = DBInterfaceHelpers.safeMapLookup(params, "set");
+      Log.debug(() -> table + " update");
       String indexColumn = DBInterfaceHelpers.safeMapLookup(params, "where");
 
       UpdateStatementBuilder builder = queryProcessor.update(table);
-      ;
-      builder = DBInterfaceHelpers.getUpdateSetTo(builder, params, column);
+      builder = DBInterfaceHelpers.getUpdateAssignments(builder, params);
       builder =
           (UpdateStatementBuilder) DBInterfaceHelpers.getWhereClause(builder, params, indexColumn);
 
-      System.out.println(builder.getSQLStatement().toString());
+      Log.debug(builder.getSQLStatement());
       builder.execute();
+      invalidateSpatialIndex(table);
       response = DBInterfaceHelpers.SUCCESS;
-    } catch (KeyNotFoundException e) {
-      // catch missing params
+    } catch (KeyNotFoundException | IllegalArgumentException e) {
+      // catch missing or malformed params
       response = DBInterfaceHelpers.BAD_PARAMS;
     } catch (SQLException e) {
       response = DBInterfaceHelpers.DATABASE_ERROR;
     }
-    // send response
+    return response;
+  }
+
+  /**
+   * Handler for Increment Http Request e.g. /increment/player_stats?player=7&xp=+50&cash=-10. The
+   * amounts are added to the pending increments of the player and answered straight away, the
+   * write to Player_Stats being left to the stats buffer. Increments of unknown players are dropped
+   * when flushed
+   *
+   * @param exchange -- HttpExchange to be processed
+   * @throws IOException
+   */
+  private void handleIncrement(HttpExchange exchange) throws IOException {
+    URI requestURI = exchange.getRequestURI();
+    String table = requestURI.getPath().replace("/increment/", "");
+    if (!"player_stats".equals(table.toLowerCase(Locale.ROOT))) {
+      DBInterfaceHelpers.sendResponseBackToClient(exchange, DBInterfaceHelpers.METHOD_NOT_FOUND);
+      return;
+    }
+    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getRawQuery());
+
+    String response;
+    try {
+      int playerId = Integer.parseInt(DBInterfaceHelpers.safeMapLookup(params, "player").trim());
+      // a leading '+' has been decoded into a space by parseQuery
+      long xp = Long.parseLong(params.getOrDefault("xp", "0").trim());
+      long cash = Long.parseLong(params.getOrDefault("cash", "0").trim());
+      if (!namesOwnPlayer(exchange, table, params)) {
+        DBInterfaceHelpers.sendResponseBackToClient(
+            exchange, 401, DBInterfaceHelpers.UNAUTHORIZED);
+        return;
+      }
+      statsBuffer.increment(playerId, xp, cash);
+      response = DBInterfaceHelpers.SUCCESS;
+    } catch (KeyNotFoundException | IllegalArgumentException e) {
+      // catch missing, malformed or out-of-range params
+      response = DBInterfaceHelpers.BAD_PARAMS;
+    }
     DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
   }
 
@@ -293,8 +1419,23 @@ public class Server {
     // extract info from request
     URI requestURI = exchange.getRequestURI();
     requestURI.getPath().replace("/delete/", "");
-    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getQuery());
+    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getRawQuery());
+    if (!namesOwnPlayer(exchange, params.get("from"), params)) {
+      DBInterfaceHelpers.sendResponseBackToClient(exchange, 401, DBInterfaceHelpers.UNAUTHORIZED);
+      return;
+    }
+
+    String response = responseFromDatabaseStage("/delete", () -> delete(params));
+    DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
+  }
 
+  /**
+   * Method for running a Delete in the database stage
+   *
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @return String -- response to be sent back to the client
+   */
+  private String delete(Map<String, String> params) {
     String response = DBInterfaceHelpers.METHOD_NOT_FOUND;
     try {
       String table = DBInterfaceHelpers.safeMapLookup(params, "from");
@@ -302,9 +1443,9 @@ public class Server {
 
       try {
         indexColumn = DBInterfaceHelpers.safeMapLookup(params, "where");
-        System.out.println("Delete statement with WHERE clause invoked");
+        Log.debug("Delete statement with WHERE clause invoked");
       } catch (KeyNotFoundException e) {
-        System.out.println("Simple Delete statement invoked");
+        Log.debug("Simple Delete statement invoked");
       }
 
       DeleteStatementBuilder builder = queryProcessor.delete().from(table);
@@ -314,17 +1455,17 @@ public class Server {
             (DeleteStatementBuilder)
                 DBInterfaceHelpers.getWhereClause(builder, params, indexColumn);
       }
-      System.out.println(builder.getSQLStatement().toString());
+      Log.debug(builder.getSQLStatement());
       builder.execute();
+      invalidateSpatialIndex(table);
       response = DBInterfaceHelpers.SUCCESS;
-    } catch (KeyNotFoundException e) {
-      // catch missing params
+    } catch (KeyNotFoundException | IllegalArgumentException e) {
+      // catch missing or malformed params
       response = DBInterfaceHelpers.BAD_PARAMS;
     } catch (SQLException e) {
       response = DBInterfaceHelpers.DATABASE_ERROR;
     }
-    // send response
-    DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
+    return response;
   }
 
   /**
@@ -337,8 +1478,20 @@ public class Server {
     // extract info from request
     URI requestURI = exchange.getRequestURI();
     String method = requestURI.getPath().replace("/geoSelect/", "");
-    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getQuery());
+    Map<String, String> params = DBInterfaceHelpers.parseQuery(requestURI.getRawQuery());
+
+    String response = responseFromDatabaseStage("/geoSelect", () -> geoSelect(method, params));
+    DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
+  }
 
+  /**
+   * Method for running a Geolocation query in the database stage
+   *
+   * @param method -- table the rows are looked up in
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @return String -- response to be sent back to the client
+   */
+  private String geoSelect(String method, Map<String, String> params) {
     String response = DBInterfaceHelpers.METHOD_NOT_FOUND;
     try {
 
@@ -353,30 +1506,49 @@ public class Server {
           latitude = Double.parseDouble(DBInterfaceHelpers.safeMapLookup(params, "lat"));
           longitude = Double.parseDouble(DBInterfaceHelpers.safeMapLookup(params, "lon"));
           radius = Double.parseDouble(DBInterfaceHelpers.safeMapLookup(params, "rad"));
-          System.out.println("try to spawn landmarks");
+          Log.debug("try to spawn landmarks");
+          rs = selectFromSpatialIndex("landmark", latitude, longitude, radius);
+          if (rs != null) {
+            break;
+          }
           queryBuilder =
-              queryProcessor
-                  .select("*")
-                  .from("landmark")
-                  .withinRadiusOf(latitude, longitude, radius, "landmark", "location");
-          System.out.println(queryBuilder.getSQLStatement().toString());
-          rs = queryBuilder.executeSelect();
+              withinRadius(
+                  queryProcessor.select("*").from("landmark"),
+                  latitude,
+                  longitude,
+                  radius,
+                  "landmark",
+                  "location");
+          Log.debug(queryBuilder.getSQLStatement());
+          rs = executeSelect(queryBuilder);
           break;
         case "quest":
           latitude = Double.parseDouble(DBInterfaceHelpers.safeMapLookup(params, "lat"));
           longitude = Double.parseDouble(DBInterfaceHelpers.safeMapLookup(params, "lon"));
           radius = Double.parseDouble(DBInterfaceHelpers.safeMapLookup(params, "rad"));
-          System.out.println("try to spawn quests");
+          Log.debug("try to spawn quests");
+          rs = selectFromSpatialIndex("quest_location", latitude, longitude, radius);
+          if (rs != null) {
+            break;
+          }
+          // the same rows as the spatial index: the locations of the quests
           queryBuilder =
-              queryProcessor
-                  .select("*")
-                  .from("quest")
-                  .withinRadiusOf(latitude, longitude, radius, "quest_location", "location");
-          System.out.println(queryBuilder.getSQLStatement().toString());
-          rs = queryBuilder.executeSelect();
+              withinRadius(
+                  queryProcessor
+                      .select("quest_location.*")
+                      .from("quest")
+                      .innerJoin("quest_location")
+                      .on("quest.id = quest_location.id"),
+                  latitude,
+                  longitude,
+                  radius,
+                  "quest_location",
+                  "location");
+          Log.debug(queryBuilder.getSQLStatement());
+          rs = executeSelect(queryBuilder);
           break;
         case "location":
-          System.out.println("find image locations");
+          Log.debug("find image locations");
           /* Sample Poly JSON:
           [{"lat":52.43042541356032,"lng":-4.966549702756713},{"lat":46.741212852594806,"lng":-9.119381734006712},
           {"lat":44.73252738390248,"lng":16.588626078493288},{"lat":56.77788943094397,"lng":7.118411234743287},
@@ -394,34 +1566,24 @@ public class Server {
             vertices.add(new Point(v.getDouble("lng"), v.getDouble("lat")));
           }
           // Send
-          SelectQueryBuilder innerSubQueryBuilder =
-              queryProcessor
-              .select("*")
-              .from("location")
-              .withinPoly(vertices, "location", "location");
-
-          SelectQueryBuilder outerSubQueryBuilder =
-              queryProcessor
-                  .select("t1.id, t1.location, url")
-                  .from("(" + innerSubQueryBuilder.getSQLStatement().toString() + ") t1")
-                  .innerJoin("gallery")
-                  .on("gallery.id = t1.id");
-
           queryBuilder =
               queryProcessor
-                  .select("id, " +
-                      "ST_X(ST_Centroid(ST_Transform(location, 4326))) AS long, " +
-                      "ST_Y(ST_Centroid(ST_Transform(location, 4326))) AS lat, " +
+                  .select(
+                      "location.id",
+                      "ST_X(location.location) AS long",
+                      "ST_Y(location.location) AS lat",
                       "url")
-                  .from("(" + outerSubQueryBuilder.getSQLStatement().toString() + ") t2");
+                  .from("location")
+                  .innerJoin("gallery")
+                  .on("gallery.id = location.id")
+                  .withinPolygon(vertices, "location", "location", boundingBoxPrefilter);
 
-          System.out.println(queryBuilder.getSQLStatement().toString());
-          rs = queryBuilder.executeSelect();
+          Log.debug(queryBuilder.getSQLStatement());
+          rs = executeSelect(queryBuilder);
           break;
       }
       if (rs != null) {
-        response = DBInterfaceHelpers.SUCCESS;
-        response = response + "\n" + DBInterfaceHelpers.getJSONfromResultSet(rs);
+        response = getResponseFromResultSet(rs, isTyped(params));
       }
     } catch (KeyNotFoundException e) {
       // catch missing params
@@ -431,31 +1593,115 @@ public class Server {
     } catch (JSONException e) {
       response += "\nCould not retrieve JSON Object...Exception caught...";
     }
-    // send response
-    DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
+    return response;
+  }
+
+  /**
+   * Method for executing a Select query whose result is sent back to the client. Fetched in
+   * batches when responses are streamed, all at once otherwise
+   *
+   * @param queryBuilder -- query to be executed
+   * @return ResultSet
+   * @throws SQLException
+   */
+  private ResultSet executeSelect(SelectQueryBuilder queryBuilder) throws SQLException {
+    if (streamResponses) {
+      queryBuilder.withFetchSize(fetchSize);
+    }
+    return queryBuilder.executeSelect();
+  }
+
+  /**
+   * Method for formatting the result of a Select query sent back to the client. Serialized row by
+   * row as it is fetched when responses are streamed, all at once otherwise
+   *
+   * @param rs -- ResultSet of the query invoked
+   * @param typed -- whether values are formatted according to their column type
+   * @return String -- SUCCESS followed by a list of JSON objects
+   * @throws SQLException
+   */
+  private String getResponseFromResultSet(ResultSet rs, boolean typed) throws SQLException {
+    if (streamResponses) {
+      return DBInterfaceHelpers.getResponseFromResultSet(DBInterfaceHelpers.SUCCESS, rs, typed);
+    }
+    return DBInterfaceHelpers.SUCCESS + "\n" + DBInterfaceHelpers.getJSONfromResultSet(rs, typed);
+  }
+
+  /**
+   * Method for checking whether a Select result is to be sent with typed values. Taken from the
+   * "format" parameter of the request, response.format otherwise
+   *
+   * @param params -- map of pairs (key, value) representing parameters of the query
+   * @return boolean -- true for "typed", false for "text"
+   */
+  private boolean isTyped(Map<String, String> params) {
+    String format = params.getOrDefault("format", defaultFormat);
+    return DBInterfaceHelpers.TYPED_FORMAT.equals(format);
+  }
+
+  /**
+   * Method for adding an email about to be written to the Player table to the email filter, so
+   * that /auth does not turn it away. Called by every handler writing Player.email, before the
+   * write
+   *
+   * @param email -- email of the player
+   */
+  private void rememberEmail(String email) {
+    if (emailFilter != null) {
+      emailFilter.add(email);
+    }
   }
 
+  /**
+   * Handler for Register Http Request. The password is hashed before the player is inserted, off
+   * the database stage so that the hashing does not hold a connection
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @throws IOException
+   */
   private void handleRegister(HttpExchange exchange) throws IOException {
     byte[] jsonCredentialsAsBytes = exchange.getRequestBody().readAllBytes();
     String credentials = new String(jsonCredentialsAsBytes, StandardCharsets.UTF_8);
 
     JSONObject credentialsAsJSON = new JSONObject(credentials);
     String email = credentialsAsJSON.getString("email");
-    String password = credentialsAsJSON.getString("password");
+    String passwordHash = passwordHasher.hash(credentialsAsJSON.getString("password"));
+    rememberEmail(email);
 
     String response = DBInterfaceHelpers.LOGIN_SUCCESSFUL;
     try {
-      Integer playerId = queryProcessor.addNewPlayer(email, password);
-      queryProcessor.addPlayerStats(
-          playerId, DBInterfaceHelpers.DEFAULT_XP, DBInterfaceHelpers.DEFAULT_CASH);
+      Integer playerId =
+          queryInDatabaseStage(
+              "/register",
+              () ->
+                  queryProcessor.registerPlayer(
+                      email,
+                      passwordHash,
+                      DBInterfaceHelpers.DEFAULT_XP,
+                      DBInterfaceHelpers.DEFAULT_CASH));
+      if (playerId == null) {
+        Log.debug("Fail...a player with this email already exists");
+        response = DBInterfaceHelpers.WRONG_CREDENTIALS;
+      } else {
+        exchange.getResponseHeaders().set(SessionTokens.HEADER, sessionTokens.issue(playerId));
+        Log.debug("Register succsesful");
+      }
     } catch (SQLException e) {
-      System.out.println("Fail...a player with this email already exists");
-      response = DBInterfaceHelpers.WRONG_CREDENTIALS;
+      Log.warn("SQL Exception while registering: " + e.getMessage());
+      response = DBInterfaceHelpers.DB_ERROR;
     }
-    System.out.println("Register succsesful");
     DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
   }
 
+  /**
+   * Handler for Auth Http Request. Emails the email filter knows nothing of are refused without a
+   * query. Otherwise the stored password is fetched in the database stage and checked off it.
+   * Passwords still stored in plain text, or hashed at a lower cost, are hashed again once they are
+   * known to be right
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @throws IOException
+   */
   private void handleAuth(HttpExchange exchange) throws IOException {
     byte[] jsonCredentialsAsBytes = exchange.getRequestBody().readAllBytes();
     String credentials = new String(jsonCredentialsAsBytes, StandardCharsets.UTF_8);
@@ -465,22 +1711,105 @@ public class Server {
     String email = credentialsAsJSON.getString("email");
     String password = credentialsAsJSON.getString("password");
 
+    if (emailFilter != null && !emailFilter.mightContain(email)) {
+      Log.debug("Auth refused, unknown email");
+      DBInterfaceHelpers.sendResponseBackToClient(exchange, DBInterfaceHelpers.WRONG_CREDENTIALS);
+      return;
+    }
     try {
-      ResultSet rs =
-          queryProcessor.select("*").from("Player").where("email").is(email).executeSelect();
-      if (!rs.next()) {
+      Map.Entry<Integer, String> player =
+          queryInDatabaseStage(
+              "/auth",
+              () -> {
+                ResultSet rs =
+                    queryProcessor
+                        .select("*")
+                        .from("Player")
+                        .where("email")
+                        .is(email)
+                        .executeSelect();
+                return rs.next()
+                    ? new AbstractMap.SimpleImmutableEntry<>(
+                        rs.getInt("id"), rs.getString("password"))
+                    : null;
+              });
+      if (player == null && emailFilter != null) {
+        emailFilter.recordFalsePositive();
+      }
+      if (player == null || !passwordHasher.verify(password, player.getValue())) {
         response = DBInterfaceHelpers.WRONG_CREDENTIALS;
       } else {
-        if (!rs.getString("password").equals(password)) {
-          response = DBInterfaceHelpers.WRONG_CREDENTIALS;
-        } else {
-          response = DBInterfaceHelpers.LOGIN_SUCCESSFUL;
+        response = DBInterfaceHelpers.LOGIN_SUCCESSFUL;
+        exchange
+            .getResponseHeaders()
+            .set(SessionTokens.HEADER, sessionTokens.issue(player.getKey()));
+        if (passwordHasher.needsRehash(player.getValue())) {
+          rehashPassword(player.getKey(), password);
         }
       }
     } catch (SQLException e) {
       response = DBInterfaceHelpers.DB_ERROR;
     }
-    System.out.println("Auth successful");
+    Log.debug("Auth successful");
     DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
   }
+
+  /**
+   * Method for replacing the stored password of a player with a hash of the current cost. A
+   * failure leaves the old one in place, to be replaced on a later login
+   *
+   * @param playerId -- id of the player
+   * @param password -- password of the player, known to be right
+   * @throws IOException
+   */
+  private void rehashPassword(Integer playerId, String password) throws IOException {
+    try {
+      String passwordHash = passwordHasher.hash(password);
+      queryInDatabaseStage(
+          "/auth",
+          () -> {
+            queryProcessor
+                .update("Player")
+                .set("password")
+                .to(passwordHash)
+                .where("id")
+                .is(playerId)
+                .execute();
+            return null;
+          });
+    } catch (SQLException | RejectedExecutionException e) {
+      Log.warn("Password of player " + playerId + " not rehashed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Handler for Metrics Http Request. Answers with every metric in the Prometheus text format, for
+   * a Prometheus server to scrape
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @throws IOException
+   */
+  private void handleMetrics(HttpExchange exchange) throws IOException {
+    responseCompressor.attachTo(exchange);
+    exchange.getResponseHeaders().set("Content-Type", MetricsRegistry.CONTENT_TYPE);
+    DBInterfaceHelpers.sendResponseBackToClient(exchange, 200, metrics.scrape());
+  }
+
+  /**
+   * Handler for Logout Http Request. Revokes the session token sent with the request, without
+   * touching the database
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @throws IOException
+   */
+  private void handleLogout(HttpExchange exchange) throws IOException {
+    SessionTokens.Session session =
+        sessionTokens.verify(exchange.getRequestHeaders().getFirst(SessionTokens.HEADER));
+    if (session == null) {
+      DBInterfaceHelpers.sendResponseBackToClient(exchange, 401, DBInterfaceHelpers.UNAUTHORIZED);
+      return;
+    }
+    sessionTokens.revoke(session);
+    DBInterfaceHelpers.sendResponseBackToClient(exchange, DBInterfaceHelpers.SUCCESS);
+  }
 }
@@ -0,0 +1,67 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Properties;
+
+public class ServerConfig {
+
+  private static final String CONFIG_FILEPATH =
+      System.getenv("DB_CONFIG") != null ? System.getenv("DB_CONFIG") : "src/config.properties";
+
+  private final Properties properties;
+
+  public ServerConfig(Properties properties) {
+    this.properties = properties;
+  }
+
+  /**
+   * Method for loading the config file pointed to by DB_CONFIG (src/config.properties by default)
+   *
+   * @return ServerConfig -- empty if the file could not be read
+   */
+  public static ServerConfig load() {
+    return load(new Properties());
+  }
+
+  /**
+   * Method for loading the config file pointed to by DB_CONFIG, then setting the given keys over
+   * it, e.g. from the arguments of a command
+   *
+   * @param overrides -- keys taking precedence over those of the file
+   * @return ServerConfig
+   */
+  public static ServerConfig load(Properties overrides) {
+    Properties properties = new Properties();
+    try (FileReader fileReader = new FileReader(new File(CONFIG_FILEPATH))) {
+      properties.load(fileReader);
+    } catch (IOException e) {
+      Log.warn("Exception occurred when loading the config file", e);
+    }
+    properties.putAll(overrides);
+    return new ServerConfig(properties);
+  }
+
+  public String getString(String key, String defaultValue) {
+    String value = properties.getProperty(key);
+    return value != null ? value.trim() : defaultValue;
+  }
+
+  public String getString(String key) {
+    return getString(key, null);
+  }
+
+  public int getInt(String key, int defaultValue) {
+    String value = getString(key);
+    return value != null ? Integer.parseInt(value) : defaultValue;
+  }
+
+  public long getLong(String key, long defaultValue) {
+    String value = getString(key);
+    return value != null ? Long.parseLong(value) : defaultValue;
+  }
+
+  public boolean getBoolean(String key, boolean defaultValue) {
+    String value = getString(key);
+    return value != null ? Boolean.parseBoolean(value) : defaultValue;
+  }
+}
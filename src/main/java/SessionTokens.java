@@ -0,0 +1,233 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Signed session tokens handed out by /auth and /register, so that later requests can be tied to a
+ * player without looking credentials up in the Player table.
+ *
+ * <p>A token reads "playerId.expiresAt.tokenId.signature", the signature being the HMAC-SHA256 of
+ * the first three fields under the secret of the server. Checking one is thus a matter of
+ * recomputing a MAC in memory. Tokens revoked through /logout are remembered by id until they would
+ * have expired anyway.
+ */
+public class SessionTokens {
+
+  /** Header the token is sent back and forth in */
+  public static final String HEADER = "X-Session-Token";
+
+  private static final String ATTRIBUTE = "Session";
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int SECRET_BYTES = 32;
+  private static final int TOKEN_ID_BYTES = 16;
+
+  /** Player a token was issued to */
+  public static class Session {
+    private final int playerId;
+    private final long expiresAt;
+    private final String tokenId;
+
+    Session(int playerId, long expiresAt, String tokenId) {
+      this.playerId = playerId;
+      this.expiresAt = expiresAt;
+      this.tokenId = tokenId;
+    }
+
+    public int getPlayerId() {
+      return playerId;
+    }
+
+    /** Method for getting the time the token expires at, in seconds since the epoch */
+    public long getExpiresAt() {
+      return expiresAt;
+    }
+  }
+
+  private final SecretKeySpec key;
+  private final long ttlSeconds;
+  private final SecureRandom random = new SecureRandom();
+  private final ThreadLocal<Mac> macs;
+  private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+  private volatile int nextRevocationSweep = 1024;
+
+  /* Metrics */
+  private final LongAdder issued = new LongAdder();
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder refused = new LongAdder();
+
+  /**
+   * @param secret -- key the tokens are signed with, to be shared by every instance of the server
+   * @param ttlSeconds -- lifetime of a token
+   */
+  public SessionTokens(byte[] secret, long ttlSeconds) {
+    this.key = new SecretKeySpec(secret, ALGORITHM);
+    this.ttlSeconds = ttlSeconds;
+    this.macs =
+        ThreadLocal.withInitial(
+            () -> {
+              try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+              } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " not available", e);
+              }
+            });
+  }
+
+  /**
+   * Method for building the tokens described by the session.* keys of the config. Without a
+   * session.secret a random one is generated, so tokens do not outlive the process
+   *
+   * @param config -- server configuration
+   * @return SessionTokens
+   */
+  public static SessionTokens fromConfig(ServerConfig config) {
+    String encodedSecret = config.getString("session.secret");
+    byte[] secret;
+    if (encodedSecret != null) {
+      secret = Base64.getDecoder().decode(encodedSecret);
+    } else {
+      secret = new byte[SECRET_BYTES];
+      new SecureRandom().nextBytes(secret);
+      Log.warn("No session.secret configured, session tokens end with this process");
+    }
+    return new SessionTokens(secret, config.getLong("session.ttlSeconds", 86400L));
+  }
+
+  /**
+   * Method for issuing a token to a player
+   *
+   * @param playerId -- id of the player in the Player table
+   * @return String -- the token
+   */
+  public String issue(int playerId) {
+    byte[] id = new byte[TOKEN_ID_BYTES];
+    random.nextBytes(id);
+    long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+    String payload = playerId + "." + expiresAt + "." + encode(id);
+    issued.increment();
+    return payload + "." + encode(sign(payload));
+  }
+
+  /**
+   * Method for checking a token
+   *
+   * @param token -- token sent by the client, may be null
+   * @return Session -- null if the token is malformed, forged, expired or revoked
+   */
+  public Session verify(String token) {
+    Session session = token == null ? null : verify(token, System.currentTimeMillis() / 1000);
+    if (session == null) {
+      refused.increment();
+    } else {
+      accepted.increment();
+    }
+    return session;
+  }
+
+  /**
+   * Method for checking a token at a given time
+   *
+   * @param token -- token sent by the client
+   * @param now -- current time in seconds since the epoch
+   * @return Session -- null if the token is malformed, forged, expired or revoked
+   */
+  Session verify(String token, long now) {
+    int signatureAt = token.lastIndexOf('.');
+    if (signatureAt < 0) {
+      return null;
+    }
+    String payload = token.substring(0, signatureAt);
+    byte[] signature;
+    try {
+      signature = Base64.getUrlDecoder().decode(token.substring(signatureAt + 1));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (!MessageDigest.isEqual(signature, sign(payload))) {
+      return null;
+    }
+    String[] fields = payload.split("\\.");
+    if (fields.length != 3) {
+      return null;
+    }
+    try {
+      Session session =
+          new Session(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), fields[2]);
+      if (session.expiresAt <= now || revoked.containsKey(session.tokenId)) {
+        return null;
+      }
+      return session;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Method for revoking the token of a session before it expires
+   *
+   * @param session -- session returned by verify
+   */
+  public void revoke(Session session) {
+    revoked.put(session.tokenId, session.expiresAt);
+    if (revoked.size() >= nextRevocationSweep) {
+      long now = System.currentTimeMillis() / 1000;
+      revoked.values().removeIf(expiresAt -> expiresAt <= now);
+      nextRevocationSweep = Math.max(1024, revoked.size() * 2);
+    }
+  }
+
+  /** Method for attaching the session of a request to its exchange, for the handlers */
+  public static void attach(HttpExchange exchange, Session session) {
+    exchange.setAttribute(ATTRIBUTE, session);
+  }
+
+  /**
+   * Method for getting the session attached to an exchange
+   *
+   * @param exchange -- the HttpExchange to be processed
+   * @return Session -- null if the request carried no valid token
+   */
+  public static Session forExchange(HttpExchange exchange) {
+    Object session = exchange.getAttribute(ATTRIBUTE);
+    return session instanceof Session ? (Session) session : null;
+  }
+
+  private byte[] sign(String payload) {
+    return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String encode(byte[] bytes) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /** Counter -- tokens issued */
+  public long getIssued() {
+    return issued.sum();
+  }
+
+  /** Counter -- tokens that passed verification */
+  public long getAccepted() {
+    return accepted.sum();
+  }
+
+  /** Counter -- tokens missing or failing verification */
+  public long getRefused() {
+    return refused.sum();
+  }
+
+  /** Gauge -- revoked tokens remembered */
+  public int getRevokedTokens() {
+    return revoked.size();
+  }
+}
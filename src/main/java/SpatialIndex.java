@@ -0,0 +1,290 @@
+import org.postgis.PGgeometry;
+import org.postgis.Point;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory copy of a table of points, bucketed into a grid of fixed-size latitude/longitude cells,
+ * able to answer radius queries without going to the DB Server.
+ *
+ * <p>The rows are kept as the text the driver returned for them, so that serializing a match gives
+ * the same JSON as the SQL query would. Every write made through the Server to the table
+ * invalidates the index; the index is then reloaded in the background and, until that reload has
+ * completed, reports itself stale so that queries fall back to SQL. Periodic refreshes, which pick
+ * up writes made around the Server, keep answering from the current contents until the new ones
+ * replace them in a single swap. Distances are computed on a sphere, which may differ from PostGIS
+ * by a few metres at the very edge of the radius.
+ */
+public class SpatialIndex {
+
+  private static final double EARTH_RADIUS_METRES = 6371008.8;
+
+  /** Immutable contents of the index as of one load */
+  private static class Snapshot {
+    final long generation;
+    final String[] columnNames;
+    final int[] columnTypes;
+    final String[] columnTypeNames;
+    final Map<Long, List<Entry>> cells;
+    final List<Entry> entries;
+
+    Snapshot(
+        long generation,
+        String[] columnNames,
+        int[] columnTypes,
+        String[] columnTypeNames,
+        Map<Long, List<Entry>> cells,
+        List<Entry> entries) {
+      this.generation = generation;
+      this.columnNames = columnNames;
+      this.columnTypes = columnTypes;
+      this.columnTypeNames = columnTypeNames;
+      this.cells = cells;
+      this.entries = entries;
+    }
+  }
+
+  private static class Entry {
+    final int order;
+    final double longitude;
+    final double latitude;
+    final Object[] row;
+
+    Entry(int order, double longitude, double latitude, Object[] row) {
+      this.order = order;
+      this.longitude = longitude;
+      this.latitude = latitude;
+      this.row = row;
+    }
+  }
+
+  private final QueryProcessor queryProcessor;
+  private final String table;
+  private final String column;
+  private final double cellDegrees;
+  private final ScheduledExecutorService loader;
+
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicBoolean reloadScheduled = new AtomicBoolean(false);
+  private volatile Snapshot snapshot = null;
+
+  /**
+   * @param queryProcessor -- used to load the table
+   * @param table -- table holding the points
+   * @param column -- geometry column (SRID 4326) holding the points
+   * @param cellDegrees -- size of the grid cells in degrees
+   * @param loader -- executor the reloads run on
+   */
+  public SpatialIndex(
+      QueryProcessor queryProcessor,
+      String table,
+      String column,
+      double cellDegrees,
+      ScheduledExecutorService loader) {
+    this.queryProcessor = queryProcessor;
+    this.table = table;
+    this.column = column;
+    this.cellDegrees = cellDegrees;
+    this.loader = loader;
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  /** Method for checking whether the index reflects every write made through the Server */
+  public boolean isFresh() {
+    Snapshot current = snapshot;
+    return current != null && current.generation == generation.get();
+  }
+
+  public int size() {
+    Snapshot current = snapshot;
+    return current == null ? 0 : current.entries.size();
+  }
+
+  /** Method for marking the index as stale after a write to its table, and reloading it */
+  public void invalidate() {
+    generation.incrementAndGet();
+    scheduleReload(0);
+  }
+
+  /**
+   * Method for reloading the index in the background without marking it stale. Queries are still
+   * answered from the current contents until the reload swaps in the new ones
+   */
+  public void refresh() {
+    scheduleReload(0);
+  }
+
+  /**
+   * Method for reloading the index in the background. Reloads requested while one is already
+   * pending are merged into it
+   *
+   * @param delayMillis -- time to wait before reloading
+   */
+  public void scheduleReload(long delayMillis) {
+    if (reloadScheduled.compareAndSet(false, true)) {
+      try {
+        loader.schedule(this::reload, delayMillis, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // server shutting down
+        reloadScheduled.set(false);
+      }
+    }
+  }
+
+  private void reload() {
+    reloadScheduled.set(false);
+    try {
+      queryProcessor.borrowConnection();
+      load();
+    } catch (SQLException e) {
+      Log.warn("Could not load spatial index of " + table + ": " + e.getMessage());
+      scheduleReload(TimeUnit.SECONDS.toMillis(5));
+    } finally {
+      queryProcessor.releaseConnection();
+    }
+  }
+
+  /**
+   * Method for loading the whole table into the index, using the connection of the current thread
+   *
+   * @throws SQLException
+   */
+  public void load() throws SQLException {
+    long loadGeneration = generation.get();
+    ResultSet rs = queryProcessor.select("*").from(table).executeSelect();
+    ResultSetMetaData rsMetaData = rs.getMetaData();
+    int columnCount = rsMetaData.getColumnCount();
+    String[] columnNames = new String[columnCount];
+    int[] columnTypes = new int[columnCount];
+    String[] columnTypeNames = new String[columnCount];
+    int locationColumn = -1;
+    for (int i = 0; i < columnCount; i++) {
+      columnNames[i] = rsMetaData.getColumnName(i + 1);
+      columnTypes[i] = rsMetaData.getColumnType(i + 1);
+      columnTypeNames[i] = rsMetaData.getColumnTypeName(i + 1);
+      if (columnNames[i].equalsIgnoreCase(column)) {
+        locationColumn = i;
+      }
+    }
+    if (locationColumn < 0) {
+      throw new SQLException("Column " + column + " not found in " + table);
+    }
+
+    Map<Long, List<Entry>> cells = new HashMap<>();
+    List<Entry> entries = new ArrayList<>();
+    while (rs.next()) {
+      Object[] row = new Object[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+        row[i] = rs.getString(i + 1);
+      }
+      if (row[locationColumn] == null) {
+        continue;
+      }
+      Point point = PGgeometry.geomFromString(row[locationColumn].toString()).getFirstPoint();
+      Entry entry = new Entry(entries.size(), point.x, point.y, row);
+      entries.add(entry);
+      cells.computeIfAbsent(cellOf(point.y, point.x), cell -> new ArrayList<>()).add(entry);
+    }
+    snapshot =
+        new Snapshot(loadGeneration, columnNames, columnTypes, columnTypeNames, cells, entries);
+    Log.info("Spatial index of " + table + " loaded with " + entries.size() + " rows");
+  }
+
+  /**
+   * Method for finding the rows within a distance of a point
+   *
+   * @param latitude -- latitude of the centre
+   * @param longitude -- longitude of the centre
+   * @param radius -- distance in metres
+   * @return ResultSet -- the matching rows in table order, null if the index is stale
+   */
+  public ResultSet withinRadiusOf(double latitude, double longitude, double radius) {
+    Snapshot current = snapshot;
+    if (current == null || current.generation != generation.get()) {
+      return null;
+    }
+    double degrees = DBInterfaceHelpers.metresToDegrees(radius, latitude);
+    long minLat = cellIndex(Math.max(-90.0, latitude - degrees));
+    long maxLat = cellIndex(Math.min(90.0, latitude + degrees));
+    long minLon = cellIndex(longitude - degrees);
+    long maxLon = cellIndex(longitude + degrees);
+
+    List<Entry> matches = new ArrayList<>();
+    long cellsToVisit = (maxLat - minLat + 1) * (maxLon - minLon + 1);
+    boolean crossesAntimeridian = longitude - degrees < -180.0 || longitude + degrees > 180.0;
+    if (crossesAntimeridian || cellsToVisit > current.cells.size()) {
+      addMatches(current.entries, latitude, longitude, radius, matches);
+    } else {
+      for (long lat = minLat; lat <= maxLat; lat++) {
+        for (long lon = minLon; lon <= maxLon; lon++) {
+          List<Entry> cell = current.cells.get(cellKey(lat, lon));
+          if (cell != null) {
+            addMatches(cell, latitude, longitude, radius, matches);
+          }
+        }
+      }
+      matches.sort((a, b) -> Integer.compare(a.order, b.order));
+    }
+
+    List<Object[]> rows = new ArrayList<>(matches.size());
+    for (Entry entry : matches) {
+      rows.add(entry.row);
+    }
+    return InMemoryResultSet.of(
+        current.columnNames, current.columnTypes, current.columnTypeNames,
+        Collections.unmodifiableList(rows));
+  }
+
+  private static void addMatches(
+      List<Entry> candidates,
+      double latitude,
+      double longitude,
+      double radius,
+      List<Entry> matches) {
+    for (Entry entry : candidates) {
+      if (distance(latitude, longitude, entry.latitude, entry.longitude) <= radius) {
+        matches.add(entry);
+      }
+    }
+  }
+
+  /** Great-circle distance in metres between two points, by the haversine formula */
+  static double distance(double lat1, double lon1, double lat2, double lon2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLon = Math.toRadians(lon2 - lon1);
+    double a =
+        Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2)
+                * Math.sin(dLon / 2);
+    return 2 * EARTH_RADIUS_METRES * Math.asin(Math.min(1.0, Math.sqrt(a)));
+  }
+
+  private long cellIndex(double degrees) {
+    return (long) Math.floor(degrees / cellDegrees);
+  }
+
+  private long cellOf(double latitude, double longitude) {
+    return cellKey(cellIndex(latitude), cellIndex(longitude));
+  }
+
+  private static long cellKey(long latitudeCell, long longitudeCell) {
+    return (latitudeCell << 32) ^ (longitudeCell & 0xffffffffL);
+  }
+}
@@ -0,0 +1,213 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of the prepared statements of a single connection, keyed by the SQL text with
+ * its whitespace normalized outside of quotes. A connection is only ever used by one thread at a
+ * time, so the cache itself is not synchronized. Statements are closed when they are evicted.
+ */
+public class StatementCache {
+
+  /** Hit, miss and eviction counts of a cache, or summed over the caches of a pool */
+  public static final class Counters {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** Counter -- statements found in the cache */
+    public long getHits() {
+      return hits.sum();
+    }
+
+    /** Counter -- statements prepared for lack of a cached one */
+    public long getMisses() {
+      return misses.sum();
+    }
+
+    /** Counter -- statements closed to make room in the cache */
+    public long getEvictions() {
+      return evictions.sum();
+    }
+  }
+
+  private final Connection connection;
+  private final LinkedHashMap<String, PreparedStatement> statements;
+  private final Counters counters = new Counters();
+  private final Counters totals;
+
+  public StatementCache(Connection connection, int maxSize) {
+    this(connection, maxSize, null);
+  }
+
+  /**
+   * @param connection -- connection the statements are prepared on
+   * @param maxSize -- number of statements kept before the least recently used is closed
+   * @param totals -- counters also updated by this cache, e.g. those of its pool, may be null
+   */
+  public StatementCache(Connection connection, int maxSize, Counters totals) {
+    this.connection = connection;
+    this.totals = totals;
+    this.statements =
+        new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= maxSize) {
+              return false;
+            }
+            evicted();
+            closeQuietly(eldest.getValue());
+            return true;
+          }
+        };
+  }
+
+  /**
+   * Method for getting a prepared statement for the given SQL, preparing it on a miss
+   *
+   * @param sql -- SQL text of the statement
+   * @return PreparedStatement -- possibly already used by a previous request on this connection
+   * @throws SQLException
+   */
+  public PreparedStatement prepare(String sql) throws SQLException {
+    String key = normalize(sql);
+    PreparedStatement stmt = statements.get(key);
+    if (stmt != null) {
+      hit();
+      return stmt;
+    }
+    missed();
+    stmt = connection.prepareStatement(sql);
+    statements.put(key, stmt);
+    return stmt;
+  }
+
+  /**
+   * Method for getting a prepared statement whose generated keys can be read after execution
+   *
+   * @param sql -- SQL text of the statement
+   * @param keyColumns -- names of the columns to be returned by getGeneratedKeys()
+   * @return PreparedStatement -- possibly already used by a previous request on this connection
+   * @throws SQLException
+   */
+  public PreparedStatement prepare(String sql, String[] keyColumns) throws SQLException {
+    String key = normalize(sql) + " RETURNING " + String.join(",", keyColumns);
+    PreparedStatement stmt = statements.get(key);
+    if (stmt != null) {
+      hit();
+      return stmt;
+    }
+    missed();
+    stmt = connection.prepareStatement(sql, keyColumns);
+    statements.put(key, stmt);
+    return stmt;
+  }
+
+  /** Method for closing every cached statement */
+  public void clear() {
+    for (PreparedStatement stmt : statements.values()) {
+      closeQuietly(stmt);
+    }
+    statements.clear();
+  }
+
+  public int size() {
+    return statements.size();
+  }
+
+  /** Counters of this cache alone */
+  public Counters getCounters() {
+    return counters;
+  }
+
+  private void hit() {
+    counters.hits.increment();
+    if (totals != null) {
+      totals.hits.increment();
+    }
+  }
+
+  private void missed() {
+    counters.misses.increment();
+    if (totals != null) {
+      totals.misses.increment();
+    }
+  }
+
+  private void evicted() {
+    counters.evictions.increment();
+    if (totals != null) {
+      totals.evictions.increment();
+    }
+  }
+
+  /**
+   * Method for collapsing runs of whitespace into a single space, so that statements differing
+   * only in formatting share a cache entry. Whitespace inside '...' literals and "..." identifiers
+   * is kept as it is, and text with a backslash or a '$' (escape strings, dollar quoting) is not
+   * normalized at all, as its quotes cannot be told apart by this scan
+   *
+   * @param sql -- SQL text to be normalized
+   * @return String -- the same instance if there was nothing to collapse
+   */
+  static String normalize(String sql) {
+    if (sql.indexOf('\\') >= 0 || sql.indexOf('$') >= 0) {
+      return sql;
+    }
+    int len = sql.length();
+    boolean previousWasSpace = true;
+    char quote = 0;
+    for (int i = 0; i < len; i++) {
+      char c = sql.charAt(i);
+      if (quote != 0 || c == '\'' || c == '"') {
+        // a doubled quote inside a literal closes and reopens it, which keeps it whole
+        quote = quote == 0 ? c : c == quote ? 0 : quote;
+        previousWasSpace = false;
+        continue;
+      }
+      boolean space = Character.isWhitespace(c);
+      if (space && (previousWasSpace || c != ' ' || i == len - 1)) {
+        return collapse(sql);
+      }
+      previousWasSpace = space;
+    }
+    return sql;
+  }
+
+  private static String collapse(String sql) {
+    StringBuilder sb = new StringBuilder(sql.length());
+    boolean pendingSpace = false;
+    char quote = 0;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0 || c == '\'' || c == '"') {
+        quote = quote == 0 ? c : c == quote ? 0 : quote;
+        if (pendingSpace) {
+          sb.append(' ');
+          pendingSpace = false;
+        }
+        sb.append(c);
+      } else if (Character.isWhitespace(c)) {
+        pendingSpace = sb.length() > 0;
+      } else {
+        if (pendingSpace) {
+          sb.append(' ');
+          pendingSpace = false;
+        }
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void closeQuietly(PreparedStatement stmt) {
+    try {
+      stmt.close();
+    } catch (SQLException e) {
+      Log.warn("Error occured when closing cached statement: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,217 @@
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * QueryProcessor whose connections answer every statement from memory after a configurable delay,
+ * standing in for the DB Server when measuring the overheads of the server itself. Everything
+ * above the JDBC driver runs as usual: the pool, the statement cache, the concurrency limiter,
+ * the builders and the serialization of the results.
+ *
+ * <p>Every query returns the same stub.rows rows of a player with the email and password given
+ * by EMAIL and PASSWORD, so that /auth succeeds for them and the email filter knows them. Inserts
+ * and updates report one row affected, batches one per statement with ids counting from 1.
+ */
+public class StubQueryProcessor extends QueryProcessor {
+
+  public static final String EMAIL = "loadtest@example.com";
+  public static final String PASSWORD = "loadtest";
+
+  private static final String[] COLUMNS = {
+    "id", "player_id", "email", "password", "xp", "cash", "ts", "url", "name", "description"
+  };
+  private static final int[] TYPES = {
+    Types.INTEGER,
+    Types.INTEGER,
+    Types.VARCHAR,
+    Types.VARCHAR,
+    Types.INTEGER,
+    Types.INTEGER,
+    Types.TIMESTAMP,
+    Types.VARCHAR,
+    Types.VARCHAR,
+    Types.VARCHAR
+  };
+  private static final String[] TYPE_NAMES = {
+    "int4", "int4", "varchar", "varchar", "int4", "int4", "timestamp", "varchar", "varchar",
+    "varchar"
+  };
+
+  private final long latencyNanos;
+  private final long jitterNanos;
+  private final List<Object[]> rows;
+
+  /**
+   * @param config -- server configuration, whose password.iterations the stored hash is made with
+   * @param latencyMicros -- time taken by every statement
+   * @param jitterMicros -- further time taken, uniformly distributed up to this
+   * @param rowCount -- rows returned by every query
+   */
+  public StubQueryProcessor(
+      ServerConfig config, long latencyMicros, long jitterMicros, int rowCount) {
+    super(config);
+    this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    this.jitterNanos = TimeUnit.MICROSECONDS.toNanos(jitterMicros);
+
+    PasswordHasher hasher =
+        new PasswordHasher(config.getInt("password.iterations", 210000), 1, 1, 1);
+    String storedPassword = hasher.hash(PASSWORD);
+    hasher.shutdown();
+    List<Object[]> stubRows = new ArrayList<>(rowCount);
+    for (int i = 1; i <= rowCount; i++) {
+      stubRows.add(
+          new Object[] {
+            i,
+            i,
+            EMAIL,
+            storedPassword,
+            100 * i,
+            10 * i,
+            new Timestamp(System.currentTimeMillis()),
+            "https://storage.example.com/images/" + i + ".jpg",
+            "Landmark " + i,
+            "Stand-in row " + i + " of the load-test database"
+          });
+    }
+    this.rows = Collections.unmodifiableList(stubRows);
+  }
+
+  /**
+   * Method for building the stub described by the stub.* keys of the config
+   *
+   * @param config -- server configuration
+   * @return StubQueryProcessor
+   */
+  public static StubQueryProcessor fromConfig(ServerConfig config) {
+    return new StubQueryProcessor(
+        config,
+        config.getLong("stub.latencyMicros", 1000L),
+        config.getLong("stub.jitterMicros", 0L),
+        config.getInt("stub.rows", 10));
+  }
+
+  @Override
+  protected Connection openConnection() {
+    boolean[] autoCommit = {true};
+    return (Connection)
+        Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] {Connection.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "prepareStatement":
+                  return statement((String) args[0]);
+                case "getAutoCommit":
+                  return autoCommit[0];
+                case "setAutoCommit":
+                  autoCommit[0] = (Boolean) args[0];
+                  return null;
+                case "isValid":
+                  return true;
+                case "isClosed":
+                  return false;
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "equals":
+                  return args[0] == proxy;
+                case "toString":
+                  return "StubConnection";
+                default:
+                  return defaultValue(method.getReturnType());
+              }
+            });
+  }
+
+  /** Statement whose executions wait for the latency, then return the stub rows */
+  private PreparedStatement statement(String sql) {
+    // statements queued by addBatch, and run by the last executeBatch
+    int[] batched = {0, 0};
+    // hasSpatialIndex reads pg_indexes, whose rows are not those of a player
+    boolean empty = sql.contains("pg_indexes");
+    return (PreparedStatement)
+        Proxy.newProxyInstance(
+            PreparedStatement.class.getClassLoader(),
+            new Class<?>[] {PreparedStatement.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "executeQuery":
+                  awaitLatency();
+                  return empty ? resultOf(Collections.emptyList()) : resultOf(rows);
+                case "executeUpdate":
+                  awaitLatency();
+                  return 1;
+                case "addBatch":
+                  batched[0]++;
+                  return null;
+                case "clearBatch":
+                  batched[0] = 0;
+                  return null;
+                case "executeBatch":
+                  {
+                    awaitLatency();
+                    int[] counts = new int[batched[0]];
+                    Arrays.fill(counts, 1);
+                    batched[1] = batched[0];
+                    batched[0] = 0;
+                    return counts;
+                  }
+                case "getGeneratedKeys":
+                  {
+                    List<Object[]> ids = new ArrayList<>(batched[1]);
+                    for (int i = 1; i <= batched[1]; i++) {
+                      ids.add(new Object[] {i});
+                    }
+                    return InMemoryResultSet.of(new String[] {"id"}, ids);
+                  }
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "equals":
+                  return args[0] == proxy;
+                case "toString":
+                  return sql;
+                default:
+                  return defaultValue(method.getReturnType());
+              }
+            });
+  }
+
+  private static ResultSet resultOf(List<Object[]> rows) {
+    return InMemoryResultSet.of(COLUMNS, TYPES, TYPE_NAMES, rows);
+  }
+
+  private void awaitLatency() {
+    long nanos = latencyNanos;
+    if (jitterNanos > 0) {
+      nanos += ThreadLocalRandom.current().nextLong(jitterNanos + 1);
+    }
+    long deadline = System.nanoTime() + nanos;
+    for (long left = nanos; left > 0; left = deadline - System.nanoTime()) {
+      LockSupport.parkNanos(left);
+    }
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    } else if (type == double.class) {
+      return 0d;
+    } else if (type == float.class) {
+      return 0f;
+    }
+    return null;
+  }
+}
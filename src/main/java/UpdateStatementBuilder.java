@@ -1,45 +1,80 @@
 import org.postgis.PGgeometry;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class UpdateStatementBuilder implements WhereClauseBuilder {
 
   private StringBuilder sqlUpdateStatement = new StringBuilder();
   private PreparedStatement stmt = null;
-  private Connection connection;
+  private PooledConnection connection;
 
-  private String toString = null;
-  private Integer toInt = null;
-  private Timestamp toTimestamp = null;
-  private PGgeometry toPGeometry = null;
+  /* Values of the assignments, in the order of their placeholders */
+  private final List<Object> setValues = new ArrayList<>();
+  private int assignments = 0;
 
-  public UpdateStatementBuilder(Connection connection, String table) {
+  public UpdateStatementBuilder(PooledConnection connection, String table) {
     this.connection = connection;
     sqlUpdateStatement.append("UPDATE ").append(table);
   }
 
+  /**
+   * Method for assigning a value to a column, given by the next call to to(). May be called
+   * several times to assign several columns in one statement
+   *
+   * @param column -- name of the column to be set
+   * @return UpdateStatementBuilder
+   */
   public UpdateStatementBuilder set(String column) {
-    sqlUpdateStatement.append(" SET ").append(column).append(" = ?");
+    appendAssignment().append(column).append(" = ?");
     return this;
   }
 
+  /**
+   * Method for adding to the value of a numeric column, the amount being given by the next call to
+   * by(). Yields "column = column + ?", so the row is updated without being read first
+   *
+   * @param column -- name of the column to be added to
+   * @return UpdateStatementBuilder
+   */
+  public UpdateStatementBuilder add(String column) {
+    appendAssignment().append(column).append(" = ").append(column).append(" + ?");
+    return this;
+  }
+
+  private StringBuilder appendAssignment() {
+    sqlUpdateStatement.append(assignments++ == 0 ? " SET " : ", ");
+    return sqlUpdateStatement;
+  }
+
   public UpdateStatementBuilder to(String value) {
-    toString = value;
+    setValues.add(value);
     return this;
   }
 
   public UpdateStatementBuilder to(Integer value) {
-    toInt = value;
+    setValues.add(value);
     return this;
   }
 
   public UpdateStatementBuilder to(Timestamp value) {
-    toTimestamp = value;
+    setValues.add(value);
     return this;
   }
 
   public UpdateStatementBuilder to(PGgeometry value) {
-    toPGeometry = value;
+    setValues.add(value);
+    return this;
+  }
+
+  public UpdateStatementBuilder by(Integer amount) {
+    setValues.add(amount);
+    return this;
+  }
+
+  public UpdateStatementBuilder by(Long amount) {
+    setValues.add(amount);
     return this;
   }
 
@@ -52,51 +87,59 @@ public class UpdateStatementBuilder implements WhereClauseBuilder {
 
   @Override
   public UpdateStatementBuilder is(String value) throws SQLException {
-    setFirstStatementParam();
-    stmt.setString(2, value);
+    stmt.setString(setSetValues(), value);
     return this;
   }
 
   @Override
   public UpdateStatementBuilder is(Integer value) throws SQLException {
-    setFirstStatementParam();
-    stmt.setInt(2, value);
+    stmt.setInt(setSetValues(), value);
     return this;
   }
 
   @Override
   public UpdateStatementBuilder is(Timestamp value) throws SQLException {
-    setFirstStatementParam();
-    stmt.setTimestamp(2, value);
+    stmt.setTimestamp(setSetValues(), value);
     return this;
   }
 
   @Override
   public UpdateStatementBuilder is(PGgeometry value) throws SQLException {
-    setFirstStatementParam();
-    stmt.setObject(2, value);
+    stmt.setObject(setSetValues(), value);
     return this;
   }
 
   @Override
   public void execute() throws SQLException {
-    DBInterfaceHelpers.executeSQLStatement(stmt);
+    connection.executeUpdate(stmt);
   }
 
   public StringBuilder getSQLStatement() {
     return sqlUpdateStatement;
   }
 
-  private void setFirstStatementParam() throws SQLException {
-    if (toString != null) {
-      stmt.setString(1, toString);
-    } else if (toInt != null) {
-      stmt.setInt(1, toInt);
-    } else if (toTimestamp != null) {
-      stmt.setTimestamp(1, toTimestamp);
-    } else if (toPGeometry != null) {
-      stmt.setObject(1, toPGeometry);
+  /**
+   * Method for binding the values of the assignments
+   *
+   * @return int -- index of the placeholder of the WHERE clause, which follows them
+   */
+  private int setSetValues() throws SQLException {
+    int index = 1;
+    for (Object value : setValues) {
+      if (value instanceof String) {
+        stmt.setString(index, (String) value);
+      } else if (value instanceof Integer) {
+        stmt.setInt(index, (Integer) value);
+      } else if (value instanceof Long) {
+        stmt.setLong(index, (Long) value);
+      } else if (value instanceof Timestamp) {
+        stmt.setTimestamp(index, (Timestamp) value);
+      } else {
+        stmt.setObject(index, value);
+      }
+      index++;
     }
+    return index;
   }
 
   @Override
@@ -0,0 +1,196 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor on which the Server runs its request handlers. Three modes are supported: a bounded
+ * pool of platform threads, a work-stealing pool and one virtual thread per request. Every mode
+ * keeps the same queue-depth and active-worker gauges so the pool can be sized under load.
+ */
+public class WorkerExecutor implements Executor {
+
+  public static final String FIXED = "fixed";
+  public static final String WORK_STEALING = "workstealing";
+  public static final String VIRTUAL = "virtual";
+
+  /* Defaults of the bounded pool, shared by fromConfig and the constructors of Server */
+  public static final int DEFAULT_THREADS_PER_CORE = 4;
+  public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+  private final String mode;
+  private final ExecutorService delegate;
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger active = new AtomicInteger();
+  private final LongAdder completed = new LongAdder();
+
+  private WorkerExecutor(String mode, ExecutorService delegate) {
+    this.mode = mode;
+    this.delegate = delegate;
+  }
+
+  /**
+   * Method for creating a bounded pool of platform threads. Once the queue is full the task is run
+   * on the submitting (dispatcher) thread, which stops the server from accepting more work. After
+   * shutdown() further tasks are rejected with a RejectedExecutionException
+   *
+   * @param threads -- number of worker threads
+   * @param queueCapacity -- maximum number of requests waiting for a worker
+   */
+  public static WorkerExecutor fixed(int threads, int queueCapacity) {
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            namedDaemonThreads("http-worker-"),
+            (task, executor) -> {
+              if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor has been shut down");
+              }
+              task.run();
+            });
+    return new WorkerExecutor(FIXED, pool);
+  }
+
+  /** Method for creating the bounded pool used when nothing is configured */
+  public static WorkerExecutor fixed() {
+    return fixed(
+        DEFAULT_THREADS_PER_CORE * Runtime.getRuntime().availableProcessors(),
+        DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Method for creating a work-stealing pool
+   *
+   * @param parallelism -- targeted number of active threads
+   */
+  public static WorkerExecutor workStealing(int parallelism) {
+    return new WorkerExecutor(WORK_STEALING, Executors.newWorkStealingPool(parallelism));
+  }
+
+  /**
+   * Method for creating an executor which starts a new virtual thread for every request. Virtual
+   * threads are looked up reflectively since the project still compiles for Java 9; on older
+   * runtimes an unbounded cached pool of platform threads is used instead
+   */
+  public static WorkerExecutor virtual() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return new WorkerExecutor(VIRTUAL, (ExecutorService) factory.invoke(null));
+    } catch (ReflectiveOperationException e) {
+      Log.warn("Virtual threads not supported by this JVM...using a cached thread pool");
+      return new WorkerExecutor(
+          VIRTUAL, Executors.newCachedThreadPool(namedDaemonThreads("http-worker-")));
+    }
+  }
+
+  /**
+   * Method for building the executor described by the server.executor.* keys of the config
+   *
+   * @param config -- server configuration
+   * @return WorkerExecutor -- a bounded pool of platform threads by default
+   */
+  public static WorkerExecutor fromConfig(ServerConfig config) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    String mode = config.getString("server.executor", FIXED);
+    switch (mode) {
+      case WORK_STEALING:
+        return workStealing(config.getInt("server.executor.threads", cores));
+      case VIRTUAL:
+        return virtual();
+      case FIXED:
+        return fixed(
+            config.getInt("server.executor.threads", cores * DEFAULT_THREADS_PER_CORE),
+            config.getInt("server.executor.queueCapacity", DEFAULT_QUEUE_CAPACITY));
+      default:
+        throw new IllegalArgumentException("Unknown server.executor mode: " + mode);
+    }
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    queued.incrementAndGet();
+    try {
+      delegate.execute(
+          () -> {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            try {
+              task.run();
+            } finally {
+              active.decrementAndGet();
+              completed.increment();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      queued.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /** Method for stopping the workers once the requests already submitted have been handled */
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  /**
+   * Method for waiting for the workers to finish after shutdown()
+   *
+   * @param timeout -- longest time to wait
+   * @param unit -- unit of the timeout
+   * @return boolean -- whether every worker finished in time
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+
+  public String getMode() {
+    return mode;
+  }
+
+  /** Gauge -- number of requests waiting for a worker */
+  public int getQueueDepth() {
+    return queued.get();
+  }
+
+  /** Gauge -- number of requests currently being handled */
+  public int getActiveWorkers() {
+    return active.get();
+  }
+
+  /** Counter -- number of requests handled since startup */
+  public long getCompletedTasks() {
+    return completed.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "executor="
+        + mode
+        + " queued="
+        + getQueueDepth()
+        + " active="
+        + getActiveWorkers()
+        + " completed="
+        + getCompletedTasks();
+  }
+
+  static ThreadFactory namedDaemonThreads(String prefix) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
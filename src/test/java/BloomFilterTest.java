@@ -0,0 +1,36 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+  @Test
+  public void addedEmailsAlwaysFound() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.add("player" + i + "@example.com");
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(filter.mightContain("player" + i + "@example.com"));
+    }
+    assertEquals(10000, filter.getInsertions());
+  }
+
+  @Test
+  public void falsePositiveRateCloseToTheOneSizedFor() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.add("player" + i + "@example.com");
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain("stranger" + i + "@example.com")) {
+        falsePositives++;
+      }
+    }
+    double expected = filter.getExpectedFalsePositiveRate();
+    assertTrue(String.valueOf(expected), expected > 0.005 && expected < 0.015);
+    assertTrue(String.valueOf(falsePositives), falsePositives < 2 * 0.01 * 100000);
+  }
+}
@@ -0,0 +1,107 @@
+import org.junit.Test;
+
+import java.sql.SQLTransientException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimiterTest {
+
+  @Test
+  public void limitCutOnceWhenLatencyRises() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(true, 4, 1, 8, 3.0, 0.5, 50);
+    long slowestMillis = 0;
+    for (int i = 0; i < 50; i++) {
+      long start = System.nanoTime();
+      limiter.execute(
+          () -> {
+            sleep(1);
+            return null;
+          });
+      slowestMillis = Math.max(slowestMillis, (System.nanoTime() - start) / 1_000_000 + 1);
+    }
+    long backoffs = limiter.getBackoffs();
+    int limit = limiter.getLimit();
+    // slow enough to push the short-term average past 3 times any long-term one, however noisy
+    // the warm-up was on a busy machine
+    long slowMillis = Math.max(100, 40 * slowestMillis);
+    limiter.execute(
+        () -> {
+          sleep(slowMillis);
+          return null;
+        });
+    assertTrue(limiter.getLimit() < limit);
+    assertEquals(backoffs + 1, limiter.getBackoffs());
+    assertEquals(51, limiter.getExecuted());
+  }
+
+  @Test
+  public void limitGrowsWhileQueriesComeCloseToIt() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(true, 2, 1, 8, 1e9, 0.5, 50);
+    for (int i = 0; i < 3; i++) {
+      limiter.execute(() -> limiter.execute(() -> null));
+    }
+    assertEquals(3, limiter.getLimit());
+    assertEquals(0, limiter.getBackoffs());
+  }
+
+  @Test
+  public void queryOverTheLimitFailsAfterTheTimeout() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(true, 1, 1, 1, 2.0, 0.5, 50);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread holder =
+        new Thread(
+            () -> {
+              try {
+                limiter.execute(
+                    () -> {
+                      running.countDown();
+                      awaitQuietly(release);
+                      return null;
+                    });
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+    holder.start();
+    running.await(5, TimeUnit.SECONDS);
+
+    long start = System.nanoTime();
+    try {
+      limiter.execute(
+          () -> {
+            fail("must not run");
+            return null;
+          });
+      fail("expected no room under the limit");
+    } catch (SQLTransientException e) {
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+    assertEquals(1, limiter.getTimeouts());
+    assertEquals(1, limiter.getInFlight());
+
+    release.countDown();
+    holder.join();
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,130 @@
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+
+  @Rule public JUnitRuleMockery context = new JUnitRuleMockery();
+  Connection first = context.mock(Connection.class, "first");
+  Connection second = context.mock(Connection.class, "second");
+
+  ConnectionPool pool;
+
+  @After
+  public void closePool() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  private ConnectionPool poolOf(int max, boolean validate, Connection... connections) {
+    int[] next = {0};
+    return new ConnectionPool(() -> connections[next[0]++], 0, max, 60000, 50, validate, 1, 8);
+  }
+
+  @Test
+  public void releasedConnectionIsReused() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            allowing(first).isClosed();
+            will(returnValue(false));
+            allowing(first).getAutoCommit();
+            will(returnValue(true));
+          }
+        });
+    pool = poolOf(1, false, first);
+    PooledConnection borrowed = pool.borrow();
+    pool.release(borrowed);
+    assertSame(borrowed, pool.borrow());
+    assertEquals(1, pool.getCreatedConnections());
+    assertEquals(2, pool.getBorrowCount());
+  }
+
+  @Test(expected = SQLTransientConnectionException.class)
+  public void borrowTimesOutWhenPoolIsExhausted() throws SQLException {
+    pool = poolOf(1, false, first, second);
+    pool.borrow();
+    try {
+      pool.borrow();
+    } finally {
+      assertEquals(1, pool.getBorrowTimeouts());
+    }
+  }
+
+  @Test
+  public void invalidConnectionIsReplacedOnBorrow() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            allowing(first).isClosed();
+            will(returnValue(false));
+            allowing(first).getAutoCommit();
+            will(returnValue(true));
+            oneOf(first).isValid(1);
+            will(returnValue(false));
+            oneOf(first).close();
+          }
+        });
+    pool = poolOf(1, true, first, second);
+    pool.release(pool.borrow());
+    assertSame(second, pool.borrow().getConnection());
+    assertEquals(1, pool.getValidationFailures());
+    assertEquals(1, pool.getTotalConnections());
+  }
+
+  @Test
+  public void openTransactionIsRolledBackOnRelease() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            allowing(first).isClosed();
+            will(returnValue(false));
+            oneOf(first).getAutoCommit();
+            will(returnValue(false));
+            oneOf(first).rollback();
+            oneOf(first).setAutoCommit(true);
+            oneOf(first).close();
+          }
+        });
+    pool = poolOf(1, false, first);
+    pool.release(pool.borrow());
+    assertEquals(1, pool.getIdleConnections());
+  }
+
+  @Test
+  public void connectFailsWhenTheFirstConnectionsCannotBeOpened() {
+    Properties properties = new Properties();
+    properties.setProperty("pool.minSize", "1");
+    int[] attempts = {0};
+    QueryProcessor queryProcessor =
+        new QueryProcessor(new ServerConfig(properties)) {
+          @Override
+          protected Connection openConnection() throws SQLException {
+            attempts[0]++;
+            throw new SQLException("Connection refused");
+          }
+        };
+    for (int i = 1; i <= 2; i++) {
+      try {
+        queryProcessor.connect();
+        fail("Connected without a connection");
+      } catch (SQLException e) {
+        assertEquals("Connection refused", e.getMessage());
+      }
+      // no pool is kept, so the next call tries again
+      assertEquals(i, attempts[0]);
+    }
+  }
+}
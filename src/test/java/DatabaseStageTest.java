@@ -0,0 +1,87 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DatabaseStageTest {
+
+  private final DatabaseStage stage = new DatabaseStage(1, 1, 50);
+
+  @After
+  public void shutdownStage() {
+    stage.shutdown();
+  }
+
+  private Thread submitInBackground(String endpoint, CountDownLatch release) {
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                stage.execute(endpoint, () -> awaitQuietly(release));
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  public void workRejectedOnceWorkersAndQueueAreFull() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Thread running = submitInBackground("/select", release);
+    while (stage.getActiveWorkers() < 1) {
+      Thread.sleep(1);
+    }
+    Thread queued = submitInBackground("/select", release);
+    while (stage.getQueueDepth() < 1) {
+      Thread.sleep(1);
+    }
+
+    long start = System.nanoTime();
+    try {
+      stage.execute("/geoSelect", () -> fail("must not run"));
+      fail("expected the stage to reject the work");
+    } catch (RejectedExecutionException e) {
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    release.countDown();
+    running.join();
+    queued.join();
+    assertEquals(2, stage.getEndpointStats().get("/select").getExecuted());
+    assertEquals(0, stage.getEndpointStats().get("/select").getRejected());
+    assertEquals(1, stage.getEndpointStats().get("/geoSelect").getRejected());
+    assertTrue(stage.getEndpointStats().get("/select").getMaxQueueNanos() > 0);
+  }
+
+  @Test
+  public void exceptionOfWorkRethrownToCaller() {
+    try {
+      stage.execute(
+          "/insert",
+          () -> {
+            throw new IOException("client went away");
+          });
+      fail("expected the IOException of the work");
+    } catch (IOException e) {
+      assertEquals("client went away", e.getMessage());
+    }
+    assertEquals(1, stage.getEndpointStats().get("/insert").getExecuted());
+  }
+}
@@ -0,0 +1,97 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JSONResultWriterTest {
+
+  private static String written(ResultSet rs) throws SQLException, IOException {
+    StringWriter out = new StringWriter();
+    new JSONResultWriter(rs).writeArray(out);
+    return out.toString();
+  }
+
+  private static void assertSameAsJSONObjects(String[] columns, List<Object[]> rows)
+      throws SQLException, IOException {
+    String expected =
+        DBInterfaceHelpers.getJSONfromResultSet(InMemoryResultSet.of(columns, rows));
+    assertEquals(expected, written(InMemoryResultSet.of(columns, rows)));
+  }
+
+  @Test
+  public void emptyResultWrittenAsEmptyArray() throws SQLException, IOException {
+    assertSameAsJSONObjects(new String[] {"id", "url"}, Collections.emptyList());
+  }
+
+  @Test
+  public void rowsMatchGetJSONfromResultSet() throws SQLException, IOException {
+    assertSameAsJSONObjects(
+        new String[] {"id", "ts", "player_id", "url"},
+        Arrays.asList(
+            new Object[] {"1", "2020-06-29 07:05:05.0", "12", "https://example.com/a.png"},
+            new Object[] {"2", "2020-06-29 07:05:06.0", "12", "quote \" and </script>"}));
+  }
+
+  @Test
+  public void nullColumnsAndKeyOrderMatchGetJSONfromResultSet() throws SQLException, IOException {
+    String[] columns = new String[20];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = "column_" + i;
+    }
+    List<Object[]> rows = new ArrayList<>();
+    for (int r = 0; r < 40; r++) {
+      Object[] row = new Object[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        row[i] = (r + i) % 3 == 0 ? null : "v" + r + "_" + i;
+      }
+      rows.add(row);
+    }
+    assertSameAsJSONObjects(columns, rows);
+  }
+
+  @Test
+  public void lastOfDuplicateColumnsWins() throws SQLException, IOException {
+    assertSameAsJSONObjects(
+        new String[] {"id", "location", "id", "url"},
+        Arrays.asList(new Object[] {"1", "0101", "7", "a"}, new Object[] {"2", null, null, "b"}));
+  }
+
+  @Test
+  public void typedValuesFollowColumnTypes() throws SQLException, IOException {
+    ResultSet rs =
+        InMemoryResultSet.of(
+            new String[] {"id", "xp", "ratio", "ts", "url", "location"},
+            new int[] {
+              Types.INTEGER, Types.BIGINT, Types.DOUBLE, Types.TIMESTAMP, Types.VARCHAR, Types.OTHER
+            },
+            new String[] {"int4", "int8", "float8", "timestamp", "varchar", "geometry"},
+            Arrays.asList(
+                new Object[] {
+                  7,
+                  1200L,
+                  0.25,
+                  Timestamp.valueOf("2020-06-29 07:05:05"),
+                  "a\"b",
+                  "SRID=4326;POINT(-0.1795 51.4988)"
+                },
+                new Object[] {8, null, null, null, null, "SRID=4326;LINESTRING(0 0,1 1)"}));
+    StringWriter out = new StringWriter();
+    new JSONResultWriter(rs, true).writeArray(out);
+    assertEquals(
+        "[{\"id\":7,\"xp\":1200,\"ratio\":0.25,\"ts\":\"2020-06-29T07:05:05\",\"url\":\"a\\\"b\","
+            + "\"location\":{\"type\":\"Point\",\"coordinates\":[-0.1795,51.4988]}}, "
+            + "{\"id\":8,\"xp\":null,\"ratio\":null,\"ts\":null,\"url\":null,"
+            + "\"location\":{\"type\":\"LineString\",\"coordinates\":[[0.0,0.0],[1.0,1.0]]}}]",
+        out.toString());
+  }
+}
@@ -0,0 +1,42 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void percentilesAreWithinTheRelativeErrorOfTheBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros <= 10000; micros++) {
+      histogram.record(micros * 1000);
+    }
+
+    assertEquals(10000, histogram.getCount());
+    assertEquals(50005000L * 1000, histogram.getTotalNanos());
+    assertWithin(5_000_000, histogram.getValueAtPercentile(50));
+    assertWithin(9_900_000, histogram.getValueAtPercentile(99));
+    assertWithin(9_990_000, histogram.getValueAtPercentile(99.9));
+    assertWithin(10_000_000, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void smallAndHugeDurationsAreCounted() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(50));
+
+    histogram.record(-5);
+    histogram.record(17);
+    histogram.record(Long.MAX_VALUE);
+
+    assertEquals(0, histogram.getValueAtPercentile(1));
+    assertEquals(17, histogram.getValueAtPercentile(50));
+    assertTrue(histogram.getValueAtPercentile(100) >= 1L << 40);
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(
+        "expected about " + expected + " but was " + actual,
+        actual >= expected && actual <= expected + expected / 32);
+  }
+}
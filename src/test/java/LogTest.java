@@ -0,0 +1,176 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogTest {
+
+  /** Writer collecting the lines written, that can be held up on its first write */
+  private static final class CapturingWriter extends Writer {
+    private final CountDownLatch release;
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final StringBuilder text = new StringBuilder();
+
+    private CapturingWriter(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+      writing.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (text) {
+        text.append(chars, offset, length);
+      }
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    /** Messages written, without the timestamp, level and thread in front of them */
+    private List<String> messages() {
+      List<String> messages = new ArrayList<>();
+      synchronized (text) {
+        for (String line : text.toString().split("\n")) {
+          if (!line.isEmpty()) {
+            messages.add(line.substring(line.indexOf("] ") + 2));
+          }
+        }
+      }
+      return messages;
+    }
+  }
+
+  @After
+  public void restoreLevel() {
+    Log.setLevel(Log.Level.INFO);
+  }
+
+  @After
+  public void restoreConsole() {
+    Log.replaceRing(8192, Log.console());
+  }
+
+  @Test
+  public void messagesBelowTheLevelAreNotBuilt() {
+    Log.setLevel(Log.Level.INFO);
+    AtomicInteger built = new AtomicInteger();
+
+    Log.debug(() -> "statement " + built.incrementAndGet());
+
+    assertFalse(Log.isDebugEnabled());
+    assertEquals(0, built.get());
+
+    Log.setLevel(Log.Level.DEBUG);
+    Log.debug(() -> "statement " + built.incrementAndGet());
+    Log.flush();
+
+    assertTrue(Log.isDebugEnabled());
+    assertEquals(1, built.get());
+  }
+
+  @Test
+  public void levelsAreOrderedBySeverity() {
+    Log.setLevel(Log.Level.WARN);
+
+    assertFalse(Log.isEnabled(Log.Level.INFO));
+    assertTrue(Log.isEnabled(Log.Level.WARN));
+    assertTrue(Log.isEnabled(Log.Level.ERROR));
+
+    Log.setLevel(Log.Level.OFF);
+    assertFalse(Log.isEnabled(Log.Level.ERROR));
+  }
+
+  @Test
+  public void flushWaitsForTheWriter() {
+    for (int i = 0; i < 100; i++) {
+      Log.info("message " + i);
+    }
+    Log.flush();
+
+    assertEquals(0, Log.getPending());
+  }
+
+  @Test(timeout = 5000)
+  public void messagesDroppedWithoutWaitingOnceTheRingIsFull() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CapturingWriter out = new CapturingWriter(release);
+    Log.replaceRing(4, out);
+    try {
+      long droppedBefore = Log.getDropped();
+      Log.info("taken by the writer");
+      assertTrue(out.writing.await(1, TimeUnit.SECONDS));
+      for (int i = 0; i < 10; i++) {
+        Log.info("message " + i);
+      }
+
+      assertEquals(4, Log.getPending());
+      assertEquals(droppedBefore + 6, Log.getDropped());
+      release.countDown();
+      Log.flush();
+      assertEquals(0, Log.getPending());
+      List<String> expected = new ArrayList<>();
+      expected.add("taken by the writer");
+      for (int i = 0; i < 4; i++) {
+        expected.add("message " + i);
+      }
+      assertEquals(expected, out.messages());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void messagesOfEveryProducerKeepTheirOrder() throws Exception {
+    CapturingWriter out = new CapturingWriter(new CountDownLatch(0));
+    Log.replaceRing(1 << 16, out);
+    int producers = 4;
+    int messages = 2000;
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      int producer = p;
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < messages; i++) {
+                  Log.info(producer + " " + i);
+                }
+              }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Log.flush();
+
+    int[] next = new int[producers];
+    for (String message : out.messages()) {
+      if (!message.matches("\\d+ \\d+")) {
+        continue;
+      }
+      String[] fields = message.split(" ");
+      int producer = Integer.parseInt(fields[0]);
+      assertEquals(next[producer]++, Integer.parseInt(fields[1]));
+    }
+    for (int p = 0; p < producers; p++) {
+      assertEquals(messages, next[p]);
+    }
+  }
+}
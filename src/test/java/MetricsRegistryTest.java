@@ -0,0 +1,63 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+  @Test
+  public void requestsAreWrittenAsSummariesByEndpointAndPhase() throws InterruptedException {
+    MetricsRegistry metrics = new MetricsRegistry();
+    RequestTimer timer = new RequestTimer("/insert/gallery");
+    long begunAt = timer.begin();
+    Thread.sleep(2);
+    timer.end(RequestTimer.Phase.SQL, begunAt);
+    timer.setStatus(200);
+    metrics.record(timer);
+
+    String scrape = metrics.scrape();
+
+    assertTrue(scrape.contains("# TYPE wannabeez_request_duration_seconds summary\n"));
+    assertTrue(
+        scrape.contains(
+            "wannabeez_request_duration_seconds_count{endpoint=\"/insert/gallery\",phase=\"sql\"} 1\n"));
+    assertTrue(
+        scrape.contains(
+            "wannabeez_request_duration_seconds_count{endpoint=\"/insert/gallery\",phase=\"parse\"} 1\n"));
+    assertTrue(
+        scrape.contains(
+            "wannabeez_request_duration_seconds{endpoint=\"/insert/gallery\",phase=\"total\","
+                + "quantile=\"0.99\"} 0.00"));
+    assertFalse(scrape.contains("phase=\"write\""));
+    assertTrue(
+        scrape.contains(
+            "wannabeez_responses_total{endpoint=\"/insert/gallery\",status=\"200\"} 1\n"));
+  }
+
+  @Test
+  public void registeredMetricsAreReadAtScrapeTime() {
+    MetricsRegistry metrics = new MetricsRegistry();
+    long[] borrows = {3};
+    metrics.counter("db_pool_borrows_total", "Connections borrowed", () -> borrows[0]);
+    metrics.gauge("db_pool_connections", "Connections by state", () -> 2, "state", "idle");
+    metrics.gauge("db_pool_connections", "Connections by state", () -> 0.5, "state", "a\"b");
+    borrows[0] = 7;
+
+    String scrape = metrics.scrape();
+
+    assertTrue(scrape.contains("# TYPE wannabeez_db_pool_borrows_total counter\n"));
+    assertTrue(scrape.contains("wannabeez_db_pool_borrows_total 7\n"));
+    assertEquals(1, count(scrape, "# TYPE wannabeez_db_pool_connections gauge"));
+    assertTrue(scrape.contains("wannabeez_db_pool_connections{state=\"idle\"} 2\n"));
+    assertTrue(scrape.contains("wannabeez_db_pool_connections{state=\"a\\\"b\"} 0.5\n"));
+  }
+
+  private static int count(String text, String part) {
+    int count = 0;
+    for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+      count++;
+    }
+    return count;
+  }
+}
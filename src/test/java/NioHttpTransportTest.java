@@ -0,0 +1,130 @@
+import com.sun.net.httpserver.BasicAuthenticator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NioHttpTransportTest {
+
+  private WorkerExecutor executor;
+  private NioHttpTransport transport;
+
+  @Before
+  public void startTransport() throws IOException {
+    executor = WorkerExecutor.fixed(2, 16);
+    transport =
+        new NioHttpTransport(
+            new InetSocketAddress("localhost", 0), executor, 16, 5000, 1024, 512, 4096, 4);
+    transport.createContext(
+        "/echo",
+        exchange -> {
+          byte[] body = exchange.getRequestBody().readAllBytes();
+          String response = exchange.getRequestURI().getQuery() + ":" + body.length;
+          DBInterfaceHelpers.sendResponseBackToClient(exchange, response);
+        });
+    transport.createContext(
+        "/stream",
+        exchange -> {
+          exchange.sendResponseHeaders(200, 0);
+          OutputStream out = exchange.getResponseBody();
+          for (int i = 0; i < 1000; i++) {
+            out.write('x');
+          }
+          out.close();
+        });
+    transport.start();
+  }
+
+  @After
+  public void stopTransport() {
+    transport.stop(0);
+    executor.shutdown();
+  }
+
+  private String exchange(String request) throws IOException {
+    try (Socket socket = new Socket("localhost", transport.getAddress().getPort())) {
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+      InputStream in = socket.getInputStream();
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        response.write(buffer, 0, n);
+      }
+      return response.toString("ISO-8859-1");
+    }
+  }
+
+  @Test
+  public void pipelinedRequestsAnsweredInOrderOnOneConnection() throws IOException {
+    String response =
+        exchange(
+            "GET /echo?first HTTP/1.1\r\nHost: test\r\n\r\n"
+                + "POST /echo?second HTTP/1.1\r\nHost: test\r\nContent-Length: 3\r\n\r\nabc"
+                + "GET /echo?third HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+    int first = response.indexOf("first:0");
+    int second = response.indexOf("second:3");
+    int third = response.indexOf("third:0");
+    assertTrue(response, first > 0 && second > first && third > second);
+    assertEquals(3, response.split("HTTP/1.1 200 OK").length - 1);
+  }
+
+  @Test
+  public void bodyOfUnknownLengthSentInChunks() throws IOException {
+    String response = exchange("GET /stream HTTP/1.1\r\nConnection: close\r\n\r\n");
+    assertTrue(response, response.contains("Transfer-encoding: chunked"));
+    String body = response.substring(response.indexOf("\r\n\r\n") + 4);
+    StringBuilder expected = new StringBuilder("3e8\r\n");
+    for (int i = 0; i < 1000; i++) {
+      expected.append('x');
+    }
+    assertEquals(expected.append("\r\n0\r\n\r\n").toString(), body);
+  }
+
+  @Test
+  public void authenticatorOfTheContextCheckedBeforeTheHandler() throws IOException {
+    transport
+        .findContext("/echo")
+        .setAuthenticator(
+            new BasicAuthenticator("test") {
+              @Override
+              public boolean checkCredentials(String username, String password) {
+                return "user".equals(username) && "secret".equals(password);
+              }
+            });
+    String refused = exchange("GET /echo?x HTTP/1.1\r\nConnection: close\r\n\r\n");
+    assertTrue(refused, refused.startsWith("HTTP/1.1 401 "));
+    assertTrue(refused, refused.contains("Basic realm=\"test\""));
+
+    String credentials =
+        Base64.getEncoder().encodeToString("user:secret".getBytes(StandardCharsets.UTF_8));
+    String accepted =
+        exchange(
+            "GET /echo?x HTTP/1.1\r\nAuthorization: Basic "
+                + credentials
+                + "\r\nConnection: close\r\n\r\n");
+    assertTrue(accepted, accepted.startsWith("HTTP/1.1 200 ") && accepted.contains("x:0"));
+  }
+
+  @Test
+  public void malformedAndUnroutedRequestsRefused() throws IOException {
+    assertTrue(exchange("nonsense\r\n\r\n").startsWith("HTTP/1.1 400 "));
+    assertTrue(
+        exchange("GET /nowhere HTTP/1.1\r\nConnection: close\r\n\r\n")
+            .startsWith("HTTP/1.1 404 "));
+    String tooLarge = "POST /echo HTTP/1.1\r\nContent-Length: 5000\r\n\r\n";
+    assertTrue(exchange(tooLarge).startsWith("HTTP/1.1 413 "));
+  }
+}
@@ -0,0 +1,133 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PasswordHasherTest {
+
+  private final PasswordHasher hasher = new PasswordHasher(1000, 1, 1, 1);
+
+  @After
+  public void shutdownHasher() {
+    hasher.shutdown();
+  }
+
+  @Test
+  public void hashedPasswordVerifiedAndSaltedEveryTime() {
+    String hash = hasher.hash("hunter2");
+    assertTrue(hash, hash.startsWith("pbkdf2-sha256$1000$"));
+    assertNotEquals(hash, hasher.hash("hunter2"));
+    assertTrue(hasher.verify("hunter2", hash));
+    assertFalse(hasher.verify("hunter3", hash));
+    assertFalse(hasher.needsRehash(hash));
+    assertEquals(4, hasher.getHashes());
+  }
+
+  @Test
+  public void plainTextAndCheaperHashesToBeRehashed() {
+    assertTrue(hasher.verify("hunter2", "hunter2"));
+    assertFalse(hasher.verify("hunter2", "hunter3"));
+    assertTrue(hasher.needsRehash("hunter2"));
+
+    PasswordHasher cheaper = new PasswordHasher(500, 1, 1, 1);
+    String cheaperHash = cheaper.hash("hunter2");
+    cheaper.shutdown();
+    assertTrue(hasher.needsRehash(cheaperHash));
+    assertTrue(hasher.verify("hunter2", cheaperHash));
+  }
+
+  @Test
+  public void malformedHashesFailVerification() {
+    assertFalse(hasher.verify("hunter2", "pbkdf2-sha256$many$c2FsdA$aGFzaA"));
+    assertFalse(hasher.verify("hunter2", "pbkdf2-sha256$1000$not base64!$aGFzaA"));
+    assertFalse(hasher.verify("hunter2", "pbkdf2-sha256$0$c2FsdA$aGFzaA"));
+    assertFalse(hasher.verify("hunter2", "pbkdf2-sha256$1000$$"));
+    assertTrue(hasher.needsRehash("pbkdf2-sha256$many$c2FsdA$aGFzaA"));
+    assertEquals(0, hasher.getHashes());
+  }
+
+  @Test
+  public void requestsRejectedOnceMaxRequestsAreHandled() throws Exception {
+    CountDownLatch admitted = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread handling =
+        new Thread(
+            () -> {
+              try {
+                hasher.admit(
+                    () -> {
+                      admitted.countDown();
+                      awaitQuietly(release);
+                    });
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+    handling.start();
+    assertTrue(admitted.await(5, TimeUnit.SECONDS));
+    try {
+      hasher.admit(() -> fail("must not run"));
+      fail("expected the request to be rejected");
+    } catch (RejectedExecutionException e) {
+      assertEquals(1, hasher.getRejectedRequests());
+    } finally {
+      release.countDown();
+      handling.join();
+    }
+    AtomicBoolean ran = new AtomicBoolean();
+    hasher.admit(() -> ran.set(true));
+    assertTrue(ran.get());
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  public void passwordsRejectedOnceThreadAndQueueAreBusy() throws Exception {
+    PasswordHasher slow = new PasswordHasher(2_000_000, 1, 1, 1);
+    Runnable hashing =
+        () -> {
+          try {
+            slow.hash("hunter2");
+          } catch (RuntimeException e) {
+            // Cancelled by shutdown
+          }
+        };
+    Thread running = new Thread(hashing);
+    Thread queued = new Thread(hashing);
+    running.start();
+    while (slow.getActiveHashers() < 1) {
+      Thread.sleep(1);
+    }
+    queued.start();
+    while (slow.getQueueDepth() < 1) {
+      Thread.sleep(1);
+    }
+    try {
+      slow.hash("hunter2");
+      fail("expected the hash to be rejected");
+    } catch (RejectedExecutionException e) {
+      assertEquals(1, slow.getRejected());
+    } finally {
+      slow.shutdown();
+      running.join();
+      queued.join();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PlayerStatsBufferTest {
+
+  private static final String TWO_ROW_UPDATE =
+      "UPDATE Player_Stats AS s SET xp = s.xp + d.xp, cash = s.cash + d.cash FROM (VALUES"
+          + " (?::integer, ?::bigint, ?::bigint), (?::integer, ?::bigint, ?::bigint))"
+          + " AS d(player_id, xp, cash) WHERE s.player_id = d.player_id";
+
+  private static final String ONE_ROW_UPDATE =
+      "UPDATE Player_Stats AS s SET xp = s.xp + d.xp, cash = s.cash + d.cash FROM (VALUES"
+          + " (?::integer, ?::bigint, ?::bigint))"
+          + " AS d(player_id, xp, cash) WHERE s.player_id = d.player_id";
+
+  @Rule public JUnitRuleMockery context = new JUnitRuleMockery();
+  Connection mockJDBCconnection = context.mock(Connection.class);
+  PreparedStatement mockStatement = context.mock(PreparedStatement.class);
+  PreparedStatement mockSingleRowStatement =
+      context.mock(PreparedStatement.class, "mockSingleRowStatement");
+
+  QueryProcessor queryProcessor = new QueryProcessor(mockJDBCconnection);
+  PlayerStatsBuffer buffer = new PlayerStatsBuffer(queryProcessor, 3600000, 10000, 512);
+
+  @After
+  public void closeBuffer() {
+    buffer.close();
+  }
+
+  @Test
+  public void incrementsOfAPlayerAreCoalescedIntoOneRow() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1).of(mockJDBCconnection).prepareStatement(TWO_ROW_UPDATE);
+            will(returnValue(mockStatement));
+            allowing(mockStatement).setInt(with(any(Integer.class)), with(any(Integer.class)));
+            oneOf(mockStatement).setLong(with(any(Integer.class)), with(equal(80L)));
+            oneOf(mockStatement).setLong(with(any(Integer.class)), with(equal(-10L)));
+            allowing(mockStatement).setLong(with(any(Integer.class)), with(equal(0L)));
+            allowing(mockStatement).setLong(with(any(Integer.class)), with(equal(5L)));
+            exactly(1).of(mockStatement).executeUpdate();
+            will(returnValue(2));
+          }
+        });
+
+    buffer.increment(7, 50, 0);
+    buffer.increment(7, 30, -10);
+    buffer.increment(9, 0, 5);
+    assertEquals(2, buffer.getPendingPlayers());
+
+    buffer.flush();
+
+    assertEquals(0, buffer.getPendingPlayers());
+    assertEquals(3, buffer.getIncrements());
+    assertEquals(2, buffer.getFlushedRows());
+  }
+
+  @Test
+  public void incrementsAreKeptWhenTheFlushFails() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            allowing(mockJDBCconnection).prepareStatement(with(any(String.class)));
+            will(throwException(new SQLTransientException("connection lost")));
+          }
+        });
+
+    buffer.increment(7, 50, 0);
+    buffer.increment(9, 0, 5);
+    try {
+      buffer.flush();
+      fail("flush should have failed");
+    } catch (SQLException e) {
+      // expected
+    }
+
+    assertEquals(2, buffer.getPendingPlayers());
+    assertEquals(1, buffer.getFlushFailures());
+    assertEquals(0, buffer.getFlushedRows());
+  }
+
+  @Test
+  public void rowsRefusedForTheirDataAreRetriedAloneAndDropped() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            allowing(mockJDBCconnection).prepareStatement(TWO_ROW_UPDATE);
+            will(returnValue(mockStatement));
+            allowing(mockJDBCconnection).prepareStatement(ONE_ROW_UPDATE);
+            will(returnValue(mockSingleRowStatement));
+            allowing(mockStatement).setInt(with(any(Integer.class)), with(any(Integer.class)));
+            allowing(mockStatement).setLong(with(any(Integer.class)), with(any(Long.class)));
+            oneOf(mockStatement).executeUpdate();
+            will(throwException(new SQLDataException("integer out of range", "22003")));
+            allowing(mockSingleRowStatement)
+                .setInt(with(any(Integer.class)), with(any(Integer.class)));
+            allowing(mockSingleRowStatement)
+                .setLong(with(any(Integer.class)), with(any(Long.class)));
+            oneOf(mockSingleRowStatement).executeUpdate();
+            will(returnValue(1));
+            oneOf(mockSingleRowStatement).executeUpdate();
+            will(throwException(new SQLDataException("integer out of range", "22003")));
+          }
+        });
+
+    buffer.increment(7, 50, 0);
+    buffer.increment(9, 0, 5);
+    buffer.flush();
+
+    assertEquals(0, buffer.getPendingPlayers());
+    assertEquals(1, buffer.getFlushedRows());
+    assertEquals(1, buffer.getDroppedRows());
+    assertEquals(2, buffer.getFlushFailures());
+  }
+
+  @Test
+  public void incrementsBeyondTheLimitAreRefused() {
+    try {
+      buffer.increment(7, PlayerStatsBuffer.MAX_INCREMENT + 1, 0);
+      fail("expected the increment to be refused");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(0, buffer.getPendingPlayers());
+    assertEquals(0, buffer.getIncrements());
+  }
+}
@@ -4,9 +4,18 @@ import org.jmock.Expectations;
 import org.jmock.integration.junit4.JUnitRuleMockery;
 import org.postgis.PGgeometry;
 import org.postgis.Point;
+import org.jmock.Sequence;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 public class QueryProcessorInsertTest {
 
@@ -59,7 +68,8 @@ public class QueryProcessorInsertTest {
           {
             exactly(1)
                 .of(mockJDBCconnection)
-                .prepareStatement("insert into Player_Stats values(?, ?, ?)");
+                .prepareStatement(
+                    "insert into Player_Stats values(?, ?, ?) on conflict (player_id) do nothing");
           }
         });
 
@@ -75,7 +85,7 @@ public class QueryProcessorInsertTest {
             exactly(1)
                 .of(mockJDBCconnection)
                 .prepareStatement(
-                    "insert into Location values(?, ST_SetSRID(ST_MakePoint(84.7, 42.7), 4326)::geography::geometry)");
+                    "insert into Location values(?, ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography::geometry)");
           }
         });
 
@@ -93,7 +103,7 @@ public class QueryProcessorInsertTest {
                 .prepareStatement(
                     "insert into Landmark"
                         + " (\"location\", \"type\", \"description\") "
-                        + "values(ST_SetSRID(ST_MakePoint(6.12, 7.56),4326), ?, ?)");
+                        + "values(ST_SetSRID(ST_MakePoint(?, ?),4326), ?, ?)");
           }
         });
 
@@ -158,10 +168,308 @@ public class QueryProcessorInsertTest {
                 .of(mockJDBCconnection)
                 .prepareStatement(
                     "insert into Quest_Location"
-                        + " values(?, ST_SetSRID(ST_MakePoint(81.89, 65.3), 4326)::geography::geometry)");
+                        + " values(?, ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography::geometry)");
           }
         });
 
     queryProcessor.addNewQuestLocation(26, 81.89f, 65.3f);
   }
+
+  @Test
+  public void batchInsertIntoGalleryTableRunsInOneTransaction() throws SQLException {
+    PreparedStatement stmt = context.mock(PreparedStatement.class);
+    ResultSet keys = context.mock(ResultSet.class);
+    Sequence batch = context.sequence("batch");
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "insert into Gallery" + " (\"ts\", \"player_id\", \"url\") " + " values(?, ?, ?)",
+                    new String[] {"id"});
+            will(returnValue(stmt));
+            oneOf(stmt).setTimestamp(1, exampleTS);
+            inSequence(batch);
+            oneOf(stmt).setInt(2, 2);
+            inSequence(batch);
+            oneOf(stmt).setString(3, "first_url");
+            inSequence(batch);
+            oneOf(stmt).addBatch();
+            inSequence(batch);
+            oneOf(stmt).setTimestamp(1, exampleTS);
+            inSequence(batch);
+            oneOf(stmt).setInt(2, 3);
+            inSequence(batch);
+            oneOf(stmt).setString(3, "second_url");
+            inSequence(batch);
+            oneOf(stmt).addBatch();
+            inSequence(batch);
+            oneOf(mockJDBCconnection).getAutoCommit();
+            will(returnValue(true));
+            inSequence(batch);
+            oneOf(mockJDBCconnection).setAutoCommit(false);
+            inSequence(batch);
+            oneOf(stmt).executeBatch();
+            will(returnValue(new int[] {1, 1}));
+            inSequence(batch);
+            oneOf(stmt).getGeneratedKeys();
+            will(returnValue(keys));
+            inSequence(batch);
+            oneOf(keys).next();
+            will(returnValue(true));
+            inSequence(batch);
+            oneOf(keys).getInt(1);
+            will(returnValue(41));
+            inSequence(batch);
+            oneOf(keys).next();
+            will(returnValue(true));
+            inSequence(batch);
+            oneOf(keys).getInt(1);
+            will(returnValue(42));
+            inSequence(batch);
+            oneOf(keys).next();
+            will(returnValue(false));
+            inSequence(batch);
+            oneOf(mockJDBCconnection).commit();
+            inSequence(batch);
+            oneOf(stmt).clearBatch();
+            inSequence(batch);
+            oneOf(mockJDBCconnection).setAutoCommit(true);
+            inSequence(batch);
+          }
+        });
+
+    List<Integer> ids =
+        queryProcessor.addNewImageMetaData(
+            Arrays.asList(
+                new ImageObject(2, 0, exampleTS, "first_url"),
+                new ImageObject(3, 0, exampleTS, "second_url")));
+
+    assertEquals(Arrays.asList(41, 42), ids);
+  }
+
+  @Test
+  public void batchInsertIntoQuestLocationTableRunsInOneTransaction() throws SQLException {
+    PreparedStatement stmt = context.mock(PreparedStatement.class);
+    Sequence batch = context.sequence("batch");
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "insert into Quest_Location"
+                        + " values(?, ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography::geometry)");
+            will(returnValue(stmt));
+            oneOf(stmt).setInt(1, 26);
+            inSequence(batch);
+            oneOf(stmt).setDouble(2, 81.89);
+            inSequence(batch);
+            oneOf(stmt).setDouble(3, 65.3);
+            inSequence(batch);
+            oneOf(stmt).addBatch();
+            inSequence(batch);
+            oneOf(stmt).setInt(1, 27);
+            inSequence(batch);
+            oneOf(stmt).setDouble(2, 81.9);
+            inSequence(batch);
+            oneOf(stmt).setDouble(3, 65.4);
+            inSequence(batch);
+            oneOf(stmt).addBatch();
+            inSequence(batch);
+            oneOf(mockJDBCconnection).getAutoCommit();
+            will(returnValue(true));
+            inSequence(batch);
+            oneOf(mockJDBCconnection).setAutoCommit(false);
+            inSequence(batch);
+            oneOf(stmt).executeBatch();
+            will(returnValue(new int[] {1, 1}));
+            inSequence(batch);
+            oneOf(mockJDBCconnection).commit();
+            inSequence(batch);
+            oneOf(stmt).clearBatch();
+            inSequence(batch);
+            oneOf(mockJDBCconnection).setAutoCommit(true);
+            inSequence(batch);
+          }
+        });
+
+    queryProcessor.addNewQuestLocations(
+        Arrays.asList(new LocationObject(26, 81.89f, 65.3f), new LocationObject(27, 81.9f, 65.4f)));
+  }
+
+  @Test
+  public void failedBatchIsRolledBack() throws SQLException {
+    PreparedStatement stmt = context.mock(PreparedStatement.class);
+    context.checking(
+        new Expectations() {
+          {
+            allowing(mockJDBCconnection)
+                .prepareStatement(with(any(String.class)), with(any(String[].class)));
+            will(returnValue(stmt));
+            ignoring(stmt).setTimestamp(with(any(int.class)), with(any(Timestamp.class)));
+            ignoring(stmt).setInt(with(any(int.class)), with(any(int.class)));
+            ignoring(stmt).setString(with(any(int.class)), with(any(String.class)));
+            oneOf(stmt).addBatch();
+            oneOf(mockJDBCconnection).getAutoCommit();
+            will(returnValue(true));
+            oneOf(mockJDBCconnection).setAutoCommit(false);
+            oneOf(stmt).executeBatch();
+            will(throwException(new SQLException("duplicate key")));
+            oneOf(mockJDBCconnection).rollback();
+            never(mockJDBCconnection).commit();
+            oneOf(stmt).clearBatch();
+            oneOf(mockJDBCconnection).setAutoCommit(true);
+          }
+        });
+
+    try {
+      queryProcessor.addNewImageMetaData(
+          Arrays.asList(new ImageObject(2, 0, exampleTS, "first_url")));
+      fail("Failed batch reported as inserted");
+    } catch (SQLException e) {
+      assertEquals("duplicate key", e.getMessage());
+    }
+  }
+
+  @Test
+  public void upsertIntoPlayerStatsTableParsedCorrectly() throws SQLException {
+
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "insert into Player_Stats values(?, ?, ?) on conflict (player_id)"
+                        + " do update set xp = excluded.xp, cash = excluded.cash returning *");
+          }
+        });
+
+    queryProcessor.upsertPlayerStats(3, 100, 20);
+  }
+
+  @Test
+  public void upsertIntoLocationTableParsedCorrectly() throws SQLException {
+
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "insert into Location"
+                        + " values(?, ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography::geometry)"
+                        + " on conflict (id) do update set location = excluded.location"
+                        + " returning *");
+          }
+        });
+
+    queryProcessor.upsertLocation(3, -0.17f, 51.49f);
+  }
+
+  @Test
+  public void upsertIntoQuestTypeTableParsedCorrectly() throws SQLException {
+
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "insert into Quest_Type (\"name\") values(?) on conflict (name)"
+                        + " do update set name = excluded.name returning *");
+          }
+        });
+
+    queryProcessor.upsertQuestType("treasure hunt");
+  }
+
+  @Test
+  public void insertIntoPlayerTableIfAbsentReturnsNullForTakenEmail() throws SQLException {
+
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "insert into Player (\"email\", \"password\") values(?, ?)"
+                        + " on conflict (email) do nothing returning id");
+          }
+        });
+
+    // the default ResultSet of the mock has no row, as when the email is taken
+    assertNull(queryProcessor.addNewPlayerIfAbsent("email", "password"));
+  }
+
+  @Test
+  public void registeredPlayerAndStatsCommittedTogether() throws SQLException {
+    PreparedStatement playerStmt = context.mock(PreparedStatement.class, "playerStmt");
+    PreparedStatement statsStmt = context.mock(PreparedStatement.class, "statsStmt");
+    Sequence registration = context.sequence("registration");
+    context.checking(
+        new Expectations() {
+          {
+            oneOf(mockJDBCconnection).getAutoCommit();
+            will(returnValue(true));
+            inSequence(registration);
+            oneOf(mockJDBCconnection).setAutoCommit(false);
+            inSequence(registration);
+            oneOf(mockJDBCconnection)
+                .prepareStatement(
+                    "insert into Player (\"email\", \"password\") values(?, ?)"
+                        + " on conflict (email) do nothing returning id");
+            will(returnValue(playerStmt));
+            ignoring(playerStmt).setString(with(any(int.class)), with(any(String.class)));
+            oneOf(playerStmt).executeQuery();
+            will(
+                returnValue(
+                    InMemoryResultSet.of(
+                        new String[] {"id"}, Arrays.<Object[]>asList(new Object[] {5}))));
+            inSequence(registration);
+            oneOf(mockJDBCconnection)
+                .prepareStatement(
+                    "insert into Player_Stats values(?, ?, ?) on conflict (player_id) do nothing");
+            will(returnValue(statsStmt));
+            oneOf(statsStmt).setInt(1, 5);
+            oneOf(statsStmt).setInt(2, 0);
+            oneOf(statsStmt).setInt(3, 10);
+            oneOf(statsStmt).executeUpdate();
+            will(returnValue(1));
+            inSequence(registration);
+            oneOf(mockJDBCconnection).commit();
+            inSequence(registration);
+            oneOf(mockJDBCconnection).setAutoCommit(true);
+            inSequence(registration);
+          }
+        });
+
+    assertEquals(Integer.valueOf(5), queryProcessor.registerPlayer("email", "hash", 0, 10));
+  }
+
+  @Test
+  public void failedRegistrationIsRolledBack() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            oneOf(mockJDBCconnection).getAutoCommit();
+            will(returnValue(true));
+            oneOf(mockJDBCconnection).setAutoCommit(false);
+            oneOf(mockJDBCconnection).prepareStatement(with(any(String.class)));
+            will(throwException(new SQLException("connection reset")));
+            oneOf(mockJDBCconnection).rollback();
+            never(mockJDBCconnection).commit();
+            oneOf(mockJDBCconnection).setAutoCommit(true);
+          }
+        });
+
+    try {
+      queryProcessor.registerPlayer("email", "hash", 0, 0);
+      fail("Failed registration reported as committed");
+    } catch (SQLException e) {
+      assertEquals("connection reset", e.getMessage());
+    }
+  }
 }
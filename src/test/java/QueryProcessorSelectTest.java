@@ -1,4 +1,5 @@
 import org.jmock.Expectations;
+import org.jmock.Sequence;
 import org.jmock.integration.junit4.JUnitRuleMockery;
 import org.junit.Rule;
 import org.junit.Test;
@@ -8,6 +9,7 @@ import org.postgis.Point;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 
 public class QueryProcessorSelectTest {
 
@@ -109,4 +111,131 @@ public class QueryProcessorSelectTest {
         .equals("Gallery.id")
         .executeSelect();
   }
+
+  @Test
+  public void autoCommitSwitchedOffForFetchingIsRestoredOnRelease() throws SQLException {
+    Sequence fetch = context.sequence("fetch");
+    context.checking(
+        new Expectations() {
+          {
+            oneOf(mockJDBCconnection).prepareStatement("SELECT * FROM Player");
+            inSequence(fetch);
+            oneOf(mockJDBCconnection).getAutoCommit();
+            will(returnValue(true));
+            inSequence(fetch);
+            oneOf(mockJDBCconnection).setAutoCommit(false);
+            inSequence(fetch);
+            oneOf(mockJDBCconnection).rollback();
+            inSequence(fetch);
+            oneOf(mockJDBCconnection).setAutoCommit(true);
+            inSequence(fetch);
+          }
+        });
+    queryProcessor.select("*").from("Player").withFetchSize(100).executeSelect();
+    queryProcessor.releaseConnection();
+    // nothing left to restore
+    queryProcessor.releaseConnection();
+  }
+
+  @Test
+  public void selectWithinDistanceParsedCorrectly() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "SELECT * FROM landmark WHERE landmark.location && "
+                        + "ST_Expand(ST_SetSRID(ST_MakePoint(?, ?), 4326), ?) AND "
+                        + "ST_DWithin(landmark.location::geography, "
+                        + "ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography, ?)");
+          }
+        });
+    queryProcessor
+        .select("*")
+        .from("landmark")
+        .withinDistanceOf(51.4988, -0.1795, 500.0, "landmark", "location", true)
+        .executeSelect();
+  }
+
+  @Test
+  public void selectWithinDistanceWithoutPrefilterParsedCorrectly() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "SELECT * FROM landmark WHERE ST_DWithin(landmark.location::geography, "
+                        + "ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography, ?)");
+          }
+        });
+    queryProcessor
+        .select("*")
+        .from("landmark")
+        .withinDistanceOf(51.4988, -0.1795, 500.0, "landmark", "location", false)
+        .executeSelect();
+  }
+
+  @Test
+  public void selectWithinPolygonJoiningGalleryParsedCorrectly() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "SELECT location.id,ST_X(location.location) AS long,"
+                        + "ST_Y(location.location) AS lat,url FROM location "
+                        + "INNER JOIN gallery ON gallery.id = location.id "
+                        + "WHERE location.location && ? "
+                        + "AND ST_Contains(?::geometry, location.location)");
+          }
+        });
+    queryProcessor
+        .select(
+            "location.id",
+            "ST_X(location.location) AS long",
+            "ST_Y(location.location) AS lat",
+            "url")
+        .from("location")
+        .innerJoin("gallery")
+        .on("gallery.id = location.id")
+        .withinPolygon(
+            Arrays.asList(
+                new Point(-4.97, 52.43), new Point(-9.12, 46.74), new Point(16.59, 44.73)),
+            "location",
+            "location",
+            true)
+        .executeSelect();
+  }
+
+  @Test
+  public void polygonStatementPreparedOnceForEveryPolygon() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "SELECT id FROM location WHERE ST_Contains(?::geometry, location.location)");
+          }
+        });
+    queryProcessor
+        .select("id")
+        .from("location")
+        .withinPolygon(
+            Arrays.asList(new Point(0, 0), new Point(1, 0), new Point(1, 1)),
+            "location",
+            "location",
+            false);
+    queryProcessor
+        .select("id")
+        .from("location")
+        .withinPolygon(
+            Arrays.asList(new Point(2, 2), new Point(3, 2), new Point(3, 3), new Point(2, 2)),
+            "location",
+            "location",
+            false);
+  }
 }
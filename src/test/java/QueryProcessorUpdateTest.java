@@ -6,8 +6,11 @@ import org.postgis.PGgeometry;
 import org.postgis.Point;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
 
 public class QueryProcessorUpdateTest {
 
@@ -247,4 +250,60 @@ public class QueryProcessorUpdateTest {
         .is(examplePG)
         .execute();
   }
+
+  @Test
+  public void updateSetSeveralColumnsHandledCorrectly() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement("UPDATE Player SET email = ?, password = ? WHERE id = ?");
+          }
+        });
+    queryProcessor
+        .update("Player")
+        .set("email")
+        .to("example@email.com")
+        .set("password")
+        .to("example123")
+        .where("id")
+        .is(123)
+        .execute();
+  }
+
+  @Test
+  public void updateAddToColumnsBindsEveryAmountBeforeWhere() throws Exception {
+    PreparedStatement mockStatement = context.mock(PreparedStatement.class);
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1)
+                .of(mockJDBCconnection)
+                .prepareStatement(
+                    "UPDATE Player_Stats SET xp = xp + ?, cash = cash + ? WHERE player_id = ?");
+            will(returnValue(mockStatement));
+            oneOf(mockStatement).setInt(1, 50);
+            oneOf(mockStatement).setInt(2, -10);
+            oneOf(mockStatement).setInt(3, 7);
+            oneOf(mockStatement).executeUpdate();
+          }
+        });
+    Map<String, String> params = new HashMap<>();
+    params.put("add", "xp,cash");
+    params.put("by.xp", " 50");
+    params.put("by.cash", "-10");
+    DBInterfaceHelpers.getUpdateAssignments(queryProcessor.update("Player_Stats"), params)
+        .where("player_id")
+        .is(7)
+        .execute();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void updateAddToNonCounterColumnRefused() throws Exception {
+    Map<String, String> params = new HashMap<>();
+    params.put("add", "email");
+    params.put("by", "1");
+    DBInterfaceHelpers.getUpdateAssignments(queryProcessor.update("Player"), params);
+  }
 }
@@ -0,0 +1,72 @@
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class QueryStringParserTest {
+
+  @Test
+  public void keysAndValuesAreDecodedAfterSplitting() {
+    Map<String, String> params =
+        QueryStringParser.parse("description=fish%26chips%3Dcheap&name=Big+Ben&to.email=a%40b.com");
+
+    assertEquals(3, params.size());
+    assertEquals("fish&chips=cheap", params.get("description"));
+    assertEquals("Big Ben", params.get("name"));
+    assertEquals("a@b.com", params.get("to.email"));
+  }
+
+  @Test
+  public void polygonOfGeoSelectIsKeptWhole() {
+    Map<String, String> params =
+        QueryStringParser.parse(
+            "poly=%5B%7B%22lat%22%3A52.43%2C%22lng%22%3A-4.96%7D%5D&format=typed");
+
+    assertEquals("[{\"lat\":52.43,\"lng\":-4.96}]", params.get("poly"));
+    assertEquals("typed", params.get("format"));
+  }
+
+  @Test
+  public void malformedAndMissingPartsAreTolerated() {
+    assertTrue(QueryStringParser.parse(null).isEmpty());
+    assertTrue(QueryStringParser.parse("").isEmpty());
+
+    Map<String, String> params =
+        QueryStringParser.parse("&flag&=orphan&rate=100%&x=%zz&y=%C3%A9t%C3%A9");
+
+    assertEquals(4, params.size());
+    assertEquals("", params.get("flag"));
+    assertEquals("100%", params.get("rate"));
+    assertEquals("%zz", params.get("x"));
+    assertEquals("\u00e9t\u00e9", params.get("y"));
+  }
+
+  @Test
+  public void mapIsNotChangedByTheNextCallOnTheThread() {
+    Map<String, String> first = QueryStringParser.parse("from=player&where=id&is=1");
+    Map<String, String> second = QueryStringParser.parse("from=landmark");
+
+    assertNotSame(first, second);
+    assertEquals(3, first.size());
+    assertEquals("player", first.get("from"));
+    assertEquals(1, second.size());
+    assertEquals("landmark", second.get("from"));
+  }
+
+  @Test
+  public void valuesLongerThanTheRetainedBufferAreDecoded() {
+    StringBuilder value = new StringBuilder();
+    while (value.length() < QueryStringParser.MAX_RETAINED_BYTES) {
+      value.append("caf\u00e9 ");
+    }
+    String encoded = value.toString().replace("\u00e9", "%C3%A9").replace(' ', '+');
+
+    Map<String, String> params = QueryStringParser.parse("description=" + encoded);
+
+    assertEquals(value.toString(), params.get("description"));
+    assertEquals("a b", QueryStringParser.parse("name=a+b").get("name"));
+  }
+}
@@ -0,0 +1,54 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final RateLimiter limiter = new RateLimiter(1000, 60);
+
+  @After
+  public void shutdownLimiter() {
+    limiter.shutdown();
+  }
+
+  @Test
+  public void burstAllowedThenRequestsSpacedAtTheRate() {
+    limiter.setLimit("/geoSelect", 10, 3);
+    long now = 1000 * SECOND;
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.acquire("/geoSelect", "player:1", now));
+    }
+    long wait = limiter.acquire("/geoSelect", "player:1", now);
+    assertEquals(SECOND / 10, wait);
+    assertEquals(0, limiter.acquire("/geoSelect", "player:2", now));
+    assertEquals(0, limiter.acquire("/geoSelect", "player:1", now + wait));
+    assertTrue(limiter.acquire("/geoSelect", "player:1", now + wait) > 0);
+
+    assertEquals(0, limiter.acquire("/select", "player:1", now));
+    assertEquals(5, limiter.getAllowed("/geoSelect"));
+    assertEquals(2, limiter.getRejected("/geoSelect"));
+  }
+
+  @Test
+  public void idleClientsEvicted() {
+    limiter.setLimit("/auth", 1, 1);
+    long now = 1000 * SECOND;
+    limiter.acquire("/auth", "10.0.0.1", now);
+    limiter.acquire("/auth", "10.0.0.2", now + 30 * SECOND);
+    assertEquals(2, limiter.getTrackedClients("/auth"));
+
+    limiter.evictIdle(now + 62 * SECOND);
+    assertEquals(1, limiter.getTrackedClients("/auth"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void idleTimeOfZeroRefused() {
+    new RateLimiter(1000, 0);
+  }
+}
@@ -0,0 +1,245 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResponseCompressorTest {
+
+  private final ResponseCompressor compressor = new ResponseCompressor(true, 1024, 6);
+
+  private static byte[] body() {
+    StringBuilder sb = new StringBuilder("success\n[");
+    for (int i = 0; i < 200; i++) {
+      sb.append(i > 0 ? ", " : "")
+          .append("{\"id\":\"")
+          .append(i)
+          .append("\",\"url\":\"https://storage.example.com/gallery/")
+          .append(i)
+          .append(".jpg\"}");
+    }
+    return sb.append(']').toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void gzipPreferredOverDeflate() {
+    assertEquals(
+        ResponseCompressor.GZIP,
+        ResponseCompressor.negotiate(Collections.singletonList("deflate, gzip;q=0.5")));
+    assertEquals(
+        ResponseCompressor.DEFLATE,
+        ResponseCompressor.negotiate(Arrays.asList("deflate", "br")));
+    assertEquals(
+        ResponseCompressor.GZIP, ResponseCompressor.negotiate(Collections.singletonList("*")));
+  }
+
+  @Test
+  public void refusedEncodingsNotUsed() {
+    assertNull(ResponseCompressor.negotiate(null));
+    assertNull(ResponseCompressor.negotiate(Collections.singletonList("identity")));
+    assertNull(ResponseCompressor.negotiate(Collections.singletonList("gzip;q=0, deflate;q=0")));
+    assertEquals(
+        ResponseCompressor.DEFLATE,
+        ResponseCompressor.negotiate(Collections.singletonList("gzip;q=0, *")));
+    assertEquals(
+        ResponseCompressor.DEFLATE,
+        ResponseCompressor.negotiate(Collections.singletonList("GZIP;Q=0, Deflate")));
+  }
+
+  @Test
+  public void streamAboveTheThresholdIsSentCompressed() throws IOException {
+    byte[] body = body();
+    Exchange exchange = new Exchange("gzip", new ByteArrayOutputStream());
+    try (OutputStream out = compressor.openStream(exchange)) {
+      for (int off = 0; off < body.length; off += 100) {
+        out.write(body, off, Math.min(100, body.length - off));
+      }
+    }
+
+    assertEquals(0, exchange.responseLength);
+    assertEquals("gzip", exchange.getResponseHeaders().getFirst("Content-Encoding"));
+    byte[] sent = exchange.body.toByteArray();
+    assertArrayEquals(body, readAll(new GZIPInputStream(new ByteArrayInputStream(sent))));
+    assertEquals(1, compressor.getCompressedResponses());
+    assertEquals(body.length, compressor.getBytesBeforeCompression());
+    assertEquals(sent.length, compressor.getBytesAfterCompression());
+  }
+
+  @Test
+  public void streamBelowTheThresholdIsSentAsItIs() throws IOException {
+    byte[] body = "success\n[]".getBytes(StandardCharsets.UTF_8);
+    Exchange exchange = new Exchange("deflate", new ByteArrayOutputStream());
+    try (OutputStream out = compressor.openStream(exchange)) {
+      out.write(body);
+    }
+
+    assertEquals(body.length, exchange.responseLength);
+    assertNull(exchange.getResponseHeaders().getFirst("Content-Encoding"));
+    assertArrayEquals(body, exchange.body.toByteArray());
+    assertEquals(1, compressor.getUncompressedResponses());
+  }
+
+  @Test
+  public void streamFailingMidwayRefusesFurtherWrites() throws IOException {
+    byte[] body = body();
+    OutputStream broken =
+        new OutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            throw new IOException("Broken pipe");
+          }
+        };
+    Exchange exchange = new Exchange("deflate", broken);
+    OutputStream out = compressor.openStream(exchange);
+    try {
+      // enough incompressible-looking data for the deflater to hand bytes to the client
+      for (int i = 0; i < 64; i++) {
+        out.write(body);
+        out.flush();
+      }
+      fail("Write to a broken stream succeeded");
+    } catch (IOException e) {
+      assertEquals("Broken pipe", e.getMessage());
+    }
+    try {
+      out.write(body);
+      fail("Write after a failure succeeded");
+    } catch (IOException e) {
+      // expected
+    }
+    out.close();
+    assertEquals(0, compressor.getCompressedResponses());
+  }
+
+  @Test
+  public void compressedBodiesRoundTrip() throws IOException {
+    byte[] body = body();
+    byte[] gzipped = compressor.compress(body, ResponseCompressor.GZIP);
+    byte[] deflated = compressor.compress(body, ResponseCompressor.DEFLATE);
+    assertTrue(gzipped.length < body.length / 4);
+    assertArrayEquals(body, readAll(new GZIPInputStream(new ByteArrayInputStream(gzipped))));
+    assertArrayEquals(body, readAll(new InflaterInputStream(new ByteArrayInputStream(deflated))));
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    try (InputStream stream = in) {
+      return stream.readAllBytes();
+    }
+  }
+
+  /** Exchange whose response body is written to a given stream */
+  private static class Exchange extends HttpExchange {
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private final OutputStream responseBody;
+    private final ByteArrayOutputStream body;
+    private long responseLength = -2;
+
+    Exchange(String acceptEncoding, OutputStream responseBody) {
+      requestHeaders.add("Accept-Encoding", acceptEncoding);
+      this.responseBody = responseBody;
+      this.body =
+          responseBody instanceof ByteArrayOutputStream
+              ? (ByteArrayOutputStream) responseBody
+              : null;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+      return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+      return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+      return URI.create("/select/player");
+    }
+
+    @Override
+    public String getRequestMethod() {
+      return "GET";
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+      return null;
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public InputStream getRequestBody() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+      return responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) {
+      this.responseLength = responseLength;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+      return null;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return 200;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+      return null;
+    }
+
+    @Override
+    public String getProtocol() {
+      return "HTTP/1.1";
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+      return null;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {}
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {}
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+      return null;
+    }
+  }
+}
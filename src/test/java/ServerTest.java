@@ -0,0 +1,87 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServerTest {
+
+  private static final String NEW_EMAIL = "new.player@example.com";
+
+  private WorkerExecutor executor;
+  private JdkHttpTransport transport;
+  private Server server;
+
+  @Before
+  public void startServer() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("password.iterations", "1000");
+    ServerConfig config = new ServerConfig(properties);
+    executor = WorkerExecutor.fixed(4, 64);
+    transport = new JdkHttpTransport(new InetSocketAddress("localhost", 0), executor);
+    server = new Server(transport, new StubQueryProcessor(config, 0, 0, 1), executor, config);
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void insertedPlayerCanAuthenticate() throws IOException {
+    // the stub database holds StubQueryProcessor.EMAIL only, so the filter knows no other email
+    assertEquals(DBInterfaceHelpers.WRONG_CREDENTIALS, auth(NEW_EMAIL));
+
+    assertEquals(
+        DBInterfaceHelpers.SUCCESS,
+        get("/insert/player?email=" + NEW_EMAIL + "&password=" + StubQueryProcessor.PASSWORD));
+
+    assertEquals(DBInterfaceHelpers.LOGIN_SUCCESSFUL, auth(NEW_EMAIL));
+  }
+
+  @Test
+  public void playerGivenANewEmailCanAuthenticate() throws IOException {
+    assertEquals(
+        DBInterfaceHelpers.SUCCESS,
+        get("/update/Player?set=email&to=" + NEW_EMAIL + "&where=id&is=1"));
+
+    assertEquals(DBInterfaceHelpers.LOGIN_SUCCESSFUL, auth(NEW_EMAIL));
+  }
+
+  private String auth(String email) throws IOException {
+    HttpURLConnection connection = open("/auth");
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    String credentials =
+        "{\"email\": \"" + email + "\", \"password\": \"" + StubQueryProcessor.PASSWORD + "\"}";
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+    return read(connection);
+  }
+
+  private String get(String pathAndQuery) throws IOException {
+    return read(open(pathAndQuery));
+  }
+
+  private HttpURLConnection open(String pathAndQuery) throws IOException {
+    URL url = new URL("http://localhost:" + transport.getAddress().getPort() + pathAndQuery);
+    return (HttpURLConnection) url.openConnection();
+  }
+
+  private static String read(HttpURLConnection connection) throws IOException {
+    try (InputStream in = connection.getInputStream()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SessionTokensTest {
+
+  private static final byte[] SECRET =
+      "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+  private final SessionTokens tokens = new SessionTokens(SECRET, 3600);
+
+  @Test
+  public void issuedTokenVerifiedWithoutTheDatabase() {
+    String token = tokens.issue(42);
+    SessionTokens.Session session = tokens.verify(token);
+    assertNotNull(session);
+    assertEquals(42, session.getPlayerId());
+
+    SessionTokens otherServer = new SessionTokens(SECRET, 60);
+    assertEquals(42, otherServer.verify(token).getPlayerId());
+  }
+
+  @Test
+  public void forgedExpiredAndRevokedTokensRefused() {
+    String token = tokens.issue(42);
+    String forged = "43" + token.substring(token.indexOf('.'));
+    assertNull(tokens.verify(forged));
+    assertNull(tokens.verify("not a token"));
+    assertNull(tokens.verify(null));
+    assertNull(new SessionTokens(new byte[32], 3600).verify(token));
+
+    SessionTokens.Session session = tokens.verify(token);
+    assertNull(tokens.verify(token, session.getExpiresAt()));
+
+    tokens.revoke(session);
+    assertNull(tokens.verify(token));
+    assertEquals(1, tokens.getRevokedTokens());
+    assertEquals(1, tokens.getAccepted());
+    assertEquals(4, tokens.getRefused());
+  }
+}
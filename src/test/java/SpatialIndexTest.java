@@ -0,0 +1,171 @@
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.postgis.PGgeometry;
+import org.postgis.Point;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialIndexTest {
+
+  // reloads run on the loader thread
+  @Rule
+  public JUnitRuleMockery context =
+      new JUnitRuleMockery() {
+        {
+          setThreadingPolicy(new Synchroniser());
+        }
+      };
+  Connection mockJDBCconnection = context.mock(Connection.class);
+  PreparedStatement mockStatement = context.mock(PreparedStatement.class);
+
+  QueryProcessor queryProcessor = new QueryProcessor(mockJDBCconnection);
+  ScheduledExecutorService loader = Executors.newSingleThreadScheduledExecutor();
+  SpatialIndex index = new SpatialIndex(queryProcessor, "landmark", "location", 0.01, loader);
+
+  @After
+  public void shutdownLoader() {
+    loader.shutdownNow();
+  }
+
+  private static String ewkb(double longitude, double latitude) {
+    Point point = new Point(longitude, latitude);
+    point.setSrid(4326);
+    return new PGgeometry(point).getValue();
+  }
+
+  /* Landmarks around South Kensington, the second one about 1.1 km east of the first */
+  private ResultSet landmarks() {
+    return InMemoryResultSet.of(
+        new String[] {"location", "type", "description"},
+        new int[] {Types.OTHER, Types.INTEGER, Types.VARCHAR},
+        new String[] {"geometry", "int4", "varchar"},
+        Arrays.asList(
+            new Object[] {ewkb(-0.1749, 51.4988), "1", "Imperial College"},
+            new Object[] {ewkb(-0.1589, 51.4988), "2", "Sloane Square"},
+            new Object[] {ewkb(-0.1749, 51.4990), "1", null}));
+  }
+
+  private void loadLandmarks() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1).of(mockJDBCconnection).prepareStatement("SELECT * FROM landmark");
+            will(returnValue(mockStatement));
+            allowing(mockStatement).setFetchSize(0);
+            exactly(1).of(mockStatement).executeQuery();
+            will(returnValue(landmarks()));
+          }
+        });
+    index.load();
+  }
+
+  @Test
+  public void staleUntilLoaded() {
+    assertFalse(index.isFresh());
+    assertNull(index.withinRadiusOf(51.4988, -0.1749, 500.0));
+  }
+
+  @Test
+  public void radiusQueryReturnsRowsInTableOrder() throws SQLException, IOException {
+    loadLandmarks();
+    assertTrue(index.isFresh());
+    assertEquals(3, index.size());
+
+    ResultSet near = index.withinRadiusOf(51.4988, -0.1749, 500.0);
+    StringWriter out = new StringWriter();
+    assertEquals(2, new JSONResultWriter(near).writeArray(out));
+    assertEquals(
+        DBInterfaceHelpers.getJSONfromResultSet(
+            InMemoryResultSet.of(
+                new String[] {"location", "type", "description"},
+                Arrays.asList(
+                    new Object[] {ewkb(-0.1749, 51.4988), "1", "Imperial College"},
+                    new Object[] {ewkb(-0.1749, 51.4990), "1", null}))),
+        out.toString());
+
+    ResultSet all = index.withinRadiusOf(51.4988, -0.1749, 1500.0);
+    int rows = 0;
+    while (all.next()) {
+      rows++;
+    }
+    assertEquals(3, rows);
+  }
+
+  @Test
+  public void writeMakesIndexStale() throws SQLException {
+    loadLandmarks();
+    loader.shutdownNow();
+    index.invalidate();
+    assertFalse(index.isFresh());
+    assertNull(index.withinRadiusOf(51.4988, -0.1749, 500.0));
+  }
+
+  @Test
+  public void refreshKeepsAnsweringUntilTheNewRowsAreSwappedIn() throws Exception {
+    loadLandmarks();
+    CountDownLatch release = new CountDownLatch(1);
+    loader.execute(
+        () -> {
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1).of(mockStatement).executeQuery();
+            will(
+                returnValue(
+                    InMemoryResultSet.of(
+                        new String[] {"location", "type", "description"},
+                        new int[] {Types.OTHER, Types.INTEGER, Types.VARCHAR},
+                        new String[] {"geometry", "int4", "varchar"},
+                        Arrays.<Object[]>asList(
+                            new Object[] {ewkb(-0.1749, 51.4988), "1", "Imperial College"}))));
+          }
+        });
+
+    index.refresh();
+    // the reload waits behind the task holding the loader
+    assertTrue(index.isFresh());
+    assertEquals(3, index.size());
+    assertTrue(index.withinRadiusOf(51.4988, -0.1749, 500.0).next());
+
+    release.countDown();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (index.size() != 1 && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, index.size());
+    assertTrue(index.isFresh());
+  }
+
+  @Test
+  public void haversineDistance() {
+    // one degree of longitude at the equator
+    assertEquals(111195.08, SpatialIndex.distance(0.0, 0.0, 0.0, 1.0), 0.01);
+    assertEquals(0.0, SpatialIndex.distance(51.5, -0.17, 51.5, -0.17), 0.0);
+  }
+}
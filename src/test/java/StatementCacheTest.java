@@ -0,0 +1,95 @@
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class StatementCacheTest {
+
+  @Rule public JUnitRuleMockery context = new JUnitRuleMockery();
+  Connection mockJDBCconnection = context.mock(Connection.class);
+  PreparedStatement selectPlayer = context.mock(PreparedStatement.class, "selectPlayer");
+  PreparedStatement selectGallery = context.mock(PreparedStatement.class, "selectGallery");
+
+  @Test
+  public void statementsDifferingOnlyInWhitespaceArePreparedOnce() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1).of(mockJDBCconnection).prepareStatement("SELECT *  FROM Player");
+            will(returnValue(selectPlayer));
+          }
+        });
+    StatementCache cache = new StatementCache(mockJDBCconnection, 4);
+    PreparedStatement first = cache.prepare("SELECT *  FROM Player");
+    assertSame(first, cache.prepare("SELECT * FROM Player"));
+    assertSame(first, cache.prepare(" SELECT *\n FROM Player "));
+    assertEquals(1, cache.size());
+    assertEquals(2, cache.getCounters().getHits());
+    assertEquals(1, cache.getCounters().getMisses());
+  }
+
+  @Test
+  public void countersAreKeptPerCacheAndAddedToTheTotals() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            allowing(mockJDBCconnection).prepareStatement("SELECT * FROM Player");
+            will(returnValue(selectPlayer));
+          }
+        });
+    StatementCache.Counters totals = new StatementCache.Counters();
+    StatementCache first = new StatementCache(mockJDBCconnection, 4, totals);
+    StatementCache second = new StatementCache(mockJDBCconnection, 4, totals);
+    first.prepare("SELECT * FROM Player");
+    first.prepare("SELECT * FROM Player");
+    second.prepare("SELECT * FROM Player");
+
+    assertEquals(1, first.getCounters().getHits());
+    assertEquals(0, second.getCounters().getHits());
+    assertEquals(1, second.getCounters().getMisses());
+    assertEquals(1, totals.getHits());
+    assertEquals(2, totals.getMisses());
+  }
+
+  @Test
+  public void leastRecentlyUsedStatementIsClosedOnEviction() throws SQLException {
+    context.checking(
+        new Expectations() {
+          {
+            exactly(1).of(mockJDBCconnection).prepareStatement("SELECT * FROM Player");
+            will(returnValue(selectPlayer));
+            exactly(1).of(mockJDBCconnection).prepareStatement("SELECT * FROM Gallery");
+            will(returnValue(selectGallery));
+            oneOf(selectPlayer).close();
+          }
+        });
+    StatementCache cache = new StatementCache(mockJDBCconnection, 1);
+    cache.prepare("SELECT * FROM Player");
+    cache.prepare("SELECT * FROM Gallery");
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void normalizeKeepsAlreadyNormalizedText() {
+    String sql = "SELECT id FROM Player WHERE id = ?";
+    assertSame(sql, StatementCache.normalize(sql));
+    assertEquals("a b c", StatementCache.normalize("a \t b\n\nc "));
+  }
+
+  @Test
+  public void normalizeKeepsWhitespaceInsideQuotes() {
+    assertEquals(
+        "SELECT \"a  b\" FROM t WHERE x = 'it''s  \n here' AND y = 1",
+        StatementCache.normalize("SELECT  \"a  b\" FROM t\nWHERE x = 'it''s  \n here'  AND y = 1"));
+    assertEquals("SELECT 'a  b'", StatementCache.normalize("SELECT  'a  b'"));
+    String escaped = "SELECT  E'a\\'  b'";
+    assertSame(escaped, StatementCache.normalize(escaped));
+  }
+}
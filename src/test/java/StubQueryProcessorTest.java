@@ -0,0 +1,71 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StubQueryProcessorTest {
+
+  ServerConfig config = new ServerConfig(passwordIterations(1000));
+  StubQueryProcessor queryProcessor = new StubQueryProcessor(config, 2000, 0, 3);
+
+  PasswordHasher hasher = new PasswordHasher(1000, 1, 1, 1);
+
+  @After
+  public void close() {
+    queryProcessor.closeConnection();
+    hasher.shutdown();
+  }
+
+  @Test
+  public void queriesWaitForTheLatencyAndReturnTheStubRows() throws Exception {
+    queryProcessor.connect();
+    queryProcessor.borrowConnection();
+    try {
+      long start = System.nanoTime();
+      ResultSet rs =
+          queryProcessor.select("*").from("Player").where("email").is("x").executeSelect();
+
+      assertTrue(System.nanoTime() - start >= 2_000_000);
+      int rows = 0;
+      while (rs.next()) {
+        rows++;
+        assertEquals(StubQueryProcessor.EMAIL, rs.getString("email"));
+        assertTrue(hasher.verify(StubQueryProcessor.PASSWORD, rs.getString("password")));
+      }
+      assertEquals(3, rows);
+      assertFalse(queryProcessor.hasSpatialIndex("landmark", "location"));
+    } finally {
+      queryProcessor.releaseConnection();
+    }
+  }
+
+  @Test
+  public void batchedInsertsGetAnIdEach() throws SQLException {
+    queryProcessor.connect();
+    queryProcessor.borrowConnection();
+    try {
+      Timestamp ts = new Timestamp(0);
+      List<ImageObject> images =
+          Arrays.asList(new ImageObject(1, 0, ts, "a"), new ImageObject(2, 0, ts, "b"));
+
+      assertEquals(Arrays.asList(1, 2), queryProcessor.addNewImageMetaData(images));
+    } finally {
+      queryProcessor.releaseConnection();
+    }
+  }
+
+  private static Properties passwordIterations(int iterations) {
+    Properties properties = new Properties();
+    properties.setProperty("password.iterations", Integer.toString(iterations));
+    return properties;
+  }
+}
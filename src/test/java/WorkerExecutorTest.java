@@ -0,0 +1,72 @@
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WorkerExecutorTest {
+
+  @Test
+  public void taskRunsOnTheSubmittingThreadOnceTheQueueIsFull() throws Exception {
+    WorkerExecutor executor = WorkerExecutor.fixed(1, 1);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      executor.execute(
+          () -> {
+            running.countDown();
+            await(release);
+          });
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      executor.execute(() -> {});
+      assertEquals(1, executor.getQueueDepth());
+      assertEquals(1, executor.getActiveWorkers());
+
+      AtomicReference<Thread> ranOn = new AtomicReference<>();
+      executor.execute(() -> ranOn.set(Thread.currentThread()));
+      assertSame(Thread.currentThread(), ranOn.get());
+      assertEquals(1, executor.getQueueDepth());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(0, executor.getQueueDepth());
+    assertEquals(3, executor.getCompletedTasks());
+  }
+
+  @Test
+  public void shutdownFinishesQueuedTasksAndRejectsNewOnes() throws Exception {
+    WorkerExecutor executor = WorkerExecutor.fixed(2, 16);
+    AtomicInteger ran = new AtomicInteger();
+    for (int i = 0; i < 10; i++) {
+      executor.execute(ran::incrementAndGet);
+    }
+    executor.shutdown();
+    try {
+      executor.execute(ran::incrementAndGet);
+      fail("Task accepted after shutdown");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(10, ran.get());
+    assertEquals(10, executor.getCompletedTasks());
+    assertEquals(0, executor.getQueueDepth());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}